@@ -18,6 +18,11 @@ package org.ops4j.pax.url.mvn;
 import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A maven resolver service
@@ -31,6 +36,31 @@ public interface MavenResolver extends Closeable {
      */
     File resolve( String url ) throws IOException;
 
+    /**
+     * Asynchronously resolve and download a maven based url.
+     * Cancelling the returned future interrupts the resolution.
+     *
+     * @since 2.5.0
+     */
+    CompletableFuture<File> resolveAsync( String url );
+
+    /**
+     * Asynchronously resolve and download a maven based url.
+     * The resolution is cancelled if it is not completed within the given timeout.
+     *
+     * @since 2.5.0
+     */
+    CompletableFuture<File> resolveAsync( String url, long timeout, TimeUnit unit );
+
+    /**
+     * Resolve and download a set of maven based urls.
+     * Artifacts that share the same repositories are downloaded together.
+     *
+     * @return the resolved files, in the same order as the given urls
+     * @since 2.5.0
+     */
+    List<File> resolveAll( Collection<String> urls ) throws IOException;
+
     /**
      * Resolve and download an artifact
      */
@@ -38,11 +68,22 @@ public interface MavenResolver extends Closeable {
                   String extension, String version ) throws IOException;
 
     /**
-     * Resolve the maven metadata xml for the specified groupId:artifactId:version
+     * Resolve the maven metadata xml for the specified groupId:artifactId:version.
+     * The returned file is replaced by each resolution of the same metadata.
      */
     File resolveMetadata( String groupId, String artifactId,
                           String type, String version ) throws IOException;
 
+    /**
+     * Resolve the maven metadata xml for the specified groupId:artifactId:version,
+     * without writing it to a file.
+     *
+     * @return a stream on the merged metadata, or <code>null</code> if none has been found
+     * @since 2.5.0
+     */
+    InputStream openMetadata( String groupId, String artifactId,
+                              String type, String version ) throws IOException;
+
     /**
      * Install the specified artifact in the local repository
      */
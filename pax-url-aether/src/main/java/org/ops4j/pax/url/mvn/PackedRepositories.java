@@ -0,0 +1,41 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.ops4j.pax.url.mvn.internal.archive.PackedRepository;
+
+/**
+ * Builds packed repositories: read-only maven repositories held in a single memory mapped
+ * file, with a sorted index of their entries. A packed repository is used by giving the
+ * <code>file:</code> url of its <code>.pack</code> file in the default repositories or
+ * the repositories, such as <code>file:/opt/system.pack@id=system</code>.
+ */
+public final class PackedRepositories {
+
+    /**
+     * Pack a repository directory, such as a local repository.
+     *
+     * @param repository the root directory of the repository
+     * @param archive the packed repository to create, replaced if it exists, usually named <code>*.pack</code>
+     * @return the number of packed files
+     */
+    public static int pack(File repository, File archive) throws IOException {
+        return PackedRepository.pack(repository, archive);
+    }
+
+    private PackedRepositories() { }
+}
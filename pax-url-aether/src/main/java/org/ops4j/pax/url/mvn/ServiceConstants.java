@@ -94,7 +94,11 @@ public interface ServiceConstants
     String PROPERTY_LOCAL_REPOSITORY = "localRepository";
     
     /**
-     * DefaultRepositories configuration property name
+     * DefaultRepositories configuration property name.
+     * <p>
+     * Directories are used in place. Packed repositories (<code>.pack</code> files) and zip repositories
+     * (<code>jar:file:</code> urls) have no file for each artifact, so the artifacts resolved from them are
+     * copied into the local repository, as if they were downloaded from a remote repository.
      */
     String PROPERTY_DEFAULT_REPOSITORIES = "defaultRepositories";
     
@@ -131,6 +135,251 @@ public interface ServiceConstants
      */
     String PROPERTY_OFFLINE = "offline";
 
+    /**
+     * Maximum number of threads used for asynchronous resolution.
+     */
+    String PROPERTY_ASYNC_THREADS = "asyncThreads";
+
+    int PROPERTY_ASYNC_THREADS_DEFAULT = 8;
+
+    /**
+     * Maximum number of asynchronous resolutions waiting for a thread.
+     */
+    String PROPERTY_ASYNC_QUEUE_SIZE = "asyncQueueSize";
+
+    int PROPERTY_ASYNC_QUEUE_SIZE_DEFAULT = 1000;
+
+    /**
+     * Maximum number of resolved artifacts kept in memory; 0, the default, disables the cache.
+     */
+    String PROPERTY_RESOLVED_CACHE_SIZE = "resolvedCacheSize";
+
+    int PROPERTY_RESOLVED_CACHE_SIZE_DEFAULT = 0;
+
+    /**
+     * Time to live in milliseconds of cached SNAPSHOT artifacts; 0 disables their caching.
+     */
+    String PROPERTY_RESOLVED_CACHE_SNAPSHOT_TTL = "resolvedCacheSnapshotTtl";
+
+    long PROPERTY_RESOLVED_CACHE_SNAPSHOT_TTL_DEFAULT = 0L;
+
+    /**
+     * Time to live in milliseconds of cached LATEST and version range artifacts; 0 disables their caching.
+     */
+    String PROPERTY_RESOLVED_CACHE_LATEST_TTL = "resolvedCacheLatestTtl";
+
+    long PROPERTY_RESOLVED_CACHE_LATEST_TTL_DEFAULT = 0L;
+
+    /**
+     * Time to live in milliseconds of artifacts not found in a remote repository; 0 disables their caching.
+     */
+    String PROPERTY_NOT_FOUND_CACHE_TTL = "notFoundCacheTtl";
+
+    long PROPERTY_NOT_FOUND_CACHE_TTL_DEFAULT = 0L;
+
+    /**
+     * Option to index the files of the default repositories in memory. Directories are listed on first
+     * lookup and watched for changes.
+     */
+    String PROPERTY_DEFAULT_REPOSITORIES_INDEX = "defaultRepositoriesIndex";
+
+    boolean PROPERTY_DEFAULT_REPOSITORIES_INDEX_DEFAULT = false;
+
+    /**
+     * Maximum number of directories of the default repositories watched at once by their index.
+     */
+    String PROPERTY_DEFAULT_REPOSITORIES_INDEX_WATCHES = "defaultRepositoriesIndexWatches";
+
+    int PROPERTY_DEFAULT_REPOSITORIES_INDEX_WATCHES_DEFAULT = 1024;
+
+    /**
+     * Option to look up release versions, which are neither SNAPSHOT, LATEST, RELEASE nor ranges, directly
+     * in the default repositories then in the local repository, using the simple layout, without going
+     * through aether. A release found in the local repository is then returned whatever the remote
+     * repository it was downloaded from, as the repository tracking of aether is bypassed.
+     */
+    String PROPERTY_PINNED_RELEASE_LOOKUP = "pinnedReleaseLookup";
+
+    boolean PROPERTY_PINNED_RELEASE_LOOKUP_DEFAULT = false;
+
+    /**
+     * Option to cache the versions resolved for LATEST and version ranges, following the update policy
+     * of the repositories. Expired versions are served while they are refreshed in the background.
+     */
+    String PROPERTY_VERSION_RANGE_CACHE = "versionRangeCache";
+
+    boolean PROPERTY_VERSION_RANGE_CACHE_DEFAULT = false;
+
+    /**
+     * Maximum number of idle repository sessions kept per local repository.
+     */
+    String PROPERTY_SESSION_POOL_MAX_IDLE = "sessionPoolMaxIdle";
+
+    int PROPERTY_SESSION_POOL_MAX_IDLE_DEFAULT = 32;
+
+    /**
+     * Time in milliseconds after which an idle repository session is evicted; 0 never evicts.
+     */
+    String PROPERTY_SESSION_POOL_IDLE_TIMEOUT = "sessionPoolIdleTimeout";
+
+    long PROPERTY_SESSION_POOL_IDLE_TIMEOUT_DEFAULT = 300000L;
+
+    /**
+     * Number of repository sessions created for the local repository when the resolver is created.
+     */
+    String PROPERTY_SESSION_POOL_PREWARM = "sessionPoolPrewarm";
+
+    int PROPERTY_SESSION_POOL_PREWARM_DEFAULT = 1;
+
+    /**
+     * Transport used for http and https repositories: "wagon" for the wagon based one,
+     * or "native" for the one sending its requests directly through the shared http client.
+     */
+    String PROPERTY_HTTP_TRANSPORT = "httpTransport";
+
+    String HTTP_TRANSPORT_WAGON = "wagon";
+
+    String HTTP_TRANSPORT_NATIVE = "native";
+
+    String PROPERTY_HTTP_TRANSPORT_DEFAULT = HTTP_TRANSPORT_WAGON;
+
+    /**
+     * Size in bytes of the ranges of an artifact downloaded concurrently by the native http transport;
+     * 0 downloads each artifact in a single request.
+     */
+    String PROPERTY_HTTP_CHUNK_SIZE = "httpChunkSize";
+
+    long PROPERTY_HTTP_CHUNK_SIZE_DEFAULT = 0L;
+
+    /**
+     * Number of threads downloading ranges of artifacts with the native http transport.
+     */
+    String PROPERTY_HTTP_CHUNK_THREADS = "httpChunkThreads";
+
+    int PROPERTY_HTTP_CHUNK_THREADS_DEFAULT = 4;
+
+    /**
+     * Number of times an interrupted download is resumed by the native http transport.
+     */
+    String PROPERTY_HTTP_RESUME_RETRIES = "httpResumeRetries";
+
+    int PROPERTY_HTTP_RESUME_RETRIES_DEFAULT = 3;
+
+    /**
+     * Whether the native http transport refreshes metadata with conditional requests, using the
+     * <code>ETag</code> and <code>Last-Modified</code> headers of their last download. The headers
+     * are kept in a <code>.validators</code> file next to the metadata in the local repository.
+     * This has no effect unless {@link #PROPERTY_HTTP_TRANSPORT} is {@link #HTTP_TRANSPORT_NATIVE},
+     * the default wagon transport always downloads the metadata again.
+     */
+    String PROPERTY_HTTP_CONDITIONAL_METADATA = "httpConditionalMetadata";
+
+    boolean PROPERTY_HTTP_CONDITIONAL_METADATA_DEFAULT = true;
+
+    /**
+     * Whether an artifact is also requested from the next repositories when the first one
+     * has not started to send it within the hedge delay.
+     */
+    String PROPERTY_HEDGED_REQUESTS = "hedgedRequests";
+
+    boolean PROPERTY_HEDGED_REQUESTS_DEFAULT = false;
+
+    /**
+     * Percentile of the observed latencies to first byte used as hedge delay. The adaptive
+     * repository order compares the repositories by the same percentile of their latencies.
+     */
+    String PROPERTY_HEDGE_PERCENTILE = "hedgePercentile";
+
+    int PROPERTY_HEDGE_PERCENTILE_DEFAULT = 95;
+
+    /**
+     * Hedge delay in milliseconds used until enough latencies have been observed.
+     */
+    String PROPERTY_HEDGE_DELAY = "hedgeDelay";
+
+    long PROPERTY_HEDGE_DELAY_DEFAULT = 1000L;
+
+    /**
+     * Whether the remote repositories are ordered by their observed hit rate and latency,
+     * rather than tried in the configured order.
+     */
+    String PROPERTY_ADAPTIVE_REPOSITORY_ORDER = "adaptiveRepositoryOrder";
+
+    boolean PROPERTY_ADAPTIVE_REPOSITORY_ORDER_DEFAULT = false;
+
+    /**
+     * File the statistics of the remote repositories are persisted to; defaults to
+     * pax-url-aether-statistics.properties in the local repository.
+     */
+    String PROPERTY_REPOSITORY_STATISTICS_FILE = "repositoryStatisticsFile";
+
+    /**
+     * Number of consecutive failed artifact transfers, because of timeouts, i/o errors or server errors,
+     * after which a remote repository is skipped for the circuit breaker cool-down; 0, the default,
+     * never skips.
+     */
+    String PROPERTY_CIRCUIT_BREAKER_THRESHOLD = "circuitBreakerThreshold";
+
+    int PROPERTY_CIRCUIT_BREAKER_THRESHOLD_DEFAULT = 0;
+
+    /**
+     * Time in milliseconds during which a failing remote repository is skipped before being probed again.
+     */
+    String PROPERTY_CIRCUIT_BREAKER_COOL_DOWN = "circuitBreakerCoolDown";
+
+    long PROPERTY_CIRCUIT_BREAKER_COOL_DOWN_DEFAULT = 30000L;
+
+    /**
+     * Routing of artifacts to remote repositories by groupId prefix, as a comma separated list of
+     * <code>groupIdPrefix=repositoryId|repositoryId</code> rules. An artifact whose groupId matches a rule
+     * is only looked up in the repositories of its longest matching rule, and the repositories named by
+     * the rules are only queried for the artifacts they are routed.
+     */
+    String PROPERTY_REPOSITORY_ROUTES = "repositoryRoutes";
+
+    /**
+     * Whether to load the prefix file published by the remote repositories, <code>.meta/prefixes.txt</code>,
+     * and only query a repository for the artifacts under its prefixes.
+     */
+    String PROPERTY_REPOSITORY_PREFIXES = "repositoryPrefixes";
+
+    boolean PROPERTY_REPOSITORY_PREFIXES_DEFAULT = false;
+
+    /**
+     * Whether a SNAPSHOT available in the local repository is returned immediately, its metadata and
+     * artifact being refreshed in the background according to the update policy. Resolutions after the
+     * refresh has completed return the new SNAPSHOT.
+     */
+    String PROPERTY_SNAPSHOT_STALE_WHILE_REVALIDATE = "snapshotStaleWhileRevalidate";
+
+    boolean PROPERTY_SNAPSHOT_STALE_WHILE_REVALIDATE_DEFAULT = false;
+
+    /**
+     * Whether an artifact available in the local repository is returned, with a warning, when its
+     * resolution from the remote repositories fails for another reason than the artifact being missing.
+     * The local copy is then returned without contacting the remote repositories for
+     * {@link #PROPERTY_SERVE_STALE_DURATION}. Batch resolutions do not return local copies.
+     */
+    String PROPERTY_SERVE_STALE_ON_FAILURE = "serveStaleOnFailure";
+
+    boolean PROPERTY_SERVE_STALE_ON_FAILURE_DEFAULT = false;
+
+    /**
+     * Time in ms during which the local copy of an artifact returned after a failure of the remote
+     * repositories is returned again without contacting them, see {@link #PROPERTY_SERVE_STALE_ON_FAILURE}.
+     */
+    String PROPERTY_SERVE_STALE_DURATION = "serveStaleDuration";
+
+    long PROPERTY_SERVE_STALE_DURATION_DEFAULT = 30000L;
+
+    /**
+     * File recording the artifacts resolved by <code>mvn:</code> urls, with their resolved version,
+     * file, size and checksum. Once recorded, an artifact is returned from this file as long as the
+     * size and last modification time of its file did not change, without going through the
+     * repositories, even for SNAPSHOT versions, LATEST and version ranges. Empty disables the lock file.
+     */
+    String PROPERTY_RESOLUTION_LOCK_FILE = "resolutionLockFile";
+
     /**
      * Option to mark repository as not allowing releases.
      */
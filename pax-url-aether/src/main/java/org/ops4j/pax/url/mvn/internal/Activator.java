@@ -19,14 +19,16 @@ import java.io.IOException;
 import java.lang.reflect.Method;
 import java.net.URL;
 import java.net.URLConnection;
+import java.util.Arrays;
 import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.ops4j.pax.url.mvn.MavenResolver;
 import org.ops4j.pax.url.mvn.ServiceConstants;
-import org.ops4j.pax.url.mvn.internal.config.MavenConfiguration;
-import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
 import org.ops4j.util.property.DictionaryPropertyResolver;
 import org.ops4j.util.property.PropertyResolver;
 import org.osgi.framework.BundleActivator;
@@ -74,7 +76,15 @@ public class Activator extends AbstractURLStreamHandlerService
     /**
      * Maven resolver.
      */
-    private final AtomicReference<MavenResolver> m_resolver = new AtomicReference<MavenResolver>();
+    private final AtomicReference<LazyResolver> m_resolver = new AtomicReference<LazyResolver>();
+    /**
+     * Properties of the current resolver, <code>null</code> if it is configured by the bundle context.
+     */
+    private Map<String, Object> m_properties;
+    /**
+     * <code>true</code> until the configuration is pushed for the first time after the bundle start.
+     */
+    private boolean m_startupPush;
     /**
      * Managed service registration. Used for cleanup.
      */
@@ -130,6 +140,11 @@ public class Activator extends AbstractURLStreamHandlerService
             registration.unregister();
         }
         MavenResolver resolver = m_resolver.getAndSet( null );
+        synchronized ( this )
+        {
+            m_properties = null;
+            m_startupPush = false;
+        }
         if ( resolver != null )
         {
             try {
@@ -183,20 +198,32 @@ public class Activator extends AbstractURLStreamHandlerService
         }
     }
 
-    public void updated(Dictionary<String, ?> config) {
+    public synchronized void updated(Dictionary<String, ?> config) {
+        // the configuration admin pushes again at startup the configuration the resolver has been built with,
+        // later identical pushes are honored as they may be meant to reload the settings files
+        Map<String, Object> properties = toMap(config);
+        boolean startupPush = m_startupPush;
+        m_startupPush = m_resolver.get() == null;
+        if (startupPush
+                && (properties == null ? m_properties == null : properties.equals(m_properties))) {
+            LOG.debug("Configuration of " + ServiceConstants.PID + " unchanged");
+            return;
+        }
+        m_properties = properties;
         PropertyResolver propertyResolver;
         if (config == null) {
+            final BundleContext bundleContext = m_bundleContext;
             propertyResolver = new PropertyResolver() {
                 @Override
                 public String get(String propertyName) {
-                    return m_bundleContext.getProperty(propertyName);
+                    return bundleContext.getProperty(propertyName);
                 }
             };
         } else {
             propertyResolver = new DictionaryPropertyResolver(config);
         }
-        MavenConfiguration mavenConfig = new MavenConfigurationImpl(propertyResolver, ServiceConstants.PID);
-        MavenResolver resolver = new AetherBasedResolver(mavenConfig);
+        // the resolver is built on first use, or right away to take over the components of a used one
+        LazyResolver resolver = new LazyResolver(propertyResolver, m_resolver.get());
         MavenResolver oldResolver = m_resolver.getAndSet( resolver );
         ServiceRegistration<MavenResolver> registration = safeRegisterService(
                 MavenResolver.class,
@@ -215,6 +242,22 @@ public class Activator extends AbstractURLStreamHandlerService
         }
     }
 
+    /**
+     * Returns the properties of the configuration, or <code>null</code> if there is none.
+     */
+    private static Map<String, Object> toMap(Dictionary<String, ?> config) {
+        if (config == null) {
+            return null;
+        }
+        Map<String, Object> properties = new HashMap<String, Object>();
+        for (Enumeration<String> keys = config.keys(); keys.hasMoreElements();) {
+            String key = keys.nextElement();
+            Object value = config.get(key);
+            properties.put(key, value instanceof Object[] ? Arrays.asList((Object[]) value) : value);
+        }
+        return properties;
+    }
+
     @Override
     public URLConnection openConnection( final URL url )
             throws IOException
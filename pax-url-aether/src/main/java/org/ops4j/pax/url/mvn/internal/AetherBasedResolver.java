@@ -17,6 +17,7 @@
 package org.ops4j.pax.url.mvn.internal;
 
 import static org.ops4j.pax.url.mvn.internal.Parser.VERSION_LATEST;
+import static org.ops4j.pax.url.mvn.internal.Parser.isVersionRange;
 import static org.eclipse.aether.repository.RepositoryPolicy.CHECKSUM_POLICY_FAIL;
 import static org.eclipse.aether.repository.RepositoryPolicy.CHECKSUM_POLICY_IGNORE;
 import static org.eclipse.aether.repository.RepositoryPolicy.CHECKSUM_POLICY_WARN;
@@ -25,28 +26,54 @@ import static org.eclipse.aether.repository.RepositoryPolicy.UPDATE_POLICY_DAILY
 import static org.eclipse.aether.repository.RepositoryPolicy.UPDATE_POLICY_INTERVAL;
 import static org.eclipse.aether.repository.RepositoryPolicy.UPDATE_POLICY_NEVER;
 
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.StringWriter;
+import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
+import java.net.SocketTimeoutException;
+import java.nio.channels.ClosedByInterruptException;
 import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Deque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
-import org.apache.maven.artifact.repository.metadata.Versioning;
-import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
-import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
 import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
 import org.apache.maven.settings.Mirror;
 import org.apache.maven.settings.Server;
@@ -55,6 +82,7 @@ import org.apache.maven.settings.crypto.DefaultSettingsDecryptionRequest;
 import org.apache.maven.settings.crypto.SettingsDecrypter;
 import org.apache.maven.settings.crypto.SettingsDecryptionRequest;
 import org.apache.maven.settings.crypto.SettingsDecryptionResult;
+import org.apache.maven.settings.io.xpp3.SettingsXpp3Writer;
 import org.codehaus.plexus.util.xml.Xpp3Dom;
 import org.eclipse.aether.ConfigurationProperties;
 import org.eclipse.aether.DefaultRepositorySystemSession;
@@ -79,6 +107,7 @@ import org.eclipse.aether.repository.RemoteRepository;
 import org.eclipse.aether.repository.RepositoryPolicy;
 import org.eclipse.aether.resolution.ArtifactRequest;
 import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
 import org.eclipse.aether.resolution.MetadataRequest;
 import org.eclipse.aether.resolution.MetadataResult;
 import org.eclipse.aether.resolution.VersionRangeRequest;
@@ -86,9 +115,14 @@ import org.eclipse.aether.resolution.VersionRangeResolutionException;
 import org.eclipse.aether.resolution.VersionRangeResult;
 import org.eclipse.aether.spi.connector.RepositoryConnectorFactory;
 import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.spi.connector.transport.TransporterProvider;
 import org.eclipse.aether.spi.localrepo.LocalRepositoryManagerFactory;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
 import org.eclipse.aether.transport.wagon.WagonProvider;
 import org.eclipse.aether.transport.wagon.WagonTransporterFactory;
+import org.eclipse.aether.util.ChecksumUtils;
+import org.eclipse.aether.util.listener.ChainedTransferListener;
 import org.eclipse.aether.util.repository.AuthenticationBuilder;
 import org.eclipse.aether.util.repository.DefaultMirrorSelector;
 import org.eclipse.aether.util.repository.DefaultProxySelector;
@@ -101,6 +135,9 @@ import org.ops4j.pax.url.mvn.MavenResolver;
 import org.ops4j.pax.url.mvn.ServiceConstants;
 import org.ops4j.pax.url.mvn.internal.config.MavenConfiguration;
 import org.ops4j.pax.url.mvn.internal.config.MavenRepositoryURL;
+import org.ops4j.pax.url.mvn.internal.archive.PackedTransporterFactory;
+import org.ops4j.pax.url.mvn.internal.archive.ZipTransporterFactory;
+import org.ops4j.pax.url.mvn.internal.http.HttpTransporterFactory;
 import org.slf4j.LoggerFactory;
 import org.sonatype.plexus.components.cipher.DefaultPlexusCipher;
 import org.sonatype.plexus.components.cipher.PlexusCipherException;
@@ -120,6 +157,20 @@ public class AetherBasedResolver implements MavenResolver {
     private static final String PROXY_USER = "proxyUser";
     private static final String PROXY_PASSWORD = "proxyPassword";
     private static final String NON_PROXY_HOSTS = "nonProxyHosts";
+    private static final int VERSION_RANGE_CACHE_SIZE = 1000;
+    private static final int NOT_FOUND_CACHE_SIZE = 10000;
+    private static final int STALE_ARTIFACTS_SIZE = 10000;
+    private static final int LATENCY_SAMPLES = 200;
+    private static final String REPOSITORY_STATISTICS_FILE = "pax-url-aether-statistics.properties";
+    private static final long STATISTICS_STORE_INTERVAL = 60000L;
+    private static final long RESOLUTION_LOCK_STORE_INTERVAL = 10000L;
+    private static final String METADATA_RESOLVER_THREADS = "aether.metadataResolver.threads";
+    private static final int MAX_METADATA_RESOLVER_THREADS = 8;
+    /**
+     * Directory of the local repository holding the metadata merged by {@link #resolveMetadata}.
+     */
+    private static final String MERGED_METADATA_DIR = ".cache/pax-url-aether/merged-metadata";
+    private static final String UPDATE_CHECK_SESSION_STATE = "aether.updateCheckManager.sessionState";
 
     final private RepositorySystem m_repoSystem;
     final private MavenConfiguration m_config;
@@ -130,8 +181,125 @@ public class AetherBasedResolver implements MavenResolver {
     private ConfigurableSettingsDecrypter decrypter;
 
     private LocalRepository localRepository;
-    private final ConcurrentMap<LocalRepository, Deque<RepositorySystemSession>> sessions
-            = new ConcurrentHashMap<LocalRepository, Deque<RepositorySystemSession>>();
+    private final SessionPool m_sessionPool;
+    /**
+     * HTTP headers of the servers, by session configuration property.
+     */
+    private final Map<String, Map<String, String>> m_serverHeaders;
+
+    /**
+     * Repositories artifacts are resolved from, built on first use.
+     */
+    private volatile RepositoryPlan m_plan;
+
+    /**
+     * Whether the default repositories are indexed.
+     */
+    private final boolean m_indexDefaultRepositories;
+    private final int m_indexWatches;
+    private final boolean m_pinnedReleaseLookup;
+    /**
+     * Index of the default repositories of the current plan, built on first use.
+     */
+    private DefaultRepositoryIndex m_defaultIndex;
+    /**
+     * Default repositories that could not be indexed.
+     */
+    private List<LocalRepository> m_unindexedRepos;
+
+    /**
+     * Resolved artifacts, keyed by artifact and repository.
+     */
+    private final ResolvedArtifactCache m_resolvedCache;
+
+    /**
+     * Versions resolved for LATEST and version ranges, or <code>null</code> if they are not cached.
+     */
+    private final VersionRangeCache m_versionCache;
+
+    /**
+     * Artifacts known to be missing from remote repositories.
+     */
+    private final NotFoundCache m_notFoundCache;
+
+    /**
+     * Resolutions currently in progress, keyed by artifact and repository.
+     */
+    private final ConcurrentMap<String, InflightResolution> m_inflight
+            = new ConcurrentHashMap<String, InflightResolution>();
+
+    /**
+     * Executor used for asynchronous resolution.
+     */
+    private final ThreadPoolExecutor m_executor;
+    /**
+     * Scheduler used to enforce the deadline of asynchronous resolutions.
+     */
+    private final ScheduledThreadPoolExecutor m_scheduler;
+    /**
+     * Executor downloading the ranges of large artifacts with the native http transport, if enabled.
+     */
+    private ThreadPoolExecutor m_downloadExecutor;
+    /**
+     * Transporter factories of the packed and zip repositories, which keep their files open.
+     */
+    private PackedTransporterFactory m_packedTransporterFactory;
+    private ZipTransporterFactory m_zipTransporterFactory;
+    /**
+     * Resolver sending hedged requests, or <code>null</code> if disabled, and its executor.
+     */
+    private final HedgedArtifactResolver m_hedgedResolver;
+    private final ExecutorService m_hedgeExecutor;
+    /**
+     * Statistics of the remote repositories used to order them, or <code>null</code> if disabled,
+     * and the file they are persisted to.
+     */
+    private final RepositoryStatistics m_repositoryStatistics;
+    private final File m_statisticsFile;
+    /**
+     * Circuit breakers of the remote repositories, or <code>null</code> if disabled.
+     */
+    private final CircuitBreakers m_circuitBreakers;
+    /**
+     * Routing of the artifacts to the remote repositories able to host them, or <code>null</code> if disabled.
+     */
+    private final RepositoryRoutes m_repositoryRoutes;
+    /**
+     * Whether locally available SNAPSHOTs are returned while being refreshed in the background,
+     * and the SNAPSHOTs being refreshed.
+     */
+    private final boolean m_staleWhileRevalidate;
+    private final ConcurrentMap<String, Boolean> m_revalidating = new ConcurrentHashMap<String, Boolean>();
+    /**
+     * Whether local copies are returned when the remote repositories fail, and until when the local
+     * copy of each artifact is returned after such a failure, for the most recently used artifacts.
+     */
+    private final boolean m_serveStaleOnFailure;
+    private final long m_staleDuration;
+    private final Map<String, Long> m_staleUntil = new LinkedHashMap<String, Long>( 16, 0.75f, true ) {
+        @Override
+        protected boolean removeEldestEntry( Map.Entry<String, Long> eldest ) {
+            return size() > STALE_ARTIFACTS_SIZE;
+        }
+    };
+    /**
+     * Lock file of the resolved artifacts, or <code>null</code> if disabled.
+     */
+    private final ResolutionLock m_resolutionLock;
+    /**
+     * Transporters of the repository system, used to load the prefix files of the remote repositories.
+     */
+    private TransporterProvider m_transporterProvider;
+    /**
+     * Inputs of the http client, of the repository system and of the repository sessions, used to
+     * reuse them in the resolver replacing this one, and whether they were handed over to it.
+     */
+    private final String m_clientKey;
+    private final String m_systemKey;
+    private final String m_sessionKey;
+    private volatile boolean m_clientHandedOver;
+    private volatile boolean m_systemHandedOver;
+    private volatile boolean m_sessionsHandedOver;
 
     /**
      * Create a AetherBasedResolver
@@ -148,19 +316,312 @@ public class AetherBasedResolver implements MavenResolver {
      * @param configuration (must be not null)
      */
     public AetherBasedResolver( final MavenConfiguration configuration, final Mirror mirror ) {
+        this( configuration, mirror, null );
+    }
+
+    /**
+     * Create a AetherBasedResolver replacing a previous one, reusing its http client, repository
+     * system and idle sessions when their configuration did not change. The previous resolver
+     * still has to be closed, which leaves the components handed over to this one open.
+     *
+     * @param configuration (must be not null)
+     * @param previous the resolver replaced by this one, or <code>null</code>
+     */
+    AetherBasedResolver( final MavenConfiguration configuration, final Mirror mirror,
+                         final AetherBasedResolver previous ) {
         NullArgumentException.validateNotNull( configuration, "Maven configuration");
-        m_client = HttpClients.createClient(configuration.getPropertyResolver());
+        boolean reusable = previous != null && !previous.m_executor.isShutdown();
+        m_clientKey = HttpClients.getKey(configuration.getPropertyResolver());
+        boolean reuseClient = reusable && m_clientKey.equals( previous.m_clientKey );
+        m_client = reuseClient ? previous.m_client : HttpClients.createClient(configuration.getPropertyResolver());
         m_config = configuration;
         m_settings = configuration.getSettings();
-        m_repoSystem = newRepositorySystem();
+        m_systemKey = m_clientKey + getSystemKey();
+        boolean reuseSystem = reuseClient && m_systemKey.equals( previous.m_systemKey );
+        if( reuseSystem ) {
+            m_repoSystem = previous.m_repoSystem;
+            m_transporterProvider = previous.m_transporterProvider;
+            m_downloadExecutor = previous.m_downloadExecutor;
+            m_packedTransporterFactory = previous.m_packedTransporterFactory;
+            m_zipTransporterFactory = previous.m_zipTransporterFactory;
+            decrypter = previous.decrypter;
+        }
+        else {
+            m_repoSystem = newRepositorySystem();
+        }
         decryptSettings();
         m_proxySelector = selectProxies();
         m_mirrorSelector = selectMirrors( mirror );
+        m_serverHeaders = getServerHeaders();
+        m_sessionKey = mirror == null ? getSessionKey() : null;
+        boolean reuseSessions = reuseSystem && m_sessionKey != null && m_sessionKey.equals( previous.m_sessionKey );
+        int threads = m_config.getProperty( ServiceConstants.PROPERTY_ASYNC_THREADS,
+                ServiceConstants.PROPERTY_ASYNC_THREADS_DEFAULT, Integer.class );
+        int queueSize = m_config.getProperty( ServiceConstants.PROPERTY_ASYNC_QUEUE_SIZE,
+                ServiceConstants.PROPERTY_ASYNC_QUEUE_SIZE_DEFAULT, Integer.class );
+        m_executor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>( queueSize ), newThreadFactory( "resolver" ) );
+        m_executor.allowCoreThreadTimeOut( true );
+        m_scheduler = new ScheduledThreadPoolExecutor( 1, newThreadFactory( "scheduler" ) );
+        m_scheduler.setRemoveOnCancelPolicy( true );
+        m_resolvedCache = new ResolvedArtifactCache(
+                m_config.getProperty( ServiceConstants.PROPERTY_RESOLVED_CACHE_SIZE,
+                        ServiceConstants.PROPERTY_RESOLVED_CACHE_SIZE_DEFAULT, Integer.class ),
+                m_config.getProperty( ServiceConstants.PROPERTY_RESOLVED_CACHE_SNAPSHOT_TTL,
+                        ServiceConstants.PROPERTY_RESOLVED_CACHE_SNAPSHOT_TTL_DEFAULT, Long.class ),
+                m_config.getProperty( ServiceConstants.PROPERTY_RESOLVED_CACHE_LATEST_TTL,
+                        ServiceConstants.PROPERTY_RESOLVED_CACHE_LATEST_TTL_DEFAULT, Long.class ) );
+        m_indexDefaultRepositories = m_config.getProperty( ServiceConstants.PROPERTY_DEFAULT_REPOSITORIES_INDEX,
+                ServiceConstants.PROPERTY_DEFAULT_REPOSITORIES_INDEX_DEFAULT, Boolean.class );
+        m_indexWatches = m_config.getProperty( ServiceConstants.PROPERTY_DEFAULT_REPOSITORIES_INDEX_WATCHES,
+                ServiceConstants.PROPERTY_DEFAULT_REPOSITORIES_INDEX_WATCHES_DEFAULT, Integer.class );
+        m_pinnedReleaseLookup = m_config.getProperty( ServiceConstants.PROPERTY_PINNED_RELEASE_LOOKUP,
+                ServiceConstants.PROPERTY_PINNED_RELEASE_LOOKUP_DEFAULT, Boolean.class );
+        m_versionCache = m_config.getProperty( ServiceConstants.PROPERTY_VERSION_RANGE_CACHE,
+                ServiceConstants.PROPERTY_VERSION_RANGE_CACHE_DEFAULT, Boolean.class )
+                ? new VersionRangeCache( VERSION_RANGE_CACHE_SIZE ) : null;
+        m_notFoundCache = new NotFoundCache( NOT_FOUND_CACHE_SIZE,
+                m_config.getProperty( ServiceConstants.PROPERTY_NOT_FOUND_CACHE_TTL,
+                        ServiceConstants.PROPERTY_NOT_FOUND_CACHE_TTL_DEFAULT, Long.class ) );
+        if( m_config.getProperty( ServiceConstants.PROPERTY_HEDGED_REQUESTS,
+                ServiceConstants.PROPERTY_HEDGED_REQUESTS_DEFAULT, Boolean.class ) ) {
+            m_hedgeExecutor = Executors.newCachedThreadPool( newThreadFactory( "hedge" ) );
+            m_hedgedResolver = new HedgedArtifactResolver( m_repoSystem, m_hedgeExecutor,
+                    new LatencyTracker( LATENCY_SAMPLES ),
+                    m_config.getProperty( ServiceConstants.PROPERTY_HEDGE_PERCENTILE,
+                            ServiceConstants.PROPERTY_HEDGE_PERCENTILE_DEFAULT, Integer.class ),
+                    m_config.getProperty( ServiceConstants.PROPERTY_HEDGE_DELAY,
+                            ServiceConstants.PROPERTY_HEDGE_DELAY_DEFAULT, Long.class ) );
+        }
+        else {
+            m_hedgeExecutor = null;
+            m_hedgedResolver = null;
+        }
+        if( m_config.getProperty( ServiceConstants.PROPERTY_ADAPTIVE_REPOSITORY_ORDER,
+                ServiceConstants.PROPERTY_ADAPTIVE_REPOSITORY_ORDER_DEFAULT, Boolean.class ) ) {
+            String statisticsFile = m_config.getProperty( ServiceConstants.PROPERTY_REPOSITORY_STATISTICS_FILE,
+                    null, String.class );
+            m_statisticsFile = statisticsFile != null && statisticsFile.length() > 0 ? new File( statisticsFile )
+                    : new File( getLocalRepository().getBasedir(), REPOSITORY_STATISTICS_FILE );
+            int percentile = m_config.getProperty( ServiceConstants.PROPERTY_HEDGE_PERCENTILE,
+                    ServiceConstants.PROPERTY_HEDGE_PERCENTILE_DEFAULT, Integer.class );
+            if( reuseSessions ) {
+                m_repositoryStatistics = previous.m_repositoryStatistics;
+                m_repositoryStatistics.setPercentile( percentile );
+            }
+            else {
+                m_repositoryStatistics = new RepositoryStatistics( percentile );
+                try {
+                    m_repositoryStatistics.load( m_statisticsFile );
+                }
+                catch( IOException e ) {
+                    LOG.warn( "Unable to load the repositories statistics from " + m_statisticsFile, e );
+                }
+            }
+            m_scheduler.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run() {
+                    storeRepositoryStatistics();
+                }
+            }, STATISTICS_STORE_INTERVAL, STATISTICS_STORE_INTERVAL, TimeUnit.MILLISECONDS );
+        }
+        else {
+            m_statisticsFile = null;
+            m_repositoryStatistics = null;
+        }
+        String lockFile = m_config.getProperty( ServiceConstants.PROPERTY_RESOLUTION_LOCK_FILE, null, String.class );
+        if( lockFile != null && lockFile.length() > 0 ) {
+            if( previous != null && previous.m_resolutionLock != null ) {
+                // the artifacts locked by the previous resolver are read back from the file
+                previous.storeResolutionLock();
+            }
+            m_resolutionLock = new ResolutionLock( new File( lockFile ) );
+            try {
+                m_resolutionLock.load();
+            }
+            catch( IOException e ) {
+                LOG.warn( "Unable to load the resolution lock file " + lockFile, e );
+            }
+            m_scheduler.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run() {
+                    storeResolutionLock();
+                }
+            }, RESOLUTION_LOCK_STORE_INTERVAL, RESOLUTION_LOCK_STORE_INTERVAL, TimeUnit.MILLISECONDS );
+        }
+        else {
+            m_resolutionLock = null;
+        }
+        int breakerThreshold = m_config.getProperty( ServiceConstants.PROPERTY_CIRCUIT_BREAKER_THRESHOLD,
+                ServiceConstants.PROPERTY_CIRCUIT_BREAKER_THRESHOLD_DEFAULT, Integer.class );
+        if( reuseSessions ) {
+            // the idle sessions report to the circuit breakers they were created with
+            m_circuitBreakers = previous.m_circuitBreakers;
+        }
+        else {
+            m_circuitBreakers = breakerThreshold > 0 ? new CircuitBreakers( breakerThreshold,
+                    m_config.getProperty( ServiceConstants.PROPERTY_CIRCUIT_BREAKER_COOL_DOWN,
+                            ServiceConstants.PROPERTY_CIRCUIT_BREAKER_COOL_DOWN_DEFAULT, Long.class ) ) : null;
+        }
+        Map<String, Set<String>> routes = RepositoryRoutes.parse(
+                m_config.getProperty( ServiceConstants.PROPERTY_REPOSITORY_ROUTES, null, String.class ) );
+        boolean prefixes = m_config.getProperty( ServiceConstants.PROPERTY_REPOSITORY_PREFIXES,
+                ServiceConstants.PROPERTY_REPOSITORY_PREFIXES_DEFAULT, Boolean.class );
+        m_repositoryRoutes = !routes.isEmpty() || prefixes
+                ? new RepositoryRoutes( routes, prefixes ? m_transporterProvider : null ) : null;
+        m_staleWhileRevalidate = m_config.getProperty( ServiceConstants.PROPERTY_SNAPSHOT_STALE_WHILE_REVALIDATE,
+                ServiceConstants.PROPERTY_SNAPSHOT_STALE_WHILE_REVALIDATE_DEFAULT, Boolean.class );
+        m_serveStaleOnFailure = m_config.getProperty( ServiceConstants.PROPERTY_SERVE_STALE_ON_FAILURE,
+                ServiceConstants.PROPERTY_SERVE_STALE_ON_FAILURE_DEFAULT, Boolean.class );
+        m_staleDuration = m_config.getProperty( ServiceConstants.PROPERTY_SERVE_STALE_DURATION,
+                ServiceConstants.PROPERTY_SERVE_STALE_DURATION_DEFAULT, Long.class );
+        long idleTimeout = m_config.getProperty( ServiceConstants.PROPERTY_SESSION_POOL_IDLE_TIMEOUT,
+                ServiceConstants.PROPERTY_SESSION_POOL_IDLE_TIMEOUT_DEFAULT, Long.class );
+        m_sessionPool = new SessionPool( new SessionPool.SessionFactory() {
+            @Override
+            public RepositorySystemSession createSession( LocalRepository repo ) {
+                return AetherBasedResolver.this.createSession( repo );
+            }
+        }, m_config.getProperty( ServiceConstants.PROPERTY_SESSION_POOL_MAX_IDLE,
+                ServiceConstants.PROPERTY_SESSION_POOL_MAX_IDLE_DEFAULT, Integer.class ), idleTimeout );
+        if( reuseSessions ) {
+            m_sessionPool.adopt( previous.m_sessionPool );
+            previous.m_sessionsHandedOver = true;
+        }
+        if( reuseSystem ) {
+            previous.m_systemHandedOver = true;
+        }
+        if( reuseClient ) {
+            previous.m_clientHandedOver = true;
+        }
+        if( previous != null ) {
+            LOG.debug( "Reconfigured resolver, reusing http client: {}, repository system: {}, sessions: {}",
+                       new Object[] { reuseClient, reuseSystem, reuseSessions } );
+        }
+        if( idleTimeout > 0 ) {
+            m_scheduler.scheduleWithFixedDelay( new Runnable() {
+                @Override
+                public void run() {
+                    m_sessionPool.evictIdle();
+                }
+            }, idleTimeout, idleTimeout, TimeUnit.MILLISECONDS );
+        }
+        final int prewarm = m_config.getProperty( ServiceConstants.PROPERTY_SESSION_POOL_PREWARM,
+                ServiceConstants.PROPERTY_SESSION_POOL_PREWARM_DEFAULT, Integer.class );
+        if( prewarm > 0 ) {
+            m_executor.execute( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        m_sessionPool.prewarm( getLocalRepository(), prewarm );
+                    }
+                    catch( RuntimeException e ) {
+                        LOG.debug( "Unable to create repository sessions in advance", e );
+                    }
+                }
+            } );
+        }
     }
 
     @Override
     public void close() throws IOException {
-        m_client.close();
+        m_scheduler.shutdownNow();
+        m_executor.shutdownNow();
+        if( m_hedgeExecutor != null ) {
+            m_hedgeExecutor.shutdownNow();
+        }
+        if( !m_systemHandedOver ) {
+            if( m_downloadExecutor != null ) {
+                m_downloadExecutor.shutdownNow();
+            }
+            m_packedTransporterFactory.close();
+            m_zipTransporterFactory.close();
+        }
+        m_sessionPool.clear();
+        if( m_repositoryStatistics != null && !m_sessionsHandedOver ) {
+            storeRepositoryStatistics();
+        }
+        if( m_resolutionLock != null ) {
+            storeResolutionLock();
+        }
+        synchronized (this) {
+            if (m_defaultIndex != null) {
+                m_defaultIndex.close();
+                m_defaultIndex = null;
+            }
+        }
+        if( !m_clientHandedOver ) {
+            m_client.close();
+        }
+    }
+
+    /**
+     * Returns the configuration of the repository system, other than its http client.
+     */
+    private String getSystemKey() {
+        StringBuilder key = new StringBuilder();
+        key.append( m_config.getTimeout() ).append( '\n' );
+        key.append( m_config.getSecuritySettings() ).append( '\n' );
+        for( String name : new String[] { ServiceConstants.PROPERTY_HTTP_TRANSPORT,
+            ServiceConstants.PROPERTY_HTTP_CHUNK_SIZE, ServiceConstants.PROPERTY_HTTP_CHUNK_THREADS,
+            ServiceConstants.PROPERTY_HTTP_RESUME_RETRIES, ServiceConstants.PROPERTY_HTTP_CONDITIONAL_METADATA } ) {
+            key.append( name ).append( '=' ).append( getRawProperty( name ) ).append( '\n' );
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the unconverted value of a property, as converted values are cached by name.
+     */
+    private String getRawProperty( String name ) {
+        return m_config.getPropertyResolver().get( ServiceConstants.PID + "." + name );
+    }
+
+    /**
+     * Returns a digest of the configuration of the repository sessions, other than their repository
+     * system, or <code>null</code> if it can not be computed.
+     */
+    private String getSessionKey() {
+        StringBuilder key = new StringBuilder( m_systemKey );
+        StringWriter settings = new StringWriter();
+        try {
+            // the decrypted settings hold the mirrors, proxies, credentials and headers of the servers
+            new SettingsXpp3Writer().write( settings, m_settings );
+        }
+        catch( IOException e ) {
+            return null;
+        }
+        key.append( settings ).append( '\n' );
+        key.append( m_config.getGlobalUpdatePolicy() ).append( '\n' );
+        key.append( m_config.isOffline() ).append( '\n' );
+        for( String name : new String[] { ServiceConstants.PROPERTY_ADAPTIVE_REPOSITORY_ORDER,
+            ServiceConstants.PROPERTY_REPOSITORY_STATISTICS_FILE, ServiceConstants.PROPERTY_CIRCUIT_BREAKER_THRESHOLD,
+            ServiceConstants.PROPERTY_CIRCUIT_BREAKER_COOL_DOWN } ) {
+            key.append( name ).append( '=' ).append( getRawProperty( name ) ).append( '\n' );
+        }
+        try {
+            MessageDigest digest = MessageDigest.getInstance( "SHA-1" );
+            return ChecksumUtils.toHexString( digest.digest( key.toString().getBytes( "UTF-8" ) ) );
+        }
+        catch( NoSuchAlgorithmException e ) {
+            return null;
+        }
+        catch( UnsupportedEncodingException e ) {
+            return null;
+        }
+    }
+
+    private static ThreadFactory newThreadFactory( final String name ) {
+        return new ThreadFactory() {
+            private final AtomicInteger counter = new AtomicInteger();
+
+            @Override
+            public Thread newThread( Runnable r ) {
+                Thread thread = new Thread( r, "pax-url-aether-" + name + "-" + counter.incrementAndGet() );
+                thread.setDaemon( true );
+                return thread;
+            }
+        };
     }
 
     private void decryptSettings()
@@ -179,8 +640,14 @@ public class AetherBasedResolver implements MavenResolver {
         String aggregateReleaseChecksumPolicy = null, aggregateSnapshotChecksumPolicy = null; 
 
         List<RemoteRepository> resultingRepos = new ArrayList<RemoteRepository>();
+        // packed and zip repositories are local files, never proxied nor mirrored, and looked up first
+        List<RemoteRepository> archiveRepos = new ArrayList<RemoteRepository>();
 
         for( RemoteRepository r : remoteRepos ) {
+            if( PackedTransporterFactory.isPacked( r ) || ZipTransporterFactory.isZip( r ) ) {
+                archiveRepos.add( r );
+                continue;
+            }
             naming.put( r.getId(), r );
 
             RemoteRepository rProxy = new RemoteRepository.Builder( r ).setProxy(
@@ -224,6 +691,7 @@ public class AetherBasedResolver implements MavenResolver {
             resultingRepos.removeAll( mirroredRepos );
             resultingRepos.add( 0, mirror );
         }
+        resultingRepos.addAll( 0, archiveRepos );
 
         remoteRepos.clear();
         remoteRepos.addAll( resultingRepos );
@@ -384,7 +852,7 @@ public class AetherBasedResolver implements MavenResolver {
         return selector;
     }
 
-    private List<RemoteRepository> selectRepositories() {
+    private List<RemoteRepository> selectRepositories( Map<File, Long> multiDirs ) {
         List<RemoteRepository> list = new ArrayList<RemoteRepository>();
         List<MavenRepositoryURL> urls = Collections.emptyList();
         try {
@@ -395,6 +863,7 @@ public class AetherBasedResolver implements MavenResolver {
         }
         for( MavenRepositoryURL r : urls ) {
             if( r.isMulti() ) {
+                multiDirs.put( r.getFile(), r.getFile().lastModified() );
                 addSubDirs( list, r.getFile() );
             }
             else {
@@ -405,7 +874,7 @@ public class AetherBasedResolver implements MavenResolver {
         return list;
     }
 
-    List<LocalRepository> selectDefaultRepositories() {
+    List<LocalRepository> selectDefaultRepositories( Map<File, Long> multiDirs ) {
         List<LocalRepository> list = new ArrayList<LocalRepository>();
         List<MavenRepositoryURL> urls = Collections.emptyList();
         try {
@@ -416,9 +885,10 @@ public class AetherBasedResolver implements MavenResolver {
         }
         for( MavenRepositoryURL r : urls ) {
             if( r.isMulti() ) {
+                multiDirs.put( r.getFile(), r.getFile().lastModified() );
                 addLocalSubDirs(list, r.getFile());
             }
-            else {
+            else if( !r.isPackedRepository() ) {
                 addLocalRepo(list, r);
             }
         }
@@ -426,6 +896,27 @@ public class AetherBasedResolver implements MavenResolver {
         return list;
     }
 
+    /**
+     * Returns the packed and zip repositories among the default repositories, which are looked up
+     * as remote repositories, the artifacts found being copied into the local repository.
+     */
+    private List<RemoteRepository> selectArchiveDefaultRepositories() {
+        List<RemoteRepository> list = new ArrayList<RemoteRepository>();
+        List<MavenRepositoryURL> urls = Collections.emptyList();
+        try {
+            urls = m_config.getDefaultRepositories();
+        }
+        catch( MalformedURLException exc ) {
+            LOG.error( "invalid repository URLs", exc );
+        }
+        for( MavenRepositoryURL r : urls ) {
+            if( !r.isMulti() && ( r.isPackedRepository() || r.isZipRepository() ) ) {
+                addRepo( list, r );
+            }
+        }
+        return list;
+    }
+
     private void addSubDirs( List<RemoteRepository> list, File parentDir ) {
         if( !parentDir.isDirectory() ) {
             LOG.debug( "Repository marked with @multi does not resolve to a directory: "
@@ -453,9 +944,11 @@ public class AetherBasedResolver implements MavenResolver {
         if (releasesUpdatePolicy == null || releasesUpdatePolicy.isEmpty()) {
             releasesUpdatePolicy = UPDATE_POLICY_DAILY;
         }
+        // packed repositories are usually built from local repositories, which hold no checksums
+        String defaultChecksumPolicy = repo.isPackedRepository() ? CHECKSUM_POLICY_IGNORE : CHECKSUM_POLICY_WARN;
         String releasesChecksumPolicy = repo.getReleasesChecksumPolicy();
         if (releasesChecksumPolicy == null || releasesChecksumPolicy.isEmpty()) {
-            releasesChecksumPolicy = CHECKSUM_POLICY_WARN;
+            releasesChecksumPolicy = defaultChecksumPolicy;
         }
         String snapshotsUpdatePolicy = repo.getSnapshotsUpdatePolicy();
         if (snapshotsUpdatePolicy == null || snapshotsUpdatePolicy.isEmpty()) {
@@ -463,7 +956,7 @@ public class AetherBasedResolver implements MavenResolver {
         }
         String snapshotsChecksumPolicy = repo.getSnapshotsChecksumPolicy();
         if (snapshotsChecksumPolicy == null || snapshotsChecksumPolicy.isEmpty()) {
-            snapshotsChecksumPolicy = CHECKSUM_POLICY_WARN;
+            snapshotsChecksumPolicy = defaultChecksumPolicy;
         }
         RemoteRepository.Builder builder = new RemoteRepository.Builder( repo.getId(), REPO_TYPE, repo.getURL().toExternalForm() );
         RepositoryPolicy releasePolicy = new RepositoryPolicy( repo.isReleasesEnabled(), releasesUpdatePolicy, releasesChecksumPolicy );
@@ -509,17 +1002,34 @@ public class AetherBasedResolver implements MavenResolver {
     }
 
     public List<RemoteRepository> getRepositories() {
-        List<RemoteRepository> repos = selectRepositories();
-        assignProxyAndMirrors(repos);
-        return repos;
+        return new ArrayList<RemoteRepository>( getRepositoryPlan().getRemoteRepositories() );
     }
 
-    public File resolve(String url) throws IOException {
-        if (!url.startsWith(ServiceConstants.PROTOCOL + ":")) {
-            throw new IllegalArgumentException("url should be a mvn based url");
+    /**
+     * Returns the current repository plan, building it again if a <code>@multi</code>
+     * directory has changed, in which case the resolved artifacts cache is cleared.
+     */
+    RepositoryPlan getRepositoryPlan() {
+        RepositoryPlan plan = m_plan;
+        if( plan == null || plan.isStale() ) {
+            Map<File, Long> multiDirs = new HashMap<File, Long>();
+            List<LocalRepository> defaultRepos = selectDefaultRepositories( multiDirs );
+            List<RemoteRepository> repos = selectArchiveDefaultRepositories();
+            repos.addAll( selectRepositories( multiDirs ) );
+            List<RemoteRepository> remoteRepos = new ArrayList<RemoteRepository>( repos );
+            assignProxyAndMirrors( remoteRepos );
+            if( plan != null ) {
+                // artifacts resolved from the previous repositories may now be shadowed or gone
+                m_resolvedCache.clear();
+            }
+            plan = new RepositoryPlan( defaultRepos, repos, remoteRepos, multiDirs );
+            m_plan = plan;
         }
-        url = url.substring((ServiceConstants.PROTOCOL + ":").length());
-        Parser parser = new Parser(url);
+        return plan;
+    }
+
+    public File resolve(String url) throws IOException {
+        Parser parser = parseUrl(url);
         return resolve(
                 parser.getGroup(),
                 parser.getArtifact(),
@@ -530,6 +1040,218 @@ public class AetherBasedResolver implements MavenResolver {
         );
     }
 
+    private Parser parseUrl(String url) throws MalformedURLException {
+        if (!url.startsWith(ServiceConstants.PROTOCOL + ":")) {
+            throw new IllegalArgumentException("url should be a mvn based url");
+        }
+        url = url.substring((ServiceConstants.PROTOCOL + ":").length());
+        return new Parser(url);
+    }
+
+    @Override
+    public CompletableFuture<File> resolveAsync( String url ) {
+        return resolveAsync( url, 0, TimeUnit.MILLISECONDS );
+    }
+
+    /**
+     * Asynchronously resolve a maven based url as file in repository.
+     * A timeout lower or equal to zero means no deadline. If too many resolutions are pending,
+     * the returned future fails with a {@link RejectedExecutionException}.
+     */
+    @Override
+    public CompletableFuture<File> resolveAsync( final String url, long timeout, TimeUnit unit ) {
+        final AtomicReference<ScheduledFuture<?>> deadline = new AtomicReference<ScheduledFuture<?>>();
+        final AtomicReference<FutureTask<File>> resolution = new AtomicReference<FutureTask<File>>();
+        // completed by the resolution, which is interrupted when the future is cancelled
+        final CompletableFuture<File> future = new CompletableFuture<File>() {
+            @Override
+            public boolean cancel( boolean mayInterruptIfRunning ) {
+                boolean cancelled = super.cancel( mayInterruptIfRunning );
+                resolution.get().cancel( true );
+                return cancelled;
+            }
+        };
+        final FutureTask<File> task = new FutureTask<File>( new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return resolve( url );
+            }
+        } ) {
+            @Override
+            protected void done() {
+                ScheduledFuture<?> timer = deadline.get();
+                if (timer != null) {
+                    timer.cancel( false );
+                }
+                if (isCancelled()) {
+                    future.cancel( false );
+                    return;
+                }
+                try {
+                    future.complete( get() );
+                } catch (ExecutionException e) {
+                    future.completeExceptionally( e.getCause() );
+                } catch (InterruptedException e) {
+                    future.completeExceptionally( e );
+                }
+            }
+        };
+        resolution.set( task );
+        try {
+            m_executor.execute( task );
+        } catch (RejectedExecutionException e) {
+            future.completeExceptionally( e );
+            return future;
+        }
+        // scheduled once accepted, so that a rejected resolution leaves no pending timer
+        if (timeout > 0) {
+            deadline.set( m_scheduler.schedule( new Runnable() {
+                @Override
+                public void run() {
+                    if (task.cancel( true )) {
+                        LOG.debug( "Resolution of {} cancelled after its deadline", url );
+                    }
+                }
+            }, timeout, unit ) );
+            if (task.isDone()) {
+                // completed before its timer was set
+                deadline.get().cancel( false );
+            }
+        }
+        return future;
+    }
+
+    /**
+     * Resolve a set of maven based urls as files in repository.
+     * Urls are grouped by the repositories they have to be resolved from
+     * and each group is resolved in a single request.
+     */
+    public List<File> resolveAll(Collection<String> urls) throws IOException {
+        File[] files = new File[urls.size()];
+        Map<String, MavenRepositoryURL> groupRepositories = new LinkedHashMap<String, MavenRepositoryURL>();
+        Map<String, List<Integer>> groupIndexes = new HashMap<String, List<Integer>>();
+        List<Artifact> artifacts = new ArrayList<Artifact>(urls.size());
+        for (String url : urls) {
+            Parser parser = parseUrl(url);
+            MavenRepositoryURL repositoryURL = parser.getRepositoryURL();
+            String key = getRepositoryKey(repositoryURL);
+            if (!groupIndexes.containsKey(key)) {
+                groupRepositories.put(key, repositoryURL);
+                groupIndexes.put(key, new ArrayList<Integer>());
+            }
+            groupIndexes.get(key).add(artifacts.size());
+            artifacts.add(new DefaultArtifact(parser.getGroup(), parser.getArtifact(),
+                    parser.getClassifier(), parser.getType(), parser.getVersion()));
+        }
+        for (Map.Entry<String, MavenRepositoryURL> group : groupRepositories.entrySet()) {
+            List<Integer> indexes = groupIndexes.get(group.getKey());
+            List<Artifact> groupArtifacts = new ArrayList<Artifact>(indexes.size());
+            for (Integer index : indexes) {
+                groupArtifacts.add(artifacts.get(index));
+            }
+            List<File> resolved = resolveAll(groupArtifacts, group.getValue());
+            for (int i = 0; i < indexes.size(); i++) {
+                files[indexes.get(i)] = resolved.get(i);
+            }
+        }
+        return Arrays.asList(files);
+    }
+
+    /**
+     * Resolve a set of maven artifacts as files in repository, using a single
+     * request so that the downloads can be performed concurrently.
+     *
+     * @return the resolved files, in the same order as the given artifacts
+     */
+    public List<File> resolveAll( Collection<Artifact> artifacts,
+                                  MavenRepositoryURL repositoryURL ) throws IOException {
+        RepositoryPlan plan = getRepositoryPlan();
+        List<LocalRepository> defaultRepos = plan.getDefaultRepositories();
+        List<RemoteRepository> remoteRepos = selectRemoteRepositories( plan, repositoryURL );
+
+        List<String> keys = new ArrayList<String>(artifacts.size());
+        List<String> versions = new ArrayList<String>(artifacts.size());
+        List<Artifact> toResolve = new ArrayList<Artifact>(artifacts.size());
+        for (Artifact artifact : artifacts) {
+            keys.add(getCacheKey(artifact, repositoryURL));
+            versions.add(artifact.getVersion());
+            toResolve.add(setDefaultExtension(artifact));
+        }
+        File[] files = new File[toResolve.size()];
+        boolean[] cached = new boolean[toResolve.size()];
+        List<Integer> pending = new ArrayList<Integer>();
+        for (int i = 0; i < toResolve.size(); i++) {
+            files[i] = m_resolvedCache.get(keys.get(i));
+            cached[i] = files[i] != null;
+            if (files[i] == null && m_resolutionLock != null) {
+                files[i] = m_resolutionLock.get(keys.get(i));
+            }
+            if (files[i] == null) {
+                files[i] = resolveLocally(defaultRepos, toResolve.get(i));
+            }
+            if (files[i] == null) {
+                pending.add(i);
+            }
+        }
+        if (!pending.isEmpty()) {
+            RepositorySystemSession session = newSession( null );
+            // Identical artifacts are only requested once
+            Map<String, Integer> requestIndexes = new HashMap<String, Integer>();
+            List<ArtifactRequest> requests = new ArrayList<ArtifactRequest>(pending.size());
+            try {
+                for (Integer index : pending) {
+                    Artifact artifact = resolveVersion( session, remoteRepos, toResolve.get(index) );
+                    toResolve.set(index, artifact);
+                    if (!requestIndexes.containsKey(artifact.toString())) {
+                        requestIndexes.put(artifact.toString(), requests.size());
+                        requests.add(new ArtifactRequest( artifact, selectRepositories( session, artifact, remoteRepos ), null ));
+                    }
+                }
+                List<ArtifactResult> results = m_repoSystem.resolveArtifacts( session, requests );
+                for (ArtifactResult result : results) {
+                    m_notFoundCache.record( result );
+                }
+                for (Integer index : pending) {
+                    ArtifactResult result = results.get(requestIndexes.get(toResolve.get(index).toString()));
+                    files[index] = result.getArtifact().getFile();
+                }
+            }
+            catch( ArtifactResolutionException e ) {
+                // See PAXURL-206 in resolve(): the root exception is logged, not chained
+                List<Artifact> failed = new ArrayList<Artifact>();
+                for (ArtifactResult result : e.getResults()) {
+                    m_notFoundCache.record( result );
+                    if (!result.isResolved()) {
+                        failed.add(result.getRequest().getArtifact());
+                    }
+                }
+                LOG.warn( "Error resolving artifacts " + failed + ":" + e.getMessage(), e );
+                throw new IOException( "Error resolving artifacts " + failed + ": "
+                    + e.getMessage() );
+            }
+            catch( RepositoryException e ) {
+                throw new IOException( "Error resolving artifacts " + toResolve, e );
+            } finally {
+                releaseSession(session);
+            }
+        }
+        for (int i = 0; i < files.length; i++) {
+            if (!cached[i]) {
+                m_resolvedCache.put( keys.get(i), versions.get(i), files[i] );
+                lockResolution( keys.get(i), toResolve.get(i), files[i] );
+            }
+            LOG.debug( "Resolved ({}) as {}", toResolve.get(i), files[i].getAbsolutePath() );
+        }
+        return Arrays.asList(files);
+    }
+
+    private String getRepositoryKey( MavenRepositoryURL repositoryURL ) {
+        if (repositoryURL == null) {
+            return "";
+        }
+        return repositoryURL.getId() + "@" + repositoryURL.getURL().toExternalForm();
+    }
+
     /**
      * Resolve maven artifact as file in repository.
      */
@@ -558,43 +1280,554 @@ public class AetherBasedResolver implements MavenResolver {
     /**
      * Resolve maven artifact as file in repository.
      */
-    public File resolve( Artifact artifact,
-                         MavenRepositoryURL repositoryURL ) throws IOException {
-
-        List<LocalRepository> defaultRepos = selectDefaultRepositories();
-        List<RemoteRepository> remoteRepos = Collections.EMPTY_LIST;
-        if (repositoryURL == null || !repositoryURL.useOnlyLocalRepositories()) {
-            remoteRepos = selectRepositories();
-            if (repositoryURL != null) {
-                addRepo(remoteRepos, repositoryURL);
+    public File resolve( final Artifact artifact,
+                         final MavenRepositoryURL repositoryURL ) throws IOException {
+
+        // Rebuilding a stale plan clears the cache, so check it first
+        getRepositoryPlan();
+        String key = getCacheKey( artifact, repositoryURL );
+        File cached = m_resolvedCache.get( key );
+        if (cached != null) {
+            LOG.debug( "Resolved ({}) as {} from cache", artifact, cached );
+            return cached;
+        }
+        if (m_resolutionLock != null) {
+            File locked = m_resolutionLock.get( key );
+            if (locked != null) {
+                LOG.debug( "Resolved ({}) as {} from the resolution lock file", artifact, locked );
+                m_resolvedCache.put( key, artifact.getVersion(), locked );
+                return locked;
             }
-            assignProxyAndMirrors(remoteRepos);
-        }//else not url specified or only local onces so keep going
-        File resolved = resolve( defaultRepos, remoteRepos, artifact );
+        }
 
-        LOG.debug( "Resolved ({}) as {}", artifact.toString(), resolved.getAbsolutePath() );
+        // Concurrent resolutions of the same artifact share a single in-flight resolution,
+        // run by the first caller on its own thread
+        Callable<File> resolution = new Callable<File>() {
+            @Override
+            public File call() throws Exception {
+                return doResolve( artifact, repositoryURL );
+            }
+        };
+        File resolved;
+        while (true) {
+            InflightResolution task = new InflightResolution( resolution );
+            InflightResolution inflight = m_inflight.putIfAbsent( key, task );
+            if (inflight == null) {
+                try {
+                    task.run();
+                } finally {
+                    m_inflight.remove( key, task );
+                }
+                inflight = task;
+            } else {
+                LOG.debug( "Waiting for in-flight resolution of {}", artifact );
+            }
+            try {
+                resolved = getResult( inflight );
+                break;
+            } catch (IOException e) {
+                // the first caller was interrupted, such as by the cancellation of its resolveAsync()
+                // future: its failure is its own, the other callers resolve the artifact again
+                if (inflight == task || !inflight.isInterrupted() || Thread.currentThread().isInterrupted()) {
+                    throw e;
+                }
+                LOG.debug( "In-flight resolution of {} was interrupted, resolving it again", artifact );
+            }
+        }
+        m_resolvedCache.put( key, artifact.getVersion(), resolved );
+        lockResolution( key, artifact, resolved );
         return resolved;
     }
 
-    private File resolve( List<LocalRepository> defaultRepos,
-                          List<RemoteRepository> remoteRepos,
-                          Artifact artifact ) throws IOException {
+    private String getCacheKey( Artifact artifact, MavenRepositoryURL repositoryURL ) {
+        return artifact.toString() + "|" + getRepositoryKey( repositoryURL );
+    }
 
-        if (artifact.getExtension().isEmpty()) {
-            artifact = new DefaultArtifact(
-                    artifact.getGroupId(),
-                    artifact.getArtifactId(),
-                    artifact.getClassifier(),
-                    "jar",
-                    artifact.getVersion()
-            );
+    /**
+     * Remove a maven based url from the resolved artifacts cache and resolution lock file,
+     * so that its next resolution goes through the repositories again.
+     */
+    public void invalidate( String url ) throws MalformedURLException {
+        Parser parser = parseUrl( url );
+        Artifact artifact = new DefaultArtifact( parser.getGroup(), parser.getArtifact(),
+                parser.getClassifier(), parser.getType(), parser.getVersion() );
+        String key = getCacheKey( artifact, parser.getRepositoryURL() );
+        m_resolvedCache.invalidate( key );
+        if (m_resolutionLock != null) {
+            m_resolutionLock.remove( key );
         }
+    }
 
-        // Try with default repositories
-        try {
+    /**
+     * Clear the resolved artifacts cache and resolution lock file, and the versions cached for LATEST
+     * and version ranges.
+     */
+    public void invalidateAll() {
+        m_resolvedCache.clear();
+        if (m_resolutionLock != null) {
+            m_resolutionLock.clear();
+        }
+        if (m_versionCache != null) {
+            m_versionCache.clear();
+        }
+    }
+
+    /**
+     * Clear the cache of artifacts not found in remote repositories, so that they
+     * are looked up again on their next resolution.
+     */
+    public void purgeNotFound() {
+        m_notFoundCache.purge();
+    }
+
+    private File getResult( Future<File> future ) throws IOException {
+        try {
+            return future.get();
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException( "Interrupted while resolving artifact" );
+        }
+        catch( CancellationException e ) {
+            throw new InterruptedIOException( "Resolution cancelled" );
+        }
+        catch( ExecutionException e ) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException( "Error resolving artifact", cause );
+        }
+    }
+
+    private File doResolve( Artifact artifact,
+                            MavenRepositoryURL repositoryURL ) throws IOException {
+        RepositoryPlan plan = getRepositoryPlan();
+        List<LocalRepository> defaultRepos = plan.getDefaultRepositories();
+        List<RemoteRepository> remoteRepos = selectRemoteRepositories( plan, repositoryURL );
+        File resolved = resolve( defaultRepos, remoteRepos, artifact );
+
+        LOG.debug( "Resolved ({}) as {}", artifact.toString(), resolved.getAbsolutePath() );
+        return resolved;
+    }
+
+    /**
+     * Returns the remote repositories of the plan, or those derived from it when
+     * a repository url is given.
+     */
+    private List<RemoteRepository> selectRemoteRepositories( RepositoryPlan plan,
+                                                             MavenRepositoryURL repositoryURL ) {
+        if (repositoryURL == null) {
+            return plan.getRemoteRepositories();
+        }
+        if (repositoryURL.useOnlyLocalRepositories()) {
+            return Collections.emptyList();
+        }
+        // the key covers everything addRepo() builds the repository from
+        String key = getRepositoryKey( repositoryURL )
+            + "|" + repositoryURL.isReleasesEnabled()
+            + "|" + repositoryURL.getReleasesUpdatePolicy()
+            + "|" + repositoryURL.getReleasesChecksumPolicy()
+            + "|" + repositoryURL.isSnapshotsEnabled()
+            + "|" + repositoryURL.getSnapshotsUpdatePolicy()
+            + "|" + repositoryURL.getSnapshotsChecksumPolicy();
+        List<RemoteRepository> remoteRepos = plan.getDerived( key );
+        if (remoteRepos == null) {
+            remoteRepos = new ArrayList<RemoteRepository>( plan.getRepositories() );
+            addRepo(remoteRepos, repositoryURL);
+            assignProxyAndMirrors(remoteRepos);
+            remoteRepos = plan.putDerived( key, remoteRepos );
+        }
+        return remoteRepos;
+    }
+
+    private File resolve( List<LocalRepository> defaultRepos,
+                          List<RemoteRepository> remoteRepos,
+                          Artifact artifact ) throws IOException {
+
+        artifact = setDefaultExtension( artifact );
+
+        // Try with default repositories
+        File file = resolveLocally( defaultRepos, artifact );
+        if (file != null) {
+            return file;
+        }
+        final Artifact requested = artifact;
+        RepositorySystemSession session = newSession( null );
+        try {
+            if( isStale( requested ) ) {
+                File stale = findLocalCopy( session, remoteRepos, requested );
+                if( stale != null ) {
+                    LOG.debug( "Resolved ({}) as {} from the local repository after a recent failure", requested, stale );
+                    return stale;
+                }
+            }
+            if( m_staleWhileRevalidate && artifact.getVersion().endsWith( "SNAPSHOT" )
+                && !remoteRepos.isEmpty() && !session.isOffline() ) {
+                File stale = resolveOffline( session, remoteRepos, artifact );
+                if( stale != null ) {
+                    revalidate( remoteRepos, artifact );
+                    LOG.debug( "Resolved ({}) as {} from the local repository, refreshing it", artifact, stale );
+                    return stale;
+                }
+            }
+            artifact = resolveVersion( session, remoteRepos, artifact );
+            ArtifactRequest request = new ArtifactRequest( artifact, selectRepositories( session, artifact, remoteRepos ), null );
+            ArtifactResult result = m_hedgedResolver != null
+                ? m_hedgedResolver.resolveArtifact( session, request )
+                : m_repoSystem.resolveArtifact( session, request );
+            m_notFoundCache.record( result );
+            return result.getArtifact().getFile();
+        }
+        catch( ArtifactResolutionException e ) {
+            for( ArtifactResult result : e.getResults() ) {
+                m_notFoundCache.record( result );
+            }
+            File stale = serveStale( session, remoteRepos, requested, e );
+            if( stale != null ) {
+                return stale;
+            }
+            /**
+             * Do not add root exception to avoid NotSerializableException on DefaultArtifact. To
+             * avoid loosing information log the root cause. We can remove this again as soon as
+             * DefaultArtifact is serializeable. See http://team.ops4j.org/browse/PAXURL-206
+             */
+            LOG.warn( "Error resolving artifact" + artifact.toString() + ":" + e.getMessage(), e );
+            throw new IOException( "Error resolving artifact " + artifact.toString() + ": "
+                + e.getMessage() );
+        }
+        catch( RepositoryException e ) {
+            File stale = serveStale( session, remoteRepos, requested, e );
+            if( stale != null ) {
+                return stale;
+            }
+            throw new IOException( "Error resolving artifact " + artifact.toString(), e );
+        } finally {
+            releaseSession(session);
+        }
+    }
+
+    /**
+     * Returns the local copy of an artifact whose resolution failed, if enabled and the
+     * failure is not caused by the artifact being missing.
+     *
+     * @return the local copy, or <code>null</code>
+     */
+    private File serveStale( RepositorySystemSession session, List<RemoteRepository> remoteRepos,
+                             Artifact artifact, RepositoryException failure ) {
+        if( !m_serveStaleOnFailure || remoteRepos.isEmpty() || isNotFound( failure ) ) {
+            return null;
+        }
+        File stale = findLocalCopy( session, remoteRepos, artifact );
+        if( stale != null ) {
+            LOG.warn( "Error resolving artifact {}, using the local copy {}: {}", new Object[] {
+                artifact, stale, failure.getMessage() } );
+            synchronized( m_staleUntil ) {
+                m_staleUntil.put( artifact.toString(), System.currentTimeMillis() + m_staleDuration );
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Returns the local copy of the artifact, resolved from the local repository with the metadata
+     * downloaded so far or, for a SNAPSHOT whose latest version has not been downloaded, the copy
+     * of its previous version.
+     *
+     * @return the local copy, or <code>null</code> if there is none
+     */
+    private File findLocalCopy( RepositorySystemSession session, List<RemoteRepository> remoteRepos,
+                                Artifact artifact ) {
+        File file = resolveOffline( session, remoteRepos, artifact );
+        if( file == null ) {
+            file = new File( session.getLocalRepository().getBasedir(),
+                             session.getLocalRepositoryManager().getPathForLocalArtifact( artifact ) );
+        }
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Returns <code>true</code> if the local copy of the artifact is to be used after a recent failure.
+     */
+    private boolean isStale( Artifact artifact ) {
+        synchronized( m_staleUntil ) {
+            if( m_staleUntil.isEmpty() ) {
+                return false;
+            }
+            String key = artifact.toString();
+            Long until = m_staleUntil.get( key );
+            if( until == null ) {
+                return false;
+            }
+            if( until < System.currentTimeMillis() ) {
+                m_staleUntil.remove( key );
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the resolution failed only because the artifact or its
+     * metadata are missing from the repositories.
+     */
+    private static boolean isNotFound( RepositoryException failure ) {
+        List<Exception> exceptions = new ArrayList<Exception>();
+        if( failure instanceof ArtifactResolutionException ) {
+            for( ArtifactResult result : ( (ArtifactResolutionException) failure ).getResults() ) {
+                exceptions.addAll( result.getExceptions() );
+            }
+        }
+        else if( failure instanceof VersionRangeResolutionException
+            && ( (VersionRangeResolutionException) failure ).getResult() != null ) {
+            exceptions.addAll( ( (VersionRangeResolutionException) failure ).getResult().getExceptions() );
+        }
+        else {
+            return false;
+        }
+        for( Exception exception : exceptions ) {
+            if( !( exception instanceof ArtifactNotFoundException )
+                && !( exception instanceof MetadataNotFoundException ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the artifact from the local repository only, using the metadata downloaded
+     * from the remote repositories so far.
+     *
+     * @return the resolved file, or <code>null</code> if the artifact is not available locally
+     */
+    private File resolveOffline( RepositorySystemSession session, List<RemoteRepository> remoteRepos,
+                                 Artifact artifact ) {
+        DefaultRepositorySystemSession offline = new DefaultRepositorySystemSession( session );
+        offline.setOffline( true );
+        try {
+            return m_repoSystem.resolveArtifact( offline, new ArtifactRequest( artifact, remoteRepos, null ) )
+                    .getArtifact().getFile();
+        }
+        catch( ArtifactResolutionException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Refresh the artifact from the remote repositories in the background, unless it is
+     * already being refreshed.
+     */
+    private void revalidate( final List<RemoteRepository> remoteRepos, final Artifact artifact ) {
+        final String key = artifact.toString();
+        if( m_revalidating.putIfAbsent( key, Boolean.TRUE ) != null ) {
+            return;
+        }
+        try {
+            m_executor.execute( new Runnable() {
+                @Override
+                public void run() {
+                    RepositorySystemSession session = newSession( null );
+                    try {
+                        // pooled sessions remember the update checks they have done, check again
+                        DefaultRepositorySystemSession refresh = new DefaultRepositorySystemSession( session );
+                        refresh.setConfigProperty( UPDATE_CHECK_SESSION_STATE, "bypass" );
+                        ArtifactRequest request = new ArtifactRequest( artifact,
+                                selectRepositories( refresh, artifact, remoteRepos ), null );
+                        ArtifactResult result = m_repoSystem.resolveArtifact( refresh, request );
+                        m_notFoundCache.record( result );
+                        LOG.debug( "Refreshed ({}) as {}", artifact, result.getArtifact().getFile() );
+                    }
+                    catch( Exception e ) {
+                        LOG.debug( "Unable to refresh " + artifact, e );
+                    }
+                    finally {
+                        releaseSession( session );
+                        m_revalidating.remove( key );
+                    }
+                }
+            } );
+        }
+        catch( RejectedExecutionException e ) {
+            m_revalidating.remove( key );
+        }
+    }
+
+    /**
+     * Select the remote repositories to resolve the artifact from.
+     */
+    private List<RemoteRepository> selectRepositories( RepositorySystemSession session, Artifact artifact,
+                                                       List<RemoteRepository> remoteRepos ) {
+        return orderRepositories( selectAvailable( selectNotMissing( artifact,
+                selectRouted( session, artifact.getGroupId(), artifact.getArtifactId(), remoteRepos ) ) ) );
+    }
+
+    /**
+     * Skip the remote repositories unable to host the artifacts of the given groupId and artifactId.
+     */
+    private List<RemoteRepository> selectRouted( RepositorySystemSession session, String groupId,
+                                                 String artifactId, List<RemoteRepository> remoteRepos ) {
+        return m_repositoryRoutes != null
+                ? m_repositoryRoutes.filter( session, groupId, artifactId, remoteRepos ) : remoteRepos;
+    }
+
+    /**
+     * Skip the remote repositories whose circuit breaker is open.
+     */
+    private List<RemoteRepository> selectAvailable( List<RemoteRepository> remoteRepos ) {
+        return m_circuitBreakers != null ? m_circuitBreakers.filter( remoteRepos ) : remoteRepos;
+    }
+
+    /**
+     * Skip the remote repositories the artifact is known to be missing from.
+     */
+    private List<RemoteRepository> selectNotMissing( Artifact artifact, List<RemoteRepository> remoteRepos ) {
+        List<RemoteRepository> repos = m_notFoundCache.filter( artifact, remoteRepos );
+        if( repos.size() < remoteRepos.size() ) {
+            LOG.debug( "Skipping {} of {} repositories known to miss {}", new Object[] {
+                remoteRepos.size() - repos.size(), remoteRepos.size(), artifact } );
+        }
+        return repos;
+    }
+
+    /**
+     * Order the remote repositories by their statistics, if enabled.
+     */
+    private List<RemoteRepository> orderRepositories( List<RemoteRepository> remoteRepos ) {
+        return m_repositoryStatistics != null ? m_repositoryStatistics.order( remoteRepos ) : remoteRepos;
+    }
+
+    /**
+     * Returns the statistics of the downloads from each remote repository url, if collected.
+     */
+    public Map<String, Map<String, Long>> getRepositoryStatistics() {
+        if( m_repositoryStatistics == null ) {
+            return Collections.emptyMap();
+        }
+        return m_repositoryStatistics.getStatistics();
+    }
+
+    private void storeRepositoryStatistics() {
+        try {
+            m_repositoryStatistics.store( m_statisticsFile );
+        }
+        catch( IOException e ) {
+            LOG.warn( "Unable to store the repositories statistics into " + m_statisticsFile, e );
+        }
+    }
+
+    private void storeResolutionLock() {
+        try {
+            m_resolutionLock.store();
+        }
+        catch( IOException e ) {
+            LOG.warn( "Unable to store the resolution lock file " + m_resolutionLock.getFile(), e );
+        }
+    }
+
+    /**
+     * Record the file resolved for the given key in the resolution lock file, if enabled.
+     */
+    private void lockResolution( String key, Artifact artifact, File file ) {
+        if( m_resolutionLock == null ) {
+            return;
+        }
+        try {
+            m_resolutionLock.record( key, setDefaultExtension( artifact ), file );
+        }
+        catch( IOException e ) {
+            LOG.warn( "Unable to record the resolution of " + artifact + " in the lock file", e );
+        }
+    }
+
+    private Artifact setDefaultExtension( Artifact artifact ) {
+        if (artifact.getExtension().isEmpty()) {
+            artifact = new DefaultArtifact(
+                    artifact.getGroupId(),
+                    artifact.getArtifactId(),
+                    artifact.getClassifier(),
+                    "jar",
+                    artifact.getVersion()
+            );
+        }
+        return artifact;
+    }
+
+    /**
+     * Try to resolve the artifact from the default repositories, or from the local
+     * repository as well when the version is a pinned release and pinned releases
+     * are looked up directly.
+     *
+     * @return the resolved file or <code>null</code> if not found
+     */
+    private File resolveLocally( List<LocalRepository> defaultRepos, Artifact artifact ) {
+        if (m_pinnedReleaseLookup && isPinnedRelease( artifact.getVersion() )) {
+            return resolvePinnedRelease( defaultRepos, artifact );
+        }
+        return resolveFromDefaultRepositories( defaultRepos, artifact );
+    }
+
+    /**
+     * Returns <code>true</code> if the version is a release version, which is neither a
+     * SNAPSHOT nor a meta version or range needing repository metadata to be resolved.
+     */
+    static boolean isPinnedRelease( String version ) {
+        return version.length() > 0
+            && !version.endsWith( "SNAPSHOT" )
+            && !VERSION_LATEST.equals( version )
+            && !"RELEASE".equals( version )
+            && !isVersionRange( version );
+    }
+
+    /**
+     * Look up a release artifact directly in the default repositories, then in the local
+     * repository, as the simple local repository manager would, without going through aether.
+     *
+     * @return the resolved file or <code>null</code> if not found
+     */
+    private File resolvePinnedRelease( List<LocalRepository> defaultRepos, Artifact artifact ) {
+        String path = DefaultRepositoryIndex.getPath( artifact );
+        DefaultRepositoryIndex index = getDefaultRepositoryIndex( defaultRepos );
+        if (index != null) {
+            File file = index.find( artifact );
+            if (file != null) {
+                return file;
+            }
+        } else {
+            for (LocalRepository repo : defaultRepos) {
+                File file = new File( repo.getBasedir(), path );
+                if (file.isFile()) {
+                    return file;
+                }
+            }
+        }
+        File file = new File( getLocalRepository().getBasedir(), path );
+        return file.isFile() ? file : null;
+    }
+
+    /**
+     * Try to resolve the artifact from the default repositories only.
+     *
+     * @return the resolved file or <code>null</code> if not found
+     */
+    private File resolveFromDefaultRepositories( List<LocalRepository> defaultRepos,
+                                                 Artifact artifact ) {
+        try {
             VersionConstraint vc = new GenericVersionScheme().parseVersionConstraint(artifact.getVersion());
             if (vc.getVersion() != null) {
-                for (LocalRepository repo : defaultRepos) {
+                List<LocalRepository> repos = defaultRepos;
+                DefaultRepositoryIndex index = getDefaultRepositoryIndex( defaultRepos );
+                if (index != null) {
+                    if (isPinnedRelease( artifact.getVersion() )) {
+                        return index.find( artifact );
+                    }
+                    // SNAPSHOT, LATEST and RELEASE are resolved from the metadata of the repositories having the artifact
+                    repos = index.findRepositories( artifact );
+                }
+                for (LocalRepository repo : repos) {
                     RepositorySystemSession session = newSession( repo );
                     try {
                         return m_repoSystem
@@ -612,39 +1845,87 @@ public class AetherBasedResolver implements MavenResolver {
         catch( InvalidVersionSpecificationException e ) {
             // Should not happen
         }
-        RepositorySystemSession session = newSession( null );
-        try {
-            artifact = resolveLatestVersionRange( session, remoteRepos, artifact );
-            return m_repoSystem
-                .resolveArtifact( session, new ArtifactRequest( artifact, remoteRepos, null ) )
-                .getArtifact().getFile();
+        return null;
+    }
+
+    /**
+     * Returns the index of the given default repositories, or <code>null</code> if
+     * they are not indexed.
+     */
+    private synchronized DefaultRepositoryIndex getDefaultRepositoryIndex( List<LocalRepository> defaultRepos ) {
+        if (!m_indexDefaultRepositories || defaultRepos.isEmpty() || defaultRepos.equals( m_unindexedRepos )) {
+            return null;
         }
-        catch( ArtifactResolutionException e ) {
-            /**
-             * Do not add root exception to avoid NotSerializableException on DefaultArtifact. To
-             * avoid loosing information log the root cause. We can remove this again as soon as
-             * DefaultArtifact is serializeable. See http://team.ops4j.org/browse/PAXURL-206
-             */
-            LOG.warn( "Error resolving artifact" + artifact.toString() + ":" + e.getMessage(), e );
-            throw new IOException( "Error resolving artifact " + artifact.toString() + ": "
-                + e.getMessage() );
+        if (m_defaultIndex == null || !m_defaultIndex.getRepositories().equals( defaultRepos )) {
+            try {
+                if (m_defaultIndex != null) {
+                    m_defaultIndex.close();
+                    m_defaultIndex = null;
+                }
+                m_defaultIndex = new DefaultRepositoryIndex( defaultRepos, m_indexWatches );
+            }
+            catch( IOException e ) {
+                LOG.warn( "Unable to index default repositories, looking up artifacts in each of them", e );
+                m_unindexedRepos = defaultRepos;
+                return null;
+            }
         }
-        catch( RepositoryException e ) {
-            throw new IOException( "Error resolving artifact " + artifact.toString(), e );
+        return m_defaultIndex;
+    }
+
+    @Override
+    public File resolveMetadata(String groupId, String artifactId, String type, String version) throws IOException {
+        byte[] merged = mergeMetadata(groupId, artifactId, type, version);
+        if (merged == null) {
+            return null;
+        }
+        // a single file per coordinates, replaced by each call, so that merged metadata do not pile up
+        StringBuilder path = new StringBuilder(MERGED_METADATA_DIR);
+        for (String segment : new String[] { groupId != null ? groupId.replace('.', '/') : null, artifactId, version }) {
+            if (segment != null && segment.length() > 0) {
+                path.append('/').append(segment);
+            }
+        }
+        File file = new File(getLocalRepository().getBasedir(), path.append('/').append(type).toString());
+        file.getParentFile().mkdirs();
+        File tmpFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+        try {
+            FileOutputStream fos = new FileOutputStream(tmpFile);
+            try {
+                fos.write(merged);
+            } finally {
+                fos.close();
+            }
+            Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
         } finally {
-            releaseSession(session);
+            tmpFile.delete();
         }
+        return file;
     }
 
     @Override
-    public File resolveMetadata(String groupId, String artifactId, String type, String version) throws IOException {
+    public InputStream openMetadata(String groupId, String artifactId, String type, String version) throws IOException {
+        byte[] merged = mergeMetadata(groupId, artifactId, type, version);
+        return merged != null ? new ByteArrayInputStream(merged) : null;
+    }
+
+    /**
+     * Resolve the metadata from the local and all remote repositories, and merge them.
+     * The remote repositories are fetched concurrently.
+     *
+     * @return the merged metadata, or <code>null</code> if none has been found
+     */
+    private byte[] mergeMetadata(String groupId, String artifactId, String type, String version) throws IOException {
         RepositorySystem system = getRepositorySystem();
         RepositorySystemSession session = newSession();
         try {
             Metadata metadata = new DefaultMetadata(groupId, artifactId, version,
                                                     type, Metadata.Nature.RELEASE_OR_SNAPSHOT);
             List<MetadataRequest> requests = new ArrayList<MetadataRequest>();
-            for (RemoteRepository repository : getRepositories()) {
+            List<RemoteRepository> remoteRepos = selectRouted( session, groupId, artifactId,
+                    getRepositoryPlan().getRemoteRepositories() );
+            for (RemoteRepository repository : selectAvailable( remoteRepos )) {
                 MetadataRequest request = new MetadataRequest(metadata, repository, null);
                 request.setFavorLocalRepository(false);
                 requests.add(request);
@@ -652,43 +1933,26 @@ public class AetherBasedResolver implements MavenResolver {
             MetadataRequest request = new MetadataRequest(metadata, null, null);
             request.setFavorLocalRepository(true);
             requests.add(request);
-            org.apache.maven.artifact.repository.metadata.Metadata mr = new org.apache.maven.artifact.repository.metadata.Metadata();
-            mr.setModelVersion("1.1.0");
-            mr.setGroupId(metadata.getGroupId());
-            mr.setArtifactId(metadata.getArtifactId());
-            mr.setVersioning(new Versioning());
-            boolean merged = false;
-            List<MetadataResult> results = system.resolveMetadata(session, requests);
+            // Use one download thread per repository instead of aether's default, up to a maximum
+            DefaultRepositorySystemSession parallel = new DefaultRepositorySystemSession(session);
+            parallel.setConfigProperty(METADATA_RESOLVER_THREADS,
+                    Math.min(requests.size(), MAX_METADATA_RESOLVER_THREADS));
+            MetadataMerger merger = new MetadataMerger(groupId, artifactId);
+            List<MetadataResult> results = system.resolveMetadata(parallel, requests);
             for (MetadataResult result : results) {
                 if (result.getMetadata() != null && result.getMetadata().getFile() != null) {
-                    FileInputStream fis = new FileInputStream(result.getMetadata().getFile());
-                    org.apache.maven.artifact.repository.metadata.Metadata m = new MetadataXpp3Reader().read(fis, false);
-                    fis.close();
-                    if (m.getVersioning() != null) {
-                        mr.getVersioning().setLastUpdated(latestTimestamp(mr.getVersioning().getLastUpdated(), m.getVersioning().getLastUpdated()));
-                        mr.getVersioning().setLatest(latestVersion(mr.getVersioning().getLatest(), m.getVersioning().getLatest()));
-                        mr.getVersioning().setRelease(latestVersion(mr.getVersioning().getRelease(), m.getVersioning().getRelease()));
-                        for (String v : m.getVersioning().getVersions()) {
-                            if (!mr.getVersioning().getVersions().contains(v)) {
-                                mr.getVersioning().getVersions().add(v);
-                            }
-                        }
-                        mr.getVersioning().getSnapshotVersions().addAll(m.getVersioning().getSnapshotVersions());
+                    InputStream is = new BufferedInputStream(new FileInputStream(result.getMetadata().getFile()));
+                    try {
+                        merger.merge(is);
+                    } finally {
+                        is.close();
                     }
-                    merged = true;
                 }
             }
-            if (merged) {
-                Collections.sort(mr.getVersioning().getVersions(), VERSION_COMPARATOR);
-                Collections.sort(mr.getVersioning().getSnapshotVersions(), SNAPSHOT_VERSION_COMPARATOR);
-                File tmpFile = Files.createTempFile("mvn-", ".tmp").toFile();
-                FileOutputStream fos = new FileOutputStream(tmpFile);
-                try {
-                    new MetadataXpp3Writer().write(fos, mr);
-                } finally {
-                    fos.close();
-                }
-                return tmpFile;
+            if (merger.isMerged()) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                merger.write(baos);
+                return baos.toByteArray();
             }
             return null;
         } catch (Exception e) {
@@ -733,53 +1997,6 @@ public class AetherBasedResolver implements MavenResolver {
         }
     }
 
-    private Comparator<String> VERSION_COMPARATOR = new Comparator<String>() {
-        @Override
-        public int compare(String v1, String v2) {
-            try {
-                Version vv1 = new GenericVersionScheme().parseVersion(v1);
-                Version vv2 = new GenericVersionScheme().parseVersion(v2);
-                return vv1.compareTo(vv2);
-            } catch (Exception e) {
-                return v1.compareTo(v2);
-            }
-        }
-    };
-
-    private Comparator<SnapshotVersion> SNAPSHOT_VERSION_COMPARATOR = new Comparator<SnapshotVersion>() {
-        @Override
-        public int compare(SnapshotVersion o1, SnapshotVersion o2) {
-            int c = VERSION_COMPARATOR.compare(o1.getVersion(), o2.getVersion());
-            if (c == 0) {
-                c = o1.getExtension().compareTo(o2.getExtension());
-            }
-            if (c == 0) {
-                c = o1.getClassifier().compareTo(o2.getClassifier());
-            }
-            return c;
-        }
-    };
-
-    private String latestTimestamp(String t1, String t2) {
-        if (t1 == null) {
-            return t2;
-        } else if (t2 == null) {
-            return t1;
-        }  else {
-            return t1.compareTo(t2) < 0 ? t2 : t1;
-        }
-    }
-
-    private String latestVersion(String v1, String v2) {
-        if (v1 == null) {
-            return v2;
-        } else if (v2 == null) {
-            return v1;
-        } else {
-            return VERSION_COMPARATOR.compare(v1, v2) < 0 ? v2 : v1;
-        }
-    }
-
     /**
      * Tries to resolve versions = LATEST using an open range version query. If it succeeds, version
      * of artifact is set to the highest available version.
@@ -802,7 +2019,8 @@ public class AetherBasedResolver implements MavenResolver {
         }
 
         VersionRangeResult versionResult = m_repoSystem.resolveVersionRange( session,
-            new VersionRangeRequest( artifact, remoteRepos, null ) );
+            new VersionRangeRequest( artifact, selectAvailable( selectRouted( session, artifact.getGroupId(),
+                    artifact.getArtifactId(), remoteRepos ) ), null ) );
         if( versionResult != null ) {
             Version v = versionResult.getHighestVersion();
             if( v != null ) {
@@ -817,6 +2035,94 @@ public class AetherBasedResolver implements MavenResolver {
         return artifact;
     }
 
+    /**
+     * Resolve the version of the artifact, using the cached version for LATEST and
+     * version ranges when available. An expired version is still used while it is
+     * refreshed in the background.
+     */
+    private Artifact resolveVersion( RepositorySystemSession session,
+        final List<RemoteRepository> remoteRepos, final Artifact artifact )
+        throws VersionRangeResolutionException {
+        String version = artifact.getVersion();
+        if( m_versionCache == null || remoteRepos.isEmpty()
+            || !( VERSION_LATEST.equals( version ) || isVersionRange( version ) ) ) {
+            return resolveLatestVersionRange( session, remoteRepos, artifact );
+        }
+        final String key = getVersionCacheKey( artifact, remoteRepos );
+        final VersionRangeCache.Entry entry = m_versionCache.get( key );
+        if( entry == null ) {
+            Artifact resolved = resolveLatestVersionRange( session, remoteRepos, artifact );
+            m_versionCache.put( key, resolved.getVersion(), getUpdateInterval( remoteRepos ) );
+            return resolved;
+        }
+        if( entry.isExpired() && entry.startRefresh() ) {
+            try {
+                m_executor.execute( new Runnable() {
+                    @Override
+                    public void run() {
+                        RepositorySystemSession session = newSession( null );
+                        try {
+                            Artifact resolved = resolveLatestVersionRange( session, remoteRepos, artifact );
+                            m_versionCache.put( key, resolved.getVersion(), getUpdateInterval( remoteRepos ) );
+                        }
+                        catch( Exception e ) {
+                            LOG.debug( "Unable to refresh the version of " + artifact, e );
+                            entry.refreshFailed();
+                        }
+                        finally {
+                            releaseSession( session );
+                        }
+                    }
+                } );
+            }
+            catch( RejectedExecutionException e ) {
+                entry.refreshFailed();
+            }
+        }
+        LOG.debug( "Resolved version of {} as {} from cache", artifact, entry.getVersion() );
+        return artifact.setVersion( entry.getVersion() );
+    }
+
+    private String getVersionCacheKey( Artifact artifact, List<RemoteRepository> remoteRepos ) {
+        StringBuilder key = new StringBuilder( artifact.getGroupId() ).append( ':' )
+            .append( artifact.getArtifactId() ).append( ':' ).append( artifact.getVersion() );
+        for( RemoteRepository repo : remoteRepos ) {
+            key.append( '|' ).append( repo.getId() ).append( '@' ).append( repo.getUrl() );
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the shortest update interval in ms of the given repositories, or of the
+     * global update policy if set.
+     */
+    private long getUpdateInterval( List<RemoteRepository> remoteRepos ) {
+        int minutes = Integer.MAX_VALUE;
+        try {
+            String globalPolicy = m_config.getGlobalUpdatePolicy();
+            if( globalPolicy != null ) {
+                minutes = getIntervalInMinutes( globalPolicy );
+            }
+            else {
+                for( RemoteRepository repo : remoteRepos ) {
+                    for( RepositoryPolicy policy : Arrays.asList( repo.getPolicy( false ), repo.getPolicy( true ) ) ) {
+                        if( policy.isEnabled() ) {
+                            minutes = Math.min( minutes, getIntervalInMinutes( policy.getUpdatePolicy() ) );
+                        }
+                    }
+                }
+            }
+        }
+        catch( IllegalArgumentException e ) {
+            LOG.debug( "Unable to compute the update interval", e );
+            return 0;
+        }
+        if( minutes == Integer.MAX_VALUE ) {
+            return Long.MAX_VALUE;
+        }
+        return minutes <= 0 ? 0 : TimeUnit.MINUTES.toMillis( minutes );
+    }
+
     public RepositorySystemSession newSession() {
         return newSession( null );
     }
@@ -825,25 +2131,18 @@ public class AetherBasedResolver implements MavenResolver {
         if (repo == null) {
             repo = getLocalRepository();
         }
-        Deque<RepositorySystemSession> deque = sessions.get(repo);
-        RepositorySystemSession session = null;
-        if (deque != null) {
-            session = deque.pollFirst();
-        }
-        if (session == null) {
-            session = createSession(repo);
-        }
-        return session;
+        return m_sessionPool.borrow(repo);
     }
 
     private void releaseSession(RepositorySystemSession session) {
-        LocalRepository repo = session.getLocalRepository();
-        Deque<RepositorySystemSession> deque = sessions.get(repo);
-        if (deque == null) {
-            sessions.putIfAbsent(repo, new ConcurrentLinkedDeque<RepositorySystemSession>());
-            deque = sessions.get(repo);
-        }
-        deque.add(session);
+        m_sessionPool.release(session);
+    }
+
+    /**
+     * Returns the counters of the repository sessions pool.
+     */
+    public Map<String, Long> getSessionPoolStatistics() {
+        return m_sessionPool.getStatistics();
     }
 
     private RepositorySystemSession createSession(LocalRepository repo) {
@@ -863,11 +2162,18 @@ public class AetherBasedResolver implements MavenResolver {
             session.setUpdatePolicy( updatePolicy );
         }
         
-        for (Server server : m_settings.getServers()) {
-            if (server.getConfiguration() != null
-                && ((Xpp3Dom)server.getConfiguration()).getChild("httpHeaders") != null) {
-                addServerConfig(session, server);
-            }
+        for (Map.Entry<String, Map<String, String>> headers : m_serverHeaders.entrySet()) {
+            session.setConfigProperty( headers.getKey(), headers.getValue() );
+        }
+
+        if( m_repositoryStatistics != null && m_circuitBreakers != null ) {
+            session.setTransferListener( new ChainedTransferListener( m_repositoryStatistics, m_circuitBreakers ) );
+        }
+        else if( m_repositoryStatistics != null ) {
+            session.setTransferListener( m_repositoryStatistics );
+        }
+        else if( m_circuitBreakers != null ) {
+            session.setTransferListener( m_circuitBreakers );
         }
 
         session.setOffline( m_config.isOffline() );
@@ -888,7 +2194,22 @@ public class AetherBasedResolver implements MavenResolver {
       return localRepository;
     }
 
-    private void addServerConfig( DefaultRepositorySystemSession session, Server server )
+    /**
+     * Returns the HTTP headers configured for the servers, by session configuration property.
+     */
+    private Map<String, Map<String, String>> getServerHeaders() {
+        Map<String, Map<String, String>> serverHeaders = new HashMap<String, Map<String, String>>();
+        for (Server server : m_settings.getServers()) {
+            if (server.getConfiguration() != null
+                && ((Xpp3Dom)server.getConfiguration()).getChild("httpHeaders") != null) {
+                serverHeaders.put( String.format("%s.%s", ConfigurationProperties.HTTP_HEADERS, server.getId() ),
+                        getServerHeaders( server ) );
+            }
+        }
+        return serverHeaders;
+    }
+
+    private Map<String, String> getServerHeaders( Server server )
     {
         Map<String,String> headers = new HashMap<String, String>();
         Xpp3Dom configuration = (Xpp3Dom) server.getConfiguration();
@@ -900,7 +2221,7 @@ public class AetherBasedResolver implements MavenResolver {
             String headerValue = value.getValue();
             headers.put( headerName, headerValue );
         }
-        session.setConfigProperty( String.format("%s.%s", ConfigurationProperties.HTTP_HEADERS, server.getId() ), headers );
+        return Collections.unmodifiableMap( headers );
     }
 
     private Authentication getAuthentication( org.apache.maven.settings.Proxy proxy ) {
@@ -926,6 +2247,33 @@ public class AetherBasedResolver implements MavenResolver {
         DefaultServiceLocator locator = MavenRepositorySystemUtils.newServiceLocator();
 
         locator.setServices( WagonProvider.class, new ManualWagonProvider( m_client, m_config.getTimeout() ) );
+        List<TransporterFactory> transporterFactories = new ArrayList<TransporterFactory>();
+        String transport = m_config.getProperty( ServiceConstants.PROPERTY_HTTP_TRANSPORT,
+                ServiceConstants.PROPERTY_HTTP_TRANSPORT_DEFAULT, String.class );
+        if( ServiceConstants.HTTP_TRANSPORT_NATIVE.equalsIgnoreCase( transport ) ) {
+            // http and https go through the native transporter, other protocols through wagon
+            long chunkSize = m_config.getProperty( ServiceConstants.PROPERTY_HTTP_CHUNK_SIZE,
+                    ServiceConstants.PROPERTY_HTTP_CHUNK_SIZE_DEFAULT, Long.class );
+            int resumeRetries = m_config.getProperty( ServiceConstants.PROPERTY_HTTP_RESUME_RETRIES,
+                    ServiceConstants.PROPERTY_HTTP_RESUME_RETRIES_DEFAULT, Integer.class );
+            if( chunkSize > 0 ) {
+                int threads = m_config.getProperty( ServiceConstants.PROPERTY_HTTP_CHUNK_THREADS,
+                        ServiceConstants.PROPERTY_HTTP_CHUNK_THREADS_DEFAULT, Integer.class );
+                m_downloadExecutor = new ThreadPoolExecutor( threads, threads, 60, TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(), newThreadFactory( "download" ) );
+                m_downloadExecutor.allowCoreThreadTimeOut( true );
+            }
+            transporterFactories.add( new HttpTransporterFactory( m_client,
+                    m_config.getTimeout(), chunkSize, resumeRetries, m_downloadExecutor,
+                    m_config.getProperty( ServiceConstants.PROPERTY_HTTP_CONDITIONAL_METADATA,
+                            ServiceConstants.PROPERTY_HTTP_CONDITIONAL_METADATA_DEFAULT, Boolean.class ) ) );
+        }
+        m_packedTransporterFactory = new PackedTransporterFactory();
+        m_zipTransporterFactory = new ZipTransporterFactory();
+        transporterFactories.add( m_packedTransporterFactory );
+        transporterFactories.add( m_zipTransporterFactory );
+        locator.setServices( TransporterFactory.class,
+                transporterFactories.toArray( new TransporterFactory[transporterFactories.size()] ) );
         locator.addService( TransporterFactory.class, WagonTransporterFactory.class );
         locator.addService(RepositoryConnectorFactory.class, BasicRepositoryConnectorFactory.class);
 
@@ -951,6 +2299,43 @@ public class AetherBasedResolver implements MavenResolver {
         locator.setService( org.eclipse.aether.spi.log.LoggerFactory.class,
             Slf4jLoggerFactory.class );
 
-        return locator.getService( RepositorySystem.class );
+        RepositorySystem system = locator.getService( RepositorySystem.class );
+        m_transporterProvider = locator.getService( TransporterProvider.class );
+        return system;
+    }
+
+    /**
+     * A resolution shared by concurrent callers, which records whether it failed while the
+     * thread running it was interrupted.
+     */
+    private static class InflightResolution extends FutureTask<File> {
+
+        private volatile boolean m_interrupted;
+
+        InflightResolution( Callable<File> callable ) {
+            super( callable );
+        }
+
+        boolean isInterrupted() {
+            return m_interrupted;
+        }
+
+        @Override
+        protected void setException( Throwable t ) {
+            // recorded before the failure is visible to the waiting callers
+            m_interrupted = Thread.currentThread().isInterrupted() || isInterruption( t );
+            super.setException( t );
+        }
+
+        private static boolean isInterruption( Throwable t ) {
+            for (; t != null; t = t.getCause()) {
+                if (t instanceof InterruptedException || t instanceof ClosedByInterruptException
+                    || ( t instanceof InterruptedIOException && !( t instanceof SocketTimeoutException ) )) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
     }
 }
@@ -0,0 +1,235 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.maven.wagon.ResourceDoesNotExistException;
+import org.apache.maven.wagon.TransferFailedException;
+import org.apache.maven.wagon.authorization.AuthorizationException;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.ChecksumFailureException;
+import org.eclipse.aether.transfer.MetadataNotFoundException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breakers of the remote repositories, fed as a transfer listener of the sessions.
+ * <p>
+ * A repository failing a number of consecutive artifact transfers, because of timeouts, i/o
+ * errors or server errors, is skipped for a cool-down period. Once it has elapsed, a single
+ * resolution is allowed to probe the repository: a successful transfer, or a resource
+ * reported missing, closes the circuit, while a failure opens it again.
+ */
+class CircuitBreakers extends AbstractTransferListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger( CircuitBreakers.class );
+
+    /**
+     * Status code in the message of the wagon transfer failures.
+     */
+    private static final Pattern WAGON_STATUS = Pattern.compile( "Return code is: (\\d{3})" );
+
+    private static final String[] IGNORED_EXTENSIONS = { ".sha1", ".md5", ".asc", ".sha256", ".sha512" };
+
+    private final int m_threshold;
+    private final long m_coolDown;
+    private final ConcurrentMap<String, Breaker> m_breakers = new ConcurrentHashMap<String, Breaker>();
+
+    /**
+     * @param threshold number of consecutive failures opening the circuit
+     * @param coolDown time in ms during which an open circuit skips its repository
+     */
+    CircuitBreakers( int threshold, long coolDown ) {
+        m_threshold = threshold;
+        m_coolDown = coolDown;
+    }
+
+    /**
+     * Returns the given repositories without those whose circuit is open. A repository whose
+     * cool-down has elapsed is returned to a single caller, which probes it.
+     */
+    List<RemoteRepository> filter( List<RemoteRepository> repos ) {
+        if( m_breakers.isEmpty() ) {
+            return repos;
+        }
+        List<RemoteRepository> available = null;
+        long now = System.currentTimeMillis();
+        for( int i = 0; i < repos.size(); i++ ) {
+            RemoteRepository repo = repos.get( i );
+            Breaker breaker = m_breakers.get( getKey( repo.getUrl() ) );
+            boolean allowed = breaker == null || breaker.allow( now, repo );
+            if( !allowed && available == null ) {
+                available = new ArrayList<RemoteRepository>( repos.subList( 0, i ) );
+            }
+            else if( allowed && available != null ) {
+                available.add( repo );
+            }
+        }
+        return available != null ? available : repos;
+    }
+
+    /**
+     * Returns <code>true</code> if the circuit of the given repository is open.
+     */
+    boolean isOpen( RemoteRepository repo ) {
+        Breaker breaker = m_breakers.get( getKey( repo.getUrl() ) );
+        return breaker != null && breaker.isOpen();
+    }
+
+    @Override
+    public void transferSucceeded( TransferEvent event ) {
+        if( isArtifact( event ) ) {
+            success( event );
+        }
+    }
+
+    @Override
+    public void transferFailed( TransferEvent event ) {
+        if( !isArtifact( event ) ) {
+            return;
+        }
+        if( isFailure( event.getException() ) ) {
+            String url = event.getResource().getRepositoryUrl();
+            getBreaker( url ).failure( System.currentTimeMillis(), url );
+        }
+        else {
+            success( event );
+        }
+    }
+
+    private void success( TransferEvent event ) {
+        Breaker breaker = m_breakers.get( getKey( event.getResource().getRepositoryUrl() ) );
+        if( breaker != null ) {
+            breaker.success( event.getResource().getRepositoryUrl() );
+        }
+    }
+
+    private Breaker getBreaker( String url ) {
+        String key = getKey( url );
+        Breaker breaker = m_breakers.get( key );
+        if( breaker == null ) {
+            m_breakers.putIfAbsent( key, new Breaker() );
+            breaker = m_breakers.get( key );
+        }
+        return breaker;
+    }
+
+    private static String getKey( String url ) {
+        return url.endsWith( "/" ) ? url.substring( 0, url.length() - 1 ) : url;
+    }
+
+    /**
+     * Returns <code>true</code> if the error tells the repository is unavailable: an i/o error,
+     * such as a connect or read timeout, or a server error, with the native or wagon transport.
+     * Missing resources, client errors and checksum failures are not failures of the repository.
+     */
+    static boolean isFailure( Exception exception ) {
+        for( Throwable t = exception; t != null; t = t.getCause() ) {
+            if( t instanceof ArtifactNotFoundException || t instanceof MetadataNotFoundException
+                || t instanceof ResourceDoesNotExistException || t instanceof AuthorizationException
+                || t instanceof ChecksumFailureException ) {
+                return false;
+            }
+            if( t instanceof HttpResponseException ) {
+                return ( (HttpResponseException) t ).getStatusCode() >= 500;
+            }
+            if( t instanceof TransferFailedException && t.getMessage() != null ) {
+                Matcher matcher = WAGON_STATUS.matcher( t.getMessage() );
+                if( matcher.find() ) {
+                    return Integer.parseInt( matcher.group( 1 ) ) >= 500;
+                }
+            }
+            if( t instanceof IOException ) {
+                return true;
+            }
+            if( t.getCause() == t ) {
+                break;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> for the transfers of artifacts, whose outcome tells whether the
+     * repository is available, rather than of their checksums or of metadata.
+     */
+    private static boolean isArtifact( TransferEvent event ) {
+        String name = event.getResource().getResourceName();
+        for( String extension : IGNORED_EXTENSIONS ) {
+            if( name.endsWith( extension ) ) {
+                return false;
+            }
+        }
+        return !name.endsWith( "maven-metadata.xml" ) && !name.endsWith( ".meta/prefixes.txt" );
+    }
+
+    private class Breaker {
+        private int failures;
+        private long openUntil;
+        private boolean open;
+        private boolean probing;
+
+        synchronized boolean isOpen() {
+            return open;
+        }
+
+        synchronized boolean allow( long now, RemoteRepository repo ) {
+            if( !open ) {
+                return true;
+            }
+            if( now < openUntil ) {
+                return false;
+            }
+            // half-open: a single probe per cool-down period, another one if it did not report
+            probing = true;
+            openUntil = now + m_coolDown;
+            LOG.debug( "Probing repository {}", repo );
+            return true;
+        }
+
+        synchronized void failure( long now, String url ) {
+            failures++;
+            if( probing || ( !open && failures >= m_threshold ) ) {
+                if( !open ) {
+                    LOG.warn( "Skipping repository {} for {} ms after {} consecutive failures",
+                              new Object[] { url, m_coolDown, failures } );
+                }
+                open = true;
+                probing = false;
+                openUntil = now + m_coolDown;
+            }
+        }
+
+        synchronized void success( String url ) {
+            if( open ) {
+                LOG.info( "Repository {} is available again", url );
+            }
+            failures = 0;
+            open = false;
+            probing = false;
+        }
+    }
+
+}
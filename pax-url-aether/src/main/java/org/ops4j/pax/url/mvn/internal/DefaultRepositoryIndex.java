@@ -0,0 +1,421 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.LocalRepository;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An in-memory index of the files of the default repositories.
+ * <p>
+ * The directories of the repositories are listed on the first lookup going
+ * through them, and a {@link WatchService} is registered on each listed
+ * directory to keep its listing up to date, so that an artifact is looked up
+ * in all the default repositories without touching the disk, whether it is
+ * found or not. The number of watched directories is bounded: the least
+ * recently used ones are forgotten, and listed again when needed. A repository
+ * which does not exist is watched through its parent directory until it is
+ * created. The <code>@multi</code> parent directories are checked by the
+ * {@link RepositoryPlan}, whose rebuild replaces the index.
+ * <p>
+ * Versions resolved from the repository metadata, SNAPSHOT, LATEST and RELEASE, are
+ * only looked up in the repositories holding the directory of the artifact.
+ */
+class DefaultRepositoryIndex implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger( DefaultRepositoryIndex.class );
+
+    private final List<LocalRepository> m_repositories;
+    private final Repository[] m_indexed;
+    private final int m_maxWatches;
+
+    /**
+     * Watched directories of all the repositories, least recently used first.
+     */
+    private final LinkedHashMap<Directory, Directory> m_directories
+            = new LinkedHashMap<Directory, Directory>( 16, 0.75f, true );
+
+    /**
+     * Build the index of the given repositories.
+     *
+     * @param maxWatches maximum number of directories watched at once
+     * @throws IOException if the repositories cannot be watched
+     */
+    DefaultRepositoryIndex( List<LocalRepository> repositories, int maxWatches ) throws IOException {
+        m_repositories = repositories;
+        m_maxWatches = Math.max( 1, maxWatches );
+        m_indexed = new Repository[repositories.size()];
+        try {
+            for( int i = 0; i < m_indexed.length; i++ ) {
+                m_indexed[i] = new Repository( repositories.get( i ).getBasedir().toPath().toAbsolutePath() );
+            }
+        }
+        catch( IOException e ) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the repositories this index has been built for.
+     */
+    List<LocalRepository> getRepositories() {
+        return m_repositories;
+    }
+
+    /**
+     * Returns the file of the artifact in the first repository containing it,
+     * or <code>null</code> if none does.
+     */
+    synchronized File find( Artifact artifact ) {
+        processEvents();
+        String path = getPath( artifact );
+        String[] segments = path.split( "/" );
+        for( Repository repository : m_indexed ) {
+            if( repository.contains( segments ) ) {
+                return new File( repository.m_basedir.toFile(), path );
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the repositories containing the directory of the versions of the artifact,
+     * or of its base version for a SNAPSHOT, in order.
+     */
+    synchronized List<LocalRepository> findRepositories( Artifact artifact ) {
+        processEvents();
+        String[] segments = getDirectory( artifact ).split( "/" );
+        List<LocalRepository> repositories = new ArrayList<LocalRepository>();
+        for( int i = 0; i < m_indexed.length; i++ ) {
+            if( m_indexed[i].contains( segments ) ) {
+                repositories.add( m_repositories.get( i ) );
+            }
+        }
+        return repositories;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for( Repository repository : m_indexed ) {
+            if( repository != null ) {
+                repository.m_watcher.close();
+            }
+        }
+        m_directories.clear();
+    }
+
+    /**
+     * Returns the number of watched directories.
+     */
+    synchronized int size() {
+        return m_directories.size();
+    }
+
+    /**
+     * Apply the pending changes of the watched directories to the index.
+     */
+    synchronized void processEvents() {
+        for( Repository repository : m_indexed ) {
+            repository.processEvents();
+        }
+    }
+
+    /**
+     * Forget the least recently used directories beyond the maximum number of watches.
+     */
+    private void evict() {
+        for( Iterator<Directory> it = m_directories.keySet().iterator();
+             m_directories.size() > m_maxWatches && it.hasNext(); ) {
+            Directory directory = it.next();
+            it.remove();
+            directory.m_key.cancel();
+            directory.m_repository.m_directories.remove( directory.m_path );
+            directory.m_repository.m_keys.remove( directory.m_key );
+        }
+    }
+
+    /**
+     * Returns the directory of the versions of the artifact, or of its base version for a SNAPSHOT.
+     */
+    private static String getDirectory( Artifact artifact ) {
+        String directory = artifact.getGroupId().replace( '.', '/' ) + "/" + artifact.getArtifactId();
+        return artifact.isSnapshot() ? directory + "/" + artifact.getBaseVersion() : directory;
+    }
+
+    /**
+     * Returns the path of the artifact, as laid out by the simple local repository manager.
+     */
+    static String getPath( Artifact artifact ) {
+        StringBuilder path = new StringBuilder( 128 );
+        path.append( artifact.getGroupId().replace( '.', '/' ) ).append( '/' );
+        path.append( artifact.getArtifactId() ).append( '/' );
+        path.append( artifact.getBaseVersion() ).append( '/' );
+        path.append( artifact.getArtifactId() ).append( '-' ).append( artifact.getVersion() );
+        if( artifact.getClassifier().length() > 0 ) {
+            path.append( '-' ).append( artifact.getClassifier() );
+        }
+        if( artifact.getExtension().length() > 0 ) {
+            path.append( '.' ).append( artifact.getExtension() );
+        }
+        return path.toString();
+    }
+
+    /**
+     * A default repository and its watched directories.
+     */
+    private class Repository {
+
+        private final Path m_basedir;
+        private final WatchService m_watcher;
+
+        /**
+         * Watched directories, by path relative to the repository, so that a
+         * directory is forgotten along with the directories below it.
+         */
+        private final TreeMap<String, Directory> m_directories = new TreeMap<String, Directory>();
+        private final Map<WatchKey, Directory> m_keys = new HashMap<WatchKey, Directory>();
+
+        /**
+         * Key of the parent directory while the repository does not exist, if the parent does.
+         */
+        private WatchKey m_parentKey;
+        private boolean m_missing;
+
+        Repository( Path basedir ) throws IOException {
+            m_basedir = basedir;
+            // a watch service per repository, as nested repositories would share the keys of a single one
+            m_watcher = FileSystems.getDefault().newWatchService();
+        }
+
+        /**
+         * Returns <code>true</code> if the file at the given path exists in this repository.
+         */
+        boolean contains( String[] segments ) {
+            if( m_missing ) {
+                return false;
+            }
+            Directory directory = getDirectory( "" );
+            StringBuilder path = new StringBuilder( 128 );
+            for( int i = 0; i < segments.length; i++ ) {
+                if( directory == null || !directory.m_children.contains( segments[i] ) ) {
+                    return false;
+                }
+                if( i == segments.length - 1 ) {
+                    return true;
+                }
+                if( i > 0 ) {
+                    path.append( '/' );
+                }
+                directory = getDirectory( path.append( segments[i] ).toString() );
+            }
+            return false;
+        }
+
+        /**
+         * Returns the watched directory at the given path, listing it first if needed,
+         * or <code>null</code> if it does not exist.
+         */
+        private Directory getDirectory( String path ) {
+            Directory directory = m_directories.get( path );
+            if( directory != null ) {
+                // mark as recently used
+                DefaultRepositoryIndex.this.m_directories.get( directory );
+                return directory;
+            }
+            Path dir = path.isEmpty() ? m_basedir : m_basedir.resolve( path );
+            WatchKey key = null;
+            try {
+                // watched before being listed, so that no change is lost in between
+                key = dir.register( m_watcher, ENTRY_CREATE, ENTRY_DELETE );
+                Set<String> children = new HashSet<String>();
+                DirectoryStream<Path> stream = Files.newDirectoryStream( dir );
+                try {
+                    for( Path child : stream ) {
+                        children.add( child.getFileName().toString() );
+                    }
+                }
+                finally {
+                    stream.close();
+                }
+                directory = new Directory( this, path, key, children );
+            }
+            catch( NoSuchFileException e ) {
+                if( path.isEmpty() ) {
+                    watchParent();
+                }
+                return null;
+            }
+            catch( NotDirectoryException e ) {
+                if( key != null ) {
+                    key.cancel();
+                }
+                return null;
+            }
+            catch( IOException e ) {
+                if( key != null ) {
+                    key.cancel();
+                }
+                LOG.warn( "Unable to index " + dir + ", considering it empty until it changes", e );
+                return null;
+            }
+            m_directories.put( path, directory );
+            m_keys.put( key, directory );
+            DefaultRepositoryIndex.this.m_directories.put( directory, directory );
+            evict();
+            return directory;
+        }
+
+        /**
+         * Watch the parent directory of this missing repository for its creation.
+         */
+        private void watchParent() {
+            m_missing = true;
+            Path parent = m_basedir.getParent();
+            if( parent == null ) {
+                return;
+            }
+            try {
+                m_parentKey = parent.register( m_watcher, ENTRY_CREATE );
+                if( Files.isDirectory( m_basedir ) ) {
+                    // created while registering
+                    m_parentKey.cancel();
+                    m_parentKey = null;
+                    m_missing = false;
+                }
+            }
+            catch( IOException e ) {
+                LOG.debug( "Repository {} and its parent directory do not exist,"
+                           + " it is only indexed once the index is rebuilt", m_basedir );
+            }
+        }
+
+        void processEvents() {
+            WatchKey key;
+            while( ( key = m_watcher.poll() ) != null ) {
+                if( key == m_parentKey ) {
+                    for( WatchEvent<?> event : key.pollEvents() ) {
+                        if( event.kind() == OVERFLOW || m_basedir.getFileName().equals( event.context() ) ) {
+                            m_parentKey.cancel();
+                            m_parentKey = null;
+                            m_missing = false;
+                            break;
+                        }
+                    }
+                    if( m_parentKey != null && !key.reset() ) {
+                        m_parentKey = null;
+                    }
+                    continue;
+                }
+                Directory directory = m_keys.get( key );
+                if( directory == null ) {
+                    key.cancel();
+                    continue;
+                }
+                for( WatchEvent<?> event : key.pollEvents() ) {
+                    if( event.kind() == OVERFLOW ) {
+                        LOG.debug( "Lost changes of {}, listing it again", directory.m_path );
+                        removeAll( directory.m_path );
+                        break;
+                    }
+                    String name = event.context().toString();
+                    if( event.kind() == ENTRY_CREATE ) {
+                        directory.m_children.add( name );
+                    }
+                    else if( event.kind() == ENTRY_DELETE ) {
+                        directory.m_children.remove( name );
+                        // a directory removed or moved away, along with the directories below it
+                        removeAll( directory.m_path.isEmpty() ? name : directory.m_path + "/" + name );
+                    }
+                }
+                if( !key.reset() ) {
+                    removeAll( directory.m_path );
+                }
+            }
+        }
+
+        /**
+         * Forget the watched directory at the given path and the directories below it.
+         */
+        private void removeAll( String path ) {
+            List<Directory> removed = new ArrayList<Directory>();
+            if( path.isEmpty() ) {
+                removed.addAll( m_directories.values() );
+            }
+            else {
+                Directory directory = m_directories.get( path );
+                if( directory != null ) {
+                    removed.add( directory );
+                }
+                // '0' follows '/', so that the sub map holds exactly the directories below the path
+                removed.addAll( m_directories.subMap( path + "/", path + "0" ).values() );
+            }
+            for( Directory directory : removed ) {
+                directory.m_key.cancel();
+                m_directories.remove( directory.m_path );
+                m_keys.remove( directory.m_key );
+                DefaultRepositoryIndex.this.m_directories.remove( directory );
+            }
+        }
+
+    }
+
+    /**
+     * A watched directory and the names of its children.
+     */
+    private static class Directory {
+
+        private final Repository m_repository;
+        private final String m_path;
+        private final WatchKey m_key;
+        private final Set<String> m_children;
+
+        Directory( Repository repository, String path, WatchKey key, Set<String> children ) {
+            m_repository = repository;
+            m_path = path;
+            m_key = key;
+            m_children = children;
+        }
+
+    }
+
+}
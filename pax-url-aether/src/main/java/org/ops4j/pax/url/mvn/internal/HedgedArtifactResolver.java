@@ -0,0 +1,307 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.aether.DefaultRepositoryCache;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.DefaultSessionData;
+import org.eclipse.aether.RepositorySystem;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.LocalArtifactRequest;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResolutionException;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.util.listener.ChainedTransferListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Resolves artifacts with hedged requests.
+ * <p>
+ * The artifact is resolved from its remote repositories in order, as usual. If no
+ * byte has been received after a delay, given by a percentile of the latencies
+ * observed so far, it is also resolved from the next repositories, with a distinct
+ * url, into a temporary local repository. The first successful resolution wins,
+ * aether having checked the checksums of the downloaded files according to the
+ * checksum policy of the repositories, and a file resolved by the hedged request is
+ * moved to the local repository. The losing resolution is then interrupted and its
+ * transfers cancelled as soon as they report progress, and the latencies to first
+ * byte of both resolutions are observed. Each resolution runs with its own session
+ * data and cache, so that the losing one does not use the pooled session once it has
+ * been released.
+ */
+class HedgedArtifactResolver {
+
+    private static final Logger LOG = LoggerFactory.getLogger( HedgedArtifactResolver.class );
+
+    /**
+     * Number of latencies to observe before using their percentile as delay.
+     */
+    private static final int MIN_SAMPLES = 10;
+
+    private final RepositorySystem m_repoSystem;
+    private final ExecutorService m_executor;
+    private final LatencyTracker m_latencies;
+    private final int m_percentile;
+    private final long m_initialDelay;
+
+    /**
+     * @param executor runs the resolutions, without bounding their number to avoid deadlocks
+     * @param percentile percentile of the latencies to first byte used as delay
+     * @param initialDelay delay in ms used until enough latencies have been observed
+     */
+    HedgedArtifactResolver( RepositorySystem repoSystem, ExecutorService executor, LatencyTracker latencies,
+                            int percentile, long initialDelay ) {
+        m_repoSystem = repoSystem;
+        m_executor = executor;
+        m_latencies = latencies;
+        m_percentile = percentile;
+        m_initialDelay = initialDelay;
+    }
+
+    /**
+     * Returns the current delay in ms after which a hedged request is sent.
+     */
+    long getDelay() {
+        return m_latencies.getPercentile( m_percentile, MIN_SAMPLES, m_initialDelay );
+    }
+
+    ArtifactResult resolveArtifact( final RepositorySystemSession session, final ArtifactRequest request )
+        throws ArtifactResolutionException {
+        final List<RemoteRepository> hedgeRepos = getHedgeRepositories( request.getRepositories() );
+        if( hedgeRepos.isEmpty() || isAvailableLocally( session, request.getArtifact() ) ) {
+            return m_repoSystem.resolveArtifact( session, request );
+        }
+
+        final AtomicBoolean resolved = new AtomicBoolean();
+        ResolutionListener primaryListener = new ResolutionListener( resolved );
+        RepositorySystemSession primarySession = newSession( session, primaryListener );
+
+        CompletionService<ArtifactResult> completion = new ExecutorCompletionService<ArtifactResult>( m_executor );
+        List<Future<ArtifactResult>> resolutions = new ArrayList<Future<ArtifactResult>>( 2 );
+        Future<ArtifactResult> primary = completion.submit( newResolution( primarySession, request ) );
+        resolutions.add( primary );
+        int pending = 1;
+        Exception failure = null;
+        try {
+            Future<ArtifactResult> done = completion.poll( getDelay(), TimeUnit.MILLISECONDS );
+            if( done == null && !primaryListener.isReceiving() ) {
+                LOG.debug( "No response for {} from {}, hedging with {}", new Object[] {
+                    request.getArtifact(), request.getRepositories().get( 0 ), hedgeRepos } );
+                resolutions.add( completion.submit( new Callable<ArtifactResult>() {
+                    @Override
+                    public ArtifactResult call() throws Exception {
+                        return hedge( session, request, hedgeRepos, resolved );
+                    }
+                } ) );
+                pending++;
+            }
+            while( pending > 0 ) {
+                if( done == null ) {
+                    done = completion.take();
+                }
+                pending--;
+                try {
+                    ArtifactResult result = done.get();
+                    resolved.set( true );
+                    return result;
+                }
+                catch( ExecutionException e ) {
+                    // the failure of the primary resolution covers all the repositories
+                    if( failure == null || done == primary ) {
+                        failure = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+                done = null;
+            }
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            failure = e;
+        }
+        finally {
+            // the losing resolution is interrupted rather than left to run until its next transfer event
+            resolved.set( true );
+            for( Future<ArtifactResult> resolution : resolutions ) {
+                resolution.cancel( true );
+            }
+        }
+        if( failure instanceof ArtifactResolutionException ) {
+            throw (ArtifactResolutionException) failure;
+        }
+        if( failure instanceof RuntimeException ) {
+            throw (RuntimeException) failure;
+        }
+        ArtifactResult result = new ArtifactResult( request );
+        result.addException( failure );
+        List<ArtifactResult> results = new ArrayList<ArtifactResult>();
+        results.add( result );
+        throw new ArtifactResolutionException( results, "Error resolving artifact " + request.getArtifact(),
+                                               failure );
+    }
+
+    private Callable<ArtifactResult> newResolution( final RepositorySystemSession session,
+                                                    final ArtifactRequest request ) {
+        return new Callable<ArtifactResult>() {
+            @Override
+            public ArtifactResult call() throws Exception {
+                return m_repoSystem.resolveArtifact( session, request );
+            }
+        };
+    }
+
+    /**
+     * Returns a copy of the session for a resolution, with its own data and cache, as the
+     * losing resolution may still be running once the session has been released to its pool.
+     */
+    private static DefaultRepositorySystemSession newSession( RepositorySystemSession session,
+                                                              ResolutionListener listener ) {
+        DefaultRepositorySystemSession copy = new DefaultRepositorySystemSession( session );
+        copy.setData( new DefaultSessionData() );
+        copy.setCache( new DefaultRepositoryCache() );
+        copy.setTransferListener( ChainedTransferListener.newInstance( session.getTransferListener(), listener ) );
+        return copy;
+    }
+
+    /**
+     * Resolve the artifact from the given repositories into a temporary local repository,
+     * then move it to the local repository of the session unless another resolution won.
+     */
+    private ArtifactResult hedge( RepositorySystemSession session, ArtifactRequest request,
+                                  List<RemoteRepository> repos, AtomicBoolean resolved )
+        throws ArtifactResolutionException, IOException {
+        File tmp = Files.createTempDirectory( "pax-url-aether-hedge" ).toFile();
+        try {
+            DefaultRepositorySystemSession hedgeSession = newSession( session, new ResolutionListener( resolved ) );
+            hedgeSession.setLocalRepositoryManager(
+                m_repoSystem.newLocalRepositoryManager( hedgeSession, new LocalRepository( tmp, "simple" ) ) );
+            ArtifactRequest hedgeRequest = new ArtifactRequest( request.getArtifact(), repos, request.getRequestContext() );
+            ArtifactResult result = m_repoSystem.resolveArtifact( hedgeSession, hedgeRequest );
+            if( resolved.get() ) {
+                return result;
+            }
+            Artifact artifact = result.getArtifact();
+            File target = new File( session.getLocalRepository().getBasedir(),
+                                    session.getLocalRepositoryManager().getPathForLocalArtifact( artifact ) );
+            target.getParentFile().mkdirs();
+            File part = File.createTempFile( target.getName(), ".hedge", target.getParentFile() );
+            try {
+                Files.copy( artifact.getFile().toPath(), part.toPath(), StandardCopyOption.REPLACE_EXISTING );
+                Files.move( part.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                            StandardCopyOption.ATOMIC_MOVE );
+            }
+            finally {
+                part.delete();
+            }
+            LOG.debug( "Resolved {} with a hedged request from {}", artifact, result.getRepository() );
+            return new ArtifactResult( request ).setArtifact( artifact.setFile( target ) )
+                .setRepository( result.getRepository() );
+        }
+        finally {
+            delete( tmp );
+        }
+    }
+
+    /**
+     * Records the latency to the first byte of a resolution, and cancels its transfers once
+     * another resolution of the artifact won.
+     */
+    private class ResolutionListener extends AbstractTransferListener {
+
+        private final long m_start = System.nanoTime();
+        private final AtomicBoolean m_receiving = new AtomicBoolean();
+        private final AtomicBoolean m_resolved;
+
+        ResolutionListener( AtomicBoolean resolved ) {
+            m_resolved = resolved;
+        }
+
+        boolean isReceiving() {
+            return m_receiving.get();
+        }
+
+        @Override
+        public void transferInitiated( TransferEvent event ) throws TransferCancelledException {
+            checkResolved( event );
+        }
+
+        @Override
+        public void transferProgressed( TransferEvent event ) throws TransferCancelledException {
+            if( m_receiving.compareAndSet( false, true ) ) {
+                m_latencies.record( TimeUnit.NANOSECONDS.toMillis( System.nanoTime() - m_start ) );
+            }
+            checkResolved( event );
+        }
+
+        private void checkResolved( TransferEvent event ) throws TransferCancelledException {
+            if( m_resolved.get() ) {
+                throw new TransferCancelledException( "Cancelled " + event.getResource().getResourceName()
+                    + ", resolved from another repository" );
+            }
+        }
+    }
+
+    /**
+     * Returns the repositories after the first one, without those having the same url.
+     */
+    private static List<RemoteRepository> getHedgeRepositories( List<RemoteRepository> repos ) {
+        List<RemoteRepository> hedgeRepos = new ArrayList<RemoteRepository>();
+        if( repos.size() > 1 ) {
+            String url = repos.get( 0 ).getUrl();
+            for( RemoteRepository repo : repos.subList( 1, repos.size() ) ) {
+                if( !url.equals( repo.getUrl() ) ) {
+                    hedgeRepos.add( repo );
+                }
+            }
+        }
+        return hedgeRepos;
+    }
+
+    private static boolean isAvailableLocally( RepositorySystemSession session, Artifact artifact ) {
+        return session.getLocalRepositoryManager()
+            .find( session, new LocalArtifactRequest( artifact, null, null ) ).isAvailable();
+    }
+
+    private static void delete( File file ) {
+        File[] children = file.listFiles();
+        if( children != null ) {
+            for( File child : children ) {
+                delete( child );
+            }
+        }
+        file.delete();
+    }
+
+}
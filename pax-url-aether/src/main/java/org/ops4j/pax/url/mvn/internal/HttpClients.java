@@ -35,6 +35,13 @@ import org.ops4j.util.property.PropertyResolver;
 
 public class HttpClients {
 
+    private static final String[] CLIENT_PROPERTIES = {
+        "maven.wagon.http.ssl.insecure", "maven.wagon.http.ssl.ignore.validity.dates",
+        "maven.wagon.http.ssl.allowall", "org.ops4j.pax.url.mvn.certificateCheck", "maven.wagon.http.pool",
+        "maven.wagon.httpconnectionManager.maxPerRoute", "maven.wagon.httpconnectionManager.maxTotal",
+        "https.protocols", "https.cipherSuites"
+    };
+
     public static CloseableHttpClient createClient(PropertyResolver resolver) {
         return HttpClientBuilder.create() //
                 .useSystemProperties() //
@@ -43,6 +50,18 @@ public class HttpClients {
                 .build();
     }
 
+    /**
+     * Returns the values of the properties the clients are created from, so that a client
+     * can be reused as long as they do not change.
+     */
+    public static String getKey(PropertyResolver resolver) {
+        StringBuilder key = new StringBuilder();
+        for ( String name : CLIENT_PROPERTIES ) {
+            key.append( name ).append( '=' ).append( getProperty( resolver, name, "" ) ).append( '\n' );
+        }
+        return key.toString();
+    }
+
     private static PoolingHttpClientConnectionManager createConnManager(PropertyResolver resolver)
     {
         boolean SSL_INSECURE = getBoolean( resolver, "maven.wagon.http.ssl.insecure",
@@ -0,0 +1,65 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latencies and computes their percentiles.
+ */
+class LatencyTracker {
+
+    private final long[] m_samples;
+    private int m_next;
+    private int m_count;
+
+    /**
+     * @param size number of latencies kept
+     */
+    LatencyTracker( int size ) {
+        m_samples = new long[size];
+    }
+
+    synchronized void record( long latency ) {
+        m_samples[m_next] = latency;
+        m_next = ( m_next + 1 ) % m_samples.length;
+        if( m_count < m_samples.length ) {
+            m_count++;
+        }
+    }
+
+    synchronized int getCount() {
+        return m_count;
+    }
+
+    /**
+     * Returns the given percentile of the recorded latencies, or <code>defaultValue</code>
+     * if less than <code>minCount</code> latencies have been recorded.
+     *
+     * @param percentile between 0 and 100
+     */
+    long getPercentile( int percentile, int minCount, long defaultValue ) {
+        long[] samples;
+        synchronized( this ) {
+            if( m_count == 0 || m_count < minCount ) {
+                return defaultValue;
+            }
+            samples = Arrays.copyOf( m_samples, m_count );
+        }
+        Arrays.sort( samples );
+        int index = (int) Math.ceil( percentile / 100.0 * samples.length ) - 1;
+        return samples[Math.max( 0, Math.min( index, samples.length - 1 ) )];
+    }
+
+}
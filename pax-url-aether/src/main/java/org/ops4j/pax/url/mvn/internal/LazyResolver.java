@@ -0,0 +1,152 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.ops4j.pax.url.mvn.MavenResolver;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertyResolver;
+
+/**
+ * A resolver whose configuration and {@link AetherBasedResolver} are built on first use, so
+ * that starting the bundle does not read the maven settings, nor create the repository system
+ * and the http client, until a <code>mvn:</code> url is resolved.
+ * <p>
+ * A resolver replacing one that was already used is built right away, reusing the components
+ * of the previous one whose configuration did not change.
+ */
+class LazyResolver implements MavenResolver {
+
+    private final PropertyResolver m_propertyResolver;
+    private volatile AetherBasedResolver m_resolver;
+    private boolean m_closed;
+
+    /**
+     * @param propertyResolver resolves the configuration properties
+     * @param previous the resolver replaced by this one, or <code>null</code>
+     */
+    LazyResolver( PropertyResolver propertyResolver, LazyResolver previous ) {
+        m_propertyResolver = propertyResolver;
+        AetherBasedResolver resolver = previous != null ? previous.detach() : null;
+        if( resolver != null ) {
+            m_resolver = new AetherBasedResolver(
+                new MavenConfigurationImpl( m_propertyResolver, ServiceConstants.PID ), null, resolver );
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the resolver has been built.
+     */
+    boolean isInitialized() {
+        return m_resolver != null;
+    }
+
+    /**
+     * Returns the resolver built so far, to be taken over by the resolver replacing this one,
+     * waiting for the one being built if any. This resolver still has to be closed, which
+     * closes the components of its resolver that have not been taken over.
+     */
+    synchronized AetherBasedResolver detach() {
+        return m_resolver;
+    }
+
+    AetherBasedResolver getResolver() {
+        AetherBasedResolver resolver = m_resolver;
+        if( resolver == null ) {
+            synchronized( this ) {
+                if( m_closed ) {
+                    throw new IllegalStateException( "Resolver has been closed" );
+                }
+                resolver = m_resolver;
+                if( resolver == null ) {
+                    resolver = new AetherBasedResolver(
+                        new MavenConfigurationImpl( m_propertyResolver, ServiceConstants.PID ) );
+                    m_resolver = resolver;
+                }
+            }
+        }
+        return resolver;
+    }
+
+    @Override
+    public File resolve( String url ) throws IOException {
+        return getResolver().resolve( url );
+    }
+
+    @Override
+    public CompletableFuture<File> resolveAsync( String url ) {
+        return getResolver().resolveAsync( url );
+    }
+
+    @Override
+    public CompletableFuture<File> resolveAsync( String url, long timeout, TimeUnit unit ) {
+        return getResolver().resolveAsync( url, timeout, unit );
+    }
+
+    @Override
+    public List<File> resolveAll( Collection<String> urls ) throws IOException {
+        return getResolver().resolveAll( urls );
+    }
+
+    @Override
+    public File resolve( String groupId, String artifactId, String classifier, String extension, String version )
+        throws IOException {
+        return getResolver().resolve( groupId, artifactId, classifier, extension, version );
+    }
+
+    @Override
+    public File resolveMetadata( String groupId, String artifactId, String type, String version )
+        throws IOException {
+        return getResolver().resolveMetadata( groupId, artifactId, type, version );
+    }
+
+    @Override
+    public InputStream openMetadata( String groupId, String artifactId, String type, String version )
+        throws IOException {
+        return getResolver().openMetadata( groupId, artifactId, type, version );
+    }
+
+    @Override
+    public void upload( String groupId, String artifactId, String classifier, String extension, String version,
+                        File artifact ) throws IOException {
+        getResolver().upload( groupId, artifactId, classifier, extension, version, artifact );
+    }
+
+    @Override
+    public void uploadMetadata( String groupId, String artifactId, String type, String version, File artifact )
+        throws IOException {
+        getResolver().uploadMetadata( groupId, artifactId, type, version, artifact );
+    }
+
+    @Override
+    public void close() throws IOException {
+        AetherBasedResolver resolver;
+        synchronized( this ) {
+            m_closed = true;
+            resolver = m_resolver;
+        }
+        if( resolver != null ) {
+            resolver.close();
+        }
+    }
+
+}
@@ -0,0 +1,39 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Gives the other internal packages access to the metadata merging, which stays
+ * package-private.
+ */
+public final class MetadataFiles {
+
+    private MetadataFiles() {
+    }
+
+    /**
+     * Merge the given metadata files, taking the group id, artifact id and version from
+     * the first one that declares them.
+     *
+     * @return the merged metadata, or <code>null</code> if none could be merged
+     */
+    public static byte[] merge( List<File> files ) throws IOException {
+        return MetadataMerger.merge( files );
+    }
+
+}
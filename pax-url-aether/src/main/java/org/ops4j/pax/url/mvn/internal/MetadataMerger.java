@@ -0,0 +1,308 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.Versioning;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Writer;
+import org.codehaus.plexus.util.xml.pull.MXParser;
+import org.codehaus.plexus.util.xml.pull.XmlPullParser;
+import org.codehaus.plexus.util.xml.pull.XmlPullParserException;
+import org.eclipse.aether.util.version.GenericVersionScheme;
+import org.eclipse.aether.version.InvalidVersionSpecificationException;
+import org.eclipse.aether.version.Version;
+import org.eclipse.aether.version.VersionScheme;
+
+/**
+ * Merges maven metadata files into a single one.
+ * <p>
+ * Each file is read with a pull parser, without building its model, and its
+ * versions are parsed once and merged into sorted maps, so that merging does not
+ * depend on the number of versions already merged. Versions are sorted by their
+ * parsed value but kept by their text, so that distinct versions comparing equal,
+ * such as <code>1.0</code> and <code>1.0.0</code>, are all kept.
+ */
+class MetadataMerger {
+
+    private final VersionScheme m_versionScheme = new GenericVersionScheme();
+
+    private final boolean m_inferCoordinates;
+    private String m_groupId;
+    private String m_artifactId;
+    private String m_version;
+    private String m_lastUpdated;
+    private Version m_latest;
+    private Version m_release;
+    private final Map<Version, Set<String>> m_versions = new TreeMap<Version, Set<String>>();
+    private final Map<SnapshotKey, SnapshotVersion> m_snapshotVersions = new TreeMap<SnapshotKey, SnapshotVersion>();
+    private boolean m_merged;
+
+    MetadataMerger( String groupId, String artifactId ) {
+        m_inferCoordinates = false;
+        m_groupId = groupId;
+        m_artifactId = artifactId;
+    }
+
+    /**
+     * Create a merger taking the group id, artifact id and version from the first metadata
+     * that declares them.
+     */
+    MetadataMerger() {
+        m_inferCoordinates = true;
+    }
+
+    /**
+     * Merge the given metadata files, taking the group id, artifact id and version from
+     * the first one that declares them.
+     *
+     * @return the merged metadata, or <code>null</code> if none could be merged
+     */
+    static byte[] merge( List<File> files ) throws IOException {
+        MetadataMerger merger = new MetadataMerger();
+        for( File file : files ) {
+            InputStream is = new BufferedInputStream( new FileInputStream( file ) );
+            try {
+                merger.merge( is );
+            }
+            finally {
+                is.close();
+            }
+        }
+        if( !merger.isMerged() ) {
+            return null;
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        merger.write( os );
+        return os.toByteArray();
+    }
+
+    /**
+     * Merge the metadata read from the given stream.
+     */
+    void merge( InputStream is ) throws IOException {
+        try {
+            XmlPullParser parser = new MXParser();
+            parser.setInput( is, null );
+            // path of the current element, from the root element
+            List<String> path = new ArrayList<String>();
+            SnapshotVersion snapshotVersion = null;
+            for( int event = parser.getEventType(); event != XmlPullParser.END_DOCUMENT; event = parser.next() ) {
+                if( event == XmlPullParser.START_TAG ) {
+                    String name = parser.getName();
+                    String parent = path.isEmpty() ? null : path.get( path.size() - 1 );
+                    boolean inVersioning = path.size() >= 2 && "versioning".equals( path.get( 1 ) );
+                    if( inVersioning && path.size() == 2
+                        && ( "lastUpdated".equals( name ) || "latest".equals( name ) || "release".equals( name ) ) ) {
+                        String text = parser.nextText().trim();
+                        if( "lastUpdated".equals( name ) ) {
+                            m_lastUpdated = latestTimestamp( m_lastUpdated, text );
+                        }
+                        else if( "latest".equals( name ) ) {
+                            m_latest = latestVersion( m_latest, text );
+                        }
+                        else {
+                            m_release = latestVersion( m_release, text );
+                        }
+                    }
+                    else if( m_inferCoordinates && path.size() == 1
+                        && ( "groupId".equals( name ) || "artifactId".equals( name ) || "version".equals( name ) ) ) {
+                        String text = parser.nextText().trim();
+                        if( "groupId".equals( name ) ) {
+                            m_groupId = m_groupId != null ? m_groupId : text;
+                        }
+                        else if( "artifactId".equals( name ) ) {
+                            m_artifactId = m_artifactId != null ? m_artifactId : text;
+                        }
+                        else {
+                            m_version = m_version != null ? m_version : text;
+                        }
+                    }
+                    else if( inVersioning && path.size() == 3 && "versions".equals( parent ) && "version".equals( name ) ) {
+                        String text = parser.nextText().trim();
+                        Version version = parseVersion( text );
+                        if( version != null ) {
+                            Set<String> texts = m_versions.get( version );
+                            if( texts == null ) {
+                                texts = new LinkedHashSet<String>();
+                                m_versions.put( version, texts );
+                            }
+                            texts.add( text );
+                        }
+                    }
+                    else if( snapshotVersion != null && path.size() == 4 ) {
+                        String text = parser.nextText().trim();
+                        if( "classifier".equals( name ) ) {
+                            snapshotVersion.setClassifier( text );
+                        }
+                        else if( "extension".equals( name ) ) {
+                            snapshotVersion.setExtension( text );
+                        }
+                        else if( "value".equals( name ) ) {
+                            snapshotVersion.setVersion( text );
+                        }
+                        else if( "updated".equals( name ) ) {
+                            snapshotVersion.setUpdated( text );
+                        }
+                    }
+                    else {
+                        if( inVersioning && path.size() == 3 && "snapshotVersions".equals( parent )
+                            && "snapshotVersion".equals( name ) ) {
+                            snapshotVersion = new SnapshotVersion();
+                        }
+                        path.add( name );
+                    }
+                }
+                else if( event == XmlPullParser.END_TAG ) {
+                    if( snapshotVersion != null && path.size() == 4 ) {
+                        addSnapshotVersion( snapshotVersion );
+                        snapshotVersion = null;
+                    }
+                    path.remove( path.size() - 1 );
+                }
+            }
+            m_merged = true;
+        }
+        catch( XmlPullParserException e ) {
+            throw new IOException( "Unable to parse metadata", e );
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if at least one metadata has been merged.
+     */
+    boolean isMerged() {
+        return m_merged;
+    }
+
+    /**
+     * Write the merged metadata.
+     */
+    void write( OutputStream os ) throws IOException {
+        Metadata metadata = new Metadata();
+        metadata.setModelVersion( "1.1.0" );
+        metadata.setGroupId( m_groupId );
+        metadata.setArtifactId( m_artifactId );
+        metadata.setVersion( m_version );
+        Versioning versioning = new Versioning();
+        versioning.setLastUpdated( m_lastUpdated );
+        versioning.setLatest( m_latest != null ? m_latest.toString() : null );
+        versioning.setRelease( m_release != null ? m_release.toString() : null );
+        List<String> versions = new ArrayList<String>();
+        for( Set<String> texts : m_versions.values() ) {
+            versions.addAll( texts );
+        }
+        versioning.setVersions( versions );
+        versioning.setSnapshotVersions( new ArrayList<SnapshotVersion>( m_snapshotVersions.values() ) );
+        metadata.setVersioning( versioning );
+        new MetadataXpp3Writer().write( os, metadata );
+    }
+
+    private void addSnapshotVersion( SnapshotVersion snapshotVersion ) {
+        Version version = parseVersion( snapshotVersion.getVersion() );
+        if( version == null ) {
+            return;
+        }
+        SnapshotKey key = new SnapshotKey( version, snapshotVersion.getVersion(),
+                                           snapshotVersion.getExtension(), snapshotVersion.getClassifier() );
+        SnapshotVersion previous = m_snapshotVersions.get( key );
+        if( previous == null || isNewer( snapshotVersion.getUpdated(), previous.getUpdated() ) ) {
+            m_snapshotVersions.put( key, snapshotVersion );
+        }
+    }
+
+    private Version parseVersion( String version ) {
+        if( version == null || version.length() == 0 ) {
+            return null;
+        }
+        try {
+            return m_versionScheme.parseVersion( version );
+        }
+        catch( InvalidVersionSpecificationException e ) {
+            return null;
+        }
+    }
+
+    private Version latestVersion( Version current, String version ) {
+        Version parsed = parseVersion( version );
+        if( current == null ) {
+            return parsed;
+        }
+        if( parsed == null ) {
+            return current;
+        }
+        return current.compareTo( parsed ) < 0 ? parsed : current;
+    }
+
+    private static boolean isNewer( String t1, String t2 ) {
+        return t1 != null && ( t2 == null || t1.compareTo( t2 ) > 0 );
+    }
+
+    private static String latestTimestamp( String t1, String t2 ) {
+        if( t1 == null || t1.length() == 0 ) {
+            return t2;
+        }
+        else if( t2 == null || t2.length() == 0 ) {
+            return t1;
+        }
+        return t1.compareTo( t2 ) < 0 ? t2 : t1;
+    }
+
+    /**
+     * Identifies a snapshot version by its version, extension and classifier.
+     */
+    private static class SnapshotKey implements Comparable<SnapshotKey> {
+        final Version version;
+        final String text;
+        final String extension;
+        final String classifier;
+
+        SnapshotKey( Version version, String text, String extension, String classifier ) {
+            this.version = version;
+            this.text = text;
+            this.extension = extension != null ? extension : "";
+            this.classifier = classifier != null ? classifier : "";
+        }
+
+        @Override
+        public int compareTo( SnapshotKey o ) {
+            int c = version.compareTo( o.version );
+            if( c == 0 ) {
+                c = text.compareTo( o.text );
+            }
+            if( c == 0 ) {
+                c = extension.compareTo( o.extension );
+            }
+            if( c == 0 ) {
+                c = classifier.compareTo( o.classifier );
+            }
+            return c;
+        }
+    }
+
+}
@@ -0,0 +1,132 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+
+/**
+ * A cache of artifacts known to be missing from a remote repository.
+ * <p>
+ * Entries are keyed by artifact coordinates and repository, and expire after
+ * their time to live, so that a missing artifact is not looked up again in the
+ * same repository until then. The least recently used entries are evicted
+ * beyond the maximum number of entries.
+ */
+class NotFoundCache {
+
+    private final long m_ttl;
+    private final Map<String, Long> m_entries;
+
+    /**
+     * @param maxSize maximum number of entries
+     * @param ttl time to live in ms of the entries; zero disables the cache
+     */
+    NotFoundCache( final int maxSize, long ttl ) {
+        m_ttl = ttl;
+        m_entries = new LinkedHashMap<String, Long>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Long> eldest ) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the repositories in which the artifact is not known to be missing.
+     */
+    List<RemoteRepository> filter( Artifact artifact, List<RemoteRepository> repositories ) {
+        if( m_ttl <= 0 || size() == 0 ) {
+            return repositories;
+        }
+        List<RemoteRepository> filtered = new ArrayList<RemoteRepository>( repositories.size() );
+        for( RemoteRepository repository : repositories ) {
+            if( !isMissing( artifact, repository ) ) {
+                filtered.add( repository );
+            }
+        }
+        return filtered.size() == repositories.size() ? repositories : filtered;
+    }
+
+    /**
+     * Returns <code>true</code> if the artifact is known to be missing from the repository.
+     */
+    boolean isMissing( Artifact artifact, RemoteRepository repository ) {
+        String key = getKey( artifact, repository );
+        synchronized( m_entries ) {
+            Long expires = m_entries.get( key );
+            if( expires == null ) {
+                return false;
+            }
+            if( expires < System.currentTimeMillis() ) {
+                m_entries.remove( key );
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Record the repositories in which the artifact of the given result was not found.
+     */
+    void record( ArtifactResult result ) {
+        if( m_ttl <= 0 ) {
+            return;
+        }
+        for( Exception exception : result.getExceptions() ) {
+            if( exception instanceof ArtifactNotFoundException ) {
+                ArtifactNotFoundException notFound = (ArtifactNotFoundException) exception;
+                if( notFound.getRepository() != null ) {
+                    put( result.getRequest().getArtifact(), notFound.getRepository() );
+                }
+            }
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void purge() {
+        synchronized( m_entries ) {
+            m_entries.clear();
+        }
+    }
+
+    int size() {
+        synchronized( m_entries ) {
+            return m_entries.size();
+        }
+    }
+
+    private void put( Artifact artifact, RemoteRepository repository ) {
+        long now = System.currentTimeMillis();
+        long expires = m_ttl > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + m_ttl;
+        String key = getKey( artifact, repository );
+        synchronized( m_entries ) {
+            m_entries.put( key, expires );
+        }
+    }
+
+    private static String getKey( Artifact artifact, RemoteRepository repository ) {
+        return artifact.toString() + "|" + repository.getId() + "@" + repository.getUrl();
+    }
+
+}
@@ -408,4 +408,16 @@ public class Parser
             .toString();
     }
 
+    /**
+     * Returns <code>true</code> if the version is a version range, such as <code>[1.0,2.0)</code>.
+     *
+     * @param version version to check
+     *
+     * @return true if the version is a range
+     */
+    public static boolean isVersionRange( final String version )
+    {
+        return version.startsWith( "[" ) || version.startsWith( "(" ) || version.indexOf( ',' ) >= 0;
+    }
+
 }
@@ -0,0 +1,117 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+
+/**
+ * An immutable snapshot of the repositories artifacts are resolved from.
+ * <p>
+ * The plan holds the default repositories and the remote repositories with
+ * their proxies and mirrors assigned, so that they are not rebuilt for each
+ * resolution. Directories of repositories marked with <code>@multi</code> are
+ * recorded with their last modification time, and the plan is stale as soon as
+ * one of them changes.
+ */
+class RepositoryPlan {
+
+    /**
+     * Maximum number of derived remote repositories lists kept by a plan.
+     */
+    private static final int MAX_DERIVED = 64;
+
+    private final List<LocalRepository> m_defaultRepositories;
+    private final List<RemoteRepository> m_repositories;
+    private final List<RemoteRepository> m_remoteRepositories;
+    private final Map<File, Long> m_multiDirs;
+    private final ConcurrentMap<String, List<RemoteRepository>> m_derived
+            = new ConcurrentHashMap<String, List<RemoteRepository>>();
+
+    /**
+     * @param defaultRepositories the default repositories
+     * @param repositories the configured remote repositories, before proxies and mirrors are assigned
+     * @param remoteRepositories the remote repositories, with proxies and mirrors assigned
+     * @param multiDirs the <code>@multi</code> directories and their last modification time
+     */
+    RepositoryPlan( List<LocalRepository> defaultRepositories,
+                    List<RemoteRepository> repositories,
+                    List<RemoteRepository> remoteRepositories,
+                    Map<File, Long> multiDirs ) {
+        m_defaultRepositories = Collections.unmodifiableList( new ArrayList<LocalRepository>( defaultRepositories ) );
+        m_repositories = Collections.unmodifiableList( new ArrayList<RemoteRepository>( repositories ) );
+        m_remoteRepositories = Collections.unmodifiableList( new ArrayList<RemoteRepository>( remoteRepositories ) );
+        m_multiDirs = new HashMap<File, Long>( multiDirs );
+    }
+
+    List<LocalRepository> getDefaultRepositories() {
+        return m_defaultRepositories;
+    }
+
+    /**
+     * Returns the configured remote repositories, before proxies and mirrors are assigned.
+     */
+    List<RemoteRepository> getRepositories() {
+        return m_repositories;
+    }
+
+    /**
+     * Returns the remote repositories, with proxies and mirrors assigned.
+     */
+    List<RemoteRepository> getRemoteRepositories() {
+        return m_remoteRepositories;
+    }
+
+    /**
+     * Returns <code>true</code> if a <code>@multi</code> directory has changed since the plan was built.
+     */
+    boolean isStale() {
+        for( Map.Entry<File, Long> entry : m_multiDirs.entrySet() ) {
+            if( entry.getKey().lastModified() != entry.getValue() ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the remote repositories derived from this plan for the given key,
+     * or <code>null</code> if they have not been computed yet.
+     */
+    List<RemoteRepository> getDerived( String key ) {
+        return m_derived.get( key );
+    }
+
+    /**
+     * Keep the remote repositories derived from this plan for the given key.
+     */
+    List<RemoteRepository> putDerived( String key, List<RemoteRepository> repositories ) {
+        if( m_derived.size() >= MAX_DERIVED ) {
+            m_derived.clear();
+        }
+        List<RemoteRepository> derived = Collections.unmodifiableList( new ArrayList<RemoteRepository>( repositories ) );
+        m_derived.put( key, derived );
+        return derived;
+    }
+
+}
@@ -0,0 +1,381 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.spi.connector.transport.TransporterProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Selects the remote repositories able to host an artifact.
+ * <p>
+ * Routing rules map groupId prefixes to repository ids: an artifact whose groupId
+ * matches a rule is only looked up in the repositories of its longest matching rule,
+ * and a repository named by the rules is only queried for the artifacts routed to it.
+ * Other repositories serve the artifacts matching no rule.
+ * <p>
+ * In addition, the prefix file published by a repository, listing the paths under
+ * which its artifacts are stored, restricts the artifacts it is queried for. Prefix
+ * files are loaded in the background once per repository url, and loaded again
+ * after a failure; a repository is not restricted while its prefix file is unknown,
+ * nor if it does not publish one.
+ */
+class RepositoryRoutes {
+
+    private static final Logger LOG = LoggerFactory.getLogger( RepositoryRoutes.class );
+
+    /**
+     * Location of the prefix file, relative to the repository url.
+     */
+    static final String PREFIXES_FILE = ".meta/prefixes.txt";
+
+    /**
+     * How long a lookup waits for the prefix file being loaded, in milliseconds.
+     */
+    static final long PREFIXES_WAIT = 2000;
+
+    /**
+     * How long a failure to load a prefix file is kept before loading it again, in milliseconds.
+     */
+    static final long PREFIXES_RETRY_INTERVAL = 60000;
+
+    private final Map<String, Set<String>> m_routes;
+    private final Set<String> m_routedIds;
+    private final TransporterProvider m_transporterProvider;
+    private final long m_wait;
+    private final long m_retryInterval;
+    private final ConcurrentMap<String, Prefixes> m_prefixes = new ConcurrentHashMap<String, Prefixes>();
+
+    /**
+     * @param routes the repository ids of each groupId prefix
+     * @param transporterProvider used to load the prefix files, or <code>null</code> to ignore them
+     */
+    RepositoryRoutes( Map<String, Set<String>> routes, TransporterProvider transporterProvider ) {
+        this( routes, transporterProvider, PREFIXES_WAIT, PREFIXES_RETRY_INTERVAL );
+    }
+
+    /**
+     * @param routes the repository ids of each groupId prefix
+     * @param transporterProvider used to load the prefix files, or <code>null</code> to ignore them
+     * @param wait how long a lookup waits for the prefix file being loaded, in milliseconds
+     * @param retryInterval how long a failure to load a prefix file is kept, in milliseconds
+     */
+    RepositoryRoutes( Map<String, Set<String>> routes, TransporterProvider transporterProvider,
+                      long wait, long retryInterval ) {
+        m_routes = routes;
+        m_routedIds = new HashSet<String>();
+        for( Set<String> ids : routes.values() ) {
+            m_routedIds.addAll( ids );
+        }
+        m_transporterProvider = transporterProvider;
+        m_wait = wait;
+        m_retryInterval = retryInterval;
+    }
+
+    /**
+     * Parse routing rules, <code>groupIdPrefix=repositoryId|repositoryId</code>, separated by commas.
+     * Malformed rules are skipped.
+     */
+    static Map<String, Set<String>> parse( String rules ) {
+        Map<String, Set<String>> routes = new LinkedHashMap<String, Set<String>>();
+        if( rules == null ) {
+            return routes;
+        }
+        for( String rule : rules.split( "," ) ) {
+            rule = rule.trim();
+            if( rule.length() == 0 ) {
+                continue;
+            }
+            int index = rule.indexOf( '=' );
+            Set<String> ids = new HashSet<String>();
+            if( index > 0 ) {
+                for( String id : rule.substring( index + 1 ).split( "\\|" ) ) {
+                    if( id.trim().length() > 0 ) {
+                        ids.add( id.trim() );
+                    }
+                }
+            }
+            if( ids.isEmpty() ) {
+                LOG.warn( "Repository route [" + rule + "] is malformed and will be skipped" );
+                continue;
+            }
+            String prefix = rule.substring( 0, index ).trim();
+            if( routes.containsKey( prefix ) ) {
+                ids.addAll( routes.get( prefix ) );
+            }
+            routes.put( prefix, ids );
+        }
+        return routes;
+    }
+
+    boolean isEmpty() {
+        return m_routes.isEmpty() && m_transporterProvider == null;
+    }
+
+    /**
+     * Returns the repositories able to host the artifacts of the given groupId and artifactId.
+     */
+    List<RemoteRepository> filter( RepositorySystemSession session, String groupId, String artifactId,
+                                   List<RemoteRepository> repos ) {
+        if( repos.isEmpty() || isEmpty() ) {
+            return repos;
+        }
+        Set<String> route = getRoute( groupId );
+        String path = "/" + groupId.replace( '.', '/' ) + "/" + artifactId;
+        List<RemoteRepository> filtered = new ArrayList<RemoteRepository>( repos.size() );
+        for( RemoteRepository repo : repos ) {
+            boolean routed = route != null ? matches( repo, route ) : !isDedicated( repo );
+            if( routed && hasPrefix( session, repo, path ) ) {
+                filtered.add( repo );
+            }
+        }
+        if( filtered.size() == repos.size() ) {
+            return repos;
+        }
+        LOG.debug( "Routing {}:{} to {} of {} repositories", new Object[] {
+            groupId, artifactId, filtered.size(), repos.size() } );
+        return filtered;
+    }
+
+    /**
+     * Returns the repository ids of the longest prefix matching the groupId, or <code>null</code>.
+     */
+    private Set<String> getRoute( String groupId ) {
+        Set<String> route = null;
+        int length = -1;
+        for( Map.Entry<String, Set<String>> entry : m_routes.entrySet() ) {
+            String prefix = entry.getKey();
+            if( prefix.length() > length && ( groupId.equals( prefix ) || groupId.startsWith( prefix + "." ) ) ) {
+                route = entry.getValue();
+                length = prefix.length();
+            }
+        }
+        return route;
+    }
+
+    /**
+     * Returns <code>true</code> if the repository, or one of the repositories it mirrors, is routed.
+     */
+    private static boolean matches( RemoteRepository repo, Set<String> ids ) {
+        if( ids.contains( repo.getId() ) ) {
+            return true;
+        }
+        for( RemoteRepository mirrored : repo.getMirroredRepositories() ) {
+            if( ids.contains( mirrored.getId() ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns <code>true</code> if the repository, or all the repositories it mirrors, are named by the rules.
+     */
+    private boolean isDedicated( RemoteRepository repo ) {
+        if( m_routedIds.contains( repo.getId() ) ) {
+            return true;
+        }
+        List<RemoteRepository> mirrored = repo.getMirroredRepositories();
+        if( mirrored.isEmpty() ) {
+            return false;
+        }
+        for( RemoteRepository r : mirrored ) {
+            if( !m_routedIds.contains( r.getId() ) ) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasPrefix( RepositorySystemSession session, RemoteRepository repo, String path ) {
+        if( m_transporterProvider == null ) {
+            return true;
+        }
+        List<String> prefixes = getPrefixes( session, repo );
+        if( prefixes == null ) {
+            return true;
+        }
+        for( String prefix : prefixes ) {
+            if( path.equals( prefix ) || path.startsWith( prefix.endsWith( "/" ) ? prefix : prefix + "/" ) ) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the prefixes of the repository, or <code>null</code> if it does not publish them
+     * or they are not known yet.
+     */
+    private List<String> getPrefixes( RepositorySystemSession session, RemoteRepository repo ) {
+        Prefixes prefixes = m_prefixes.get( repo.getUrl() );
+        if( prefixes == null || prefixes.isExpired() ) {
+            Prefixes loading = new Prefixes();
+            if( prefixes == null ? m_prefixes.putIfAbsent( repo.getUrl(), loading ) == null
+                                 : m_prefixes.replace( repo.getUrl(), prefixes, loading ) ) {
+                loading.load( session, repo );
+                prefixes = loading;
+            }
+            else {
+                // loaded again by another lookup
+                prefixes = m_prefixes.get( repo.getUrl() );
+            }
+        }
+        try {
+            return prefixes.get( m_wait );
+        }
+        catch( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        catch( TimeoutException e ) {
+            // still loading, the repository is queried until its prefixes are known
+            return null;
+        }
+        catch( ExecutionException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Load the prefix file of the repository.
+     *
+     * @return the prefixes, or <code>null</code> if the repository does not publish them
+     * @throws Exception if the prefix file could not be loaded
+     */
+    private static List<String> loadPrefixes( Transporter transporter, RemoteRepository repo ) throws Exception {
+        try {
+            GetTask task = new GetTask( URI.create( PREFIXES_FILE ) );
+            transporter.get( task );
+            List<String> prefixes = parsePrefixes( task.getDataString() );
+            if( prefixes != null ) {
+                LOG.debug( "Loaded {} prefixes of repository {}", prefixes.size(), repo );
+            }
+            return prefixes;
+        }
+        catch( Exception e ) {
+            if( transporter.classify( e ) == Transporter.ERROR_NOT_FOUND ) {
+                return null;
+            }
+            LOG.debug( "Unable to load the prefix file of repository " + repo, e );
+            throw e;
+        }
+        finally {
+            transporter.close();
+        }
+    }
+
+    /**
+     * The prefixes of a repository, loaded in the background.
+     * <p>
+     * A parsed prefix file, or the lack of one, is kept for good, while a failure to load it
+     * expires after the retry interval, so that a repository is not left unrestricted by a
+     * prefix file that was unreachable once.
+     */
+    private class Prefixes {
+
+        private final CompletableFuture<List<String>> m_future = new CompletableFuture<List<String>>();
+        private volatile long m_expiry = Long.MAX_VALUE;
+
+        /**
+         * Load the prefixes in a new thread. The transporter is created beforehand, so that
+         * the session is not used once the caller is done with it.
+         */
+        void load( RepositorySystemSession session, final RemoteRepository repo ) {
+            final Transporter transporter;
+            try {
+                transporter = m_transporterProvider.newTransporter( session, repo );
+            }
+            catch( Exception e ) {
+                LOG.debug( "No prefix file for repository {}: {}", repo, e.getMessage() );
+                m_future.complete( null );
+                return;
+            }
+            Thread thread = new Thread( new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        m_future.complete( loadPrefixes( transporter, repo ) );
+                    }
+                    catch( Exception e ) {
+                        m_expiry = System.currentTimeMillis() + m_retryInterval;
+                        m_future.completeExceptionally( e );
+                    }
+                }
+            }, "pax-url-aether-prefixes" );
+            thread.setDaemon( true );
+            thread.start();
+        }
+
+        List<String> get( long wait ) throws InterruptedException, ExecutionException, TimeoutException {
+            return m_future.get( wait, TimeUnit.MILLISECONDS );
+        }
+
+        boolean isExpired() {
+            return System.currentTimeMillis() >= m_expiry;
+        }
+
+    }
+
+    /**
+     * Parse a prefix file, one path prefix per line, ignoring comments.
+     *
+     * @return the prefixes, or <code>null</code> if the file does not list any or is marked unsupported
+     */
+    static List<String> parsePrefixes( String content ) throws IOException {
+        List<String> prefixes = new ArrayList<String>();
+        BufferedReader reader = new BufferedReader( new StringReader( content ) );
+        String line;
+        while( ( line = reader.readLine() ) != null ) {
+            line = line.trim();
+            if( line.length() == 0 || line.startsWith( "#" ) ) {
+                continue;
+            }
+            if( line.startsWith( "@" ) ) {
+                return null;
+            }
+            if( !line.startsWith( "/" ) ) {
+                line = "/" + line;
+            }
+            while( line.length() > 1 && line.endsWith( "/" ) ) {
+                line = line.substring( 0, line.length() - 1 );
+            }
+            prefixes.add( line );
+        }
+        return prefixes.isEmpty() ? null : Collections.unmodifiableList( prefixes );
+    }
+
+}
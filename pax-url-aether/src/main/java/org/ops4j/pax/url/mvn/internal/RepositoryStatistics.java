@@ -0,0 +1,308 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferResource;
+
+/**
+ * Statistics of the artifact downloads from each remote repository, used to try
+ * first the repositories most likely to have an artifact.
+ * <p>
+ * The statistics are collected as a transfer listener of the sessions: hits, misses
+ * and failures, latency to the start of the transfer and throughput. Repositories
+ * are ordered by their smoothed hit rate, failures counting double, then by a
+ * percentile of their latency, the one hedged requests are sent after; repositories
+ * without statistics keep their configured position relative
+ * to each other. Counters are halved as they grow, so that the order follows the
+ * recent behaviour of the repositories.
+ */
+class RepositoryStatistics extends AbstractTransferListener {
+
+    /**
+     * Number of events of a repository above which its counters are halved.
+     */
+    private static final long MAX_EVENTS = 1000;
+
+    private static final int LATENCY_SAMPLES = 50;
+
+    private final ConcurrentMap<String, Stats> m_stats = new ConcurrentHashMap<String, Stats>();
+    private final AtomicLong m_changes = new AtomicLong();
+    private long m_stored;
+    private volatile int m_percentile;
+
+    /**
+     * @param percentile percentile of the latencies used to order the repositories
+     */
+    RepositoryStatistics( int percentile ) {
+        m_percentile = percentile;
+    }
+
+    void setPercentile( int percentile ) {
+        m_percentile = percentile;
+    }
+
+    @Override
+    public void transferStarted( TransferEvent event ) {
+        if( isArtifactDownload( event ) ) {
+            TransferResource resource = event.getResource();
+            getStats( resource.getRepositoryUrl() ).latencies.record(
+                System.currentTimeMillis() - resource.getTransferStartTime() );
+        }
+    }
+
+    @Override
+    public void transferSucceeded( TransferEvent event ) {
+        if( isArtifactDownload( event ) ) {
+            TransferResource resource = event.getResource();
+            getStats( resource.getRepositoryUrl() ).hit( event.getTransferredBytes(),
+                System.currentTimeMillis() - resource.getTransferStartTime() );
+            m_changes.incrementAndGet();
+        }
+    }
+
+    @Override
+    public void transferFailed( TransferEvent event ) {
+        if( isArtifactDownload( event ) ) {
+            Stats stats = getStats( event.getResource().getRepositoryUrl() );
+            if( event.getException() instanceof ArtifactNotFoundException ) {
+                stats.miss();
+            }
+            else {
+                stats.failure();
+            }
+            m_changes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Returns the given repositories, ordered by decreasing likeliness to have an artifact.
+     */
+    List<RemoteRepository> order( List<RemoteRepository> repos ) {
+        if( repos.size() < 2 || m_stats.isEmpty() ) {
+            return repos;
+        }
+        final Map<RemoteRepository, double[]> scores = new LinkedHashMap<RemoteRepository, double[]>();
+        for( RemoteRepository repo : repos ) {
+            Stats stats = m_stats.get( getKey( repo.getUrl() ) );
+            scores.put( repo, stats != null ? stats.getScore( m_percentile ) : new double[] { 0.5, Long.MAX_VALUE } );
+        }
+        List<RemoteRepository> ordered = new ArrayList<RemoteRepository>( repos );
+        // the sort is stable, keeping the configured order of equally scored repositories
+        Collections.sort( ordered, new Comparator<RemoteRepository>() {
+            @Override
+            public int compare( RemoteRepository r1, RemoteRepository r2 ) {
+                double[] s1 = scores.get( r1 );
+                double[] s2 = scores.get( r2 );
+                int c = Double.compare( s2[0], s1[0] );
+                return c != 0 ? c : Double.compare( s1[1], s2[1] );
+            }
+        } );
+        return ordered.equals( repos ) ? repos : Collections.unmodifiableList( ordered );
+    }
+
+    /**
+     * Returns the statistics of each repository url: hits, misses, failures,
+     * latency percentile in ms and throughput in bytes per second.
+     */
+    Map<String, Map<String, Long>> getStatistics() {
+        Map<String, Map<String, Long>> statistics = new LinkedHashMap<String, Map<String, Long>>();
+        for( Map.Entry<String, Stats> entry : m_stats.entrySet() ) {
+            statistics.put( entry.getKey(), entry.getValue().toMap( m_percentile ) );
+        }
+        return statistics;
+    }
+
+    /**
+     * Load the statistics stored in the given file, if it exists.
+     */
+    void load( File file ) throws IOException {
+        if( !file.isFile() ) {
+            return;
+        }
+        Properties properties = new Properties();
+        InputStream is = new FileInputStream( file );
+        try {
+            properties.load( is );
+        }
+        finally {
+            is.close();
+        }
+        for( String name : properties.stringPropertyNames() ) {
+            if( !name.endsWith( ".hits" ) ) {
+                continue;
+            }
+            String url = name.substring( 0, name.length() - ".hits".length() );
+            try {
+                Stats stats = getStats( url );
+                stats.load( Long.parseLong( properties.getProperty( url + ".hits", "0" ) ),
+                            Long.parseLong( properties.getProperty( url + ".misses", "0" ) ),
+                            Long.parseLong( properties.getProperty( url + ".failures", "0" ) ),
+                            Long.parseLong( properties.getProperty( url + ".latency", "-1" ) ),
+                            Long.parseLong( properties.getProperty( url + ".bytes", "0" ) ),
+                            Long.parseLong( properties.getProperty( url + ".millis", "0" ) ) );
+            }
+            catch( NumberFormatException e ) {
+                m_stats.remove( url );
+            }
+        }
+    }
+
+    /**
+     * Store the statistics into the given file, if they changed since they were last stored.
+     */
+    synchronized void store( File file ) throws IOException {
+        // the changes made while storing are stored the next time
+        long changes = m_changes.get();
+        if( changes == m_stored ) {
+            return;
+        }
+        Properties properties = new Properties();
+        for( Map.Entry<String, Map<String, Long>> entry : getStatistics().entrySet() ) {
+            Map<String, Long> stats = entry.getValue();
+            for( String name : new String[] { "hits", "misses", "failures", "latency", "bytes", "millis" } ) {
+                properties.setProperty( entry.getKey() + "." + name, String.valueOf( stats.get( name ) ) );
+            }
+        }
+        file.getParentFile().mkdirs();
+        File tmp = new File( file.getPath() + ".tmp" );
+        OutputStream os = new FileOutputStream( tmp );
+        try {
+            properties.store( os, "Remote repositories statistics" );
+        }
+        finally {
+            os.close();
+        }
+        Files.move( tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING );
+        m_stored = changes;
+    }
+
+    private Stats getStats( String url ) {
+        String key = getKey( url );
+        Stats stats = m_stats.get( key );
+        if( stats == null ) {
+            m_stats.putIfAbsent( key, new Stats() );
+            stats = m_stats.get( key );
+        }
+        return stats;
+    }
+
+    private static String getKey( String url ) {
+        return url.endsWith( "/" ) ? url.substring( 0, url.length() - 1 ) : url;
+    }
+
+    /**
+     * Returns <code>true</code> if the event is about downloading an artifact, rather
+     * than its checksums or metadata.
+     */
+    private static boolean isArtifactDownload( TransferEvent event ) {
+        if( event.getRequestType() != TransferEvent.RequestType.GET ) {
+            return false;
+        }
+        String name = event.getResource().getResourceName();
+        return !name.endsWith( ".sha1" ) && !name.endsWith( ".md5" ) && !name.endsWith( ".asc" )
+            && !name.contains( "maven-metadata" );
+    }
+
+    private static class Stats {
+        final LatencyTracker latencies = new LatencyTracker( LATENCY_SAMPLES );
+        private long hits;
+        private long misses;
+        private long failures;
+        private long bytes;
+        private long millis;
+
+        synchronized void hit( long transferred, long elapsed ) {
+            hits++;
+            bytes += transferred;
+            millis += Math.max( 0, elapsed );
+            decay();
+        }
+
+        synchronized void miss() {
+            misses++;
+            decay();
+        }
+
+        synchronized void failure() {
+            failures++;
+            decay();
+        }
+
+        synchronized void load( long hits, long misses, long failures, long latency, long bytes, long millis ) {
+            this.hits += hits;
+            this.misses += misses;
+            this.failures += failures;
+            this.bytes += bytes;
+            this.millis += millis;
+            if( latency >= 0 ) {
+                latencies.record( latency );
+            }
+        }
+
+        /**
+         * Returns the smoothed hit rate and the given percentile of the latencies.
+         */
+        synchronized double[] getScore( int percentile ) {
+            double rate = ( hits + 1.0 ) / ( hits + misses + 2.0 * failures + 2.0 );
+            return new double[] { rate, latencies.getPercentile( percentile, 1, Long.MAX_VALUE ) };
+        }
+
+        synchronized Map<String, Long> toMap( int percentile ) {
+            Map<String, Long> map = new LinkedHashMap<String, Long>();
+            map.put( "hits", hits );
+            map.put( "misses", misses );
+            map.put( "failures", failures );
+            map.put( "latency", latencies.getPercentile( percentile, 1, -1 ) );
+            map.put( "throughput", millis > 0 ? bytes * 1000 / millis : 0 );
+            map.put( "bytes", bytes );
+            map.put( "millis", millis );
+            return map;
+        }
+
+        private void decay() {
+            if( hits + misses + failures > MAX_EVENTS ) {
+                hits /= 2;
+                misses /= 2;
+                failures /= 2;
+                bytes /= 2;
+                millis /= 2;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.util.ChecksumUtils;
+
+/**
+ * Lock file of the resolved artifacts: the file, resolved version, size, last modification
+ * time and SHA-1 checksum of each requested artifact, keyed by its coordinates and repository.
+ * <p>
+ * A locked artifact is returned as long as the size and last modification time of its file
+ * are unchanged, without going through the repositories. The lock file is a tab separated text
+ * file, one artifact per line, sorted by key and replaced atomically when stored.
+ */
+class ResolutionLock {
+
+    private static final String HEADER = "# pax-url-aether resolution lock 1";
+
+    private final File m_file;
+    private final ConcurrentMap<String, Entry> m_entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong m_changes = new AtomicLong();
+    private long m_stored;
+
+    /**
+     * @param file the lock file
+     */
+    ResolutionLock( File file ) {
+        m_file = file;
+    }
+
+    File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Returns the locked file of the given key, or <code>null</code> if it is not locked or its
+     * file changed, in which case it is removed from the lock.
+     */
+    File get( String key ) {
+        Entry entry = m_entries.get( key );
+        if( entry == null ) {
+            return null;
+        }
+        if( entry.file.length() != entry.size || entry.file.lastModified() != entry.lastModified ) {
+            if( m_entries.remove( key, entry ) ) {
+                m_changes.incrementAndGet();
+            }
+            return null;
+        }
+        return entry.file;
+    }
+
+    /**
+     * Lock the file resolved for the given key and artifact, unless it is already locked.
+     */
+    void record( String key, Artifact artifact, File file ) throws IOException {
+        Entry entry = m_entries.get( key );
+        if( entry != null && entry.file.equals( file ) && entry.size == file.length()
+            && entry.lastModified == file.lastModified() ) {
+            return;
+        }
+        if( isInvalid( key ) || isInvalid( file.getPath() ) ) {
+            return;
+        }
+        long size = file.length();
+        long lastModified = file.lastModified();
+        Object sha1 = ChecksumUtils.calc( file, Collections.singleton( "SHA-1" ) ).get( "SHA-1" );
+        if( !( sha1 instanceof String ) ) {
+            throw new IOException( "Unable to compute the checksum of " + file, (Throwable) sha1 );
+        }
+        m_entries.put( key, new Entry( file, getResolvedVersion( artifact, file ), size, lastModified,
+            (String) sha1 ) );
+        m_changes.incrementAndGet();
+    }
+
+    /**
+     * Remove the given key from the lock, so that it is resolved again.
+     */
+    void remove( String key ) {
+        if( m_entries.remove( key ) != null ) {
+            m_changes.incrementAndGet();
+        }
+    }
+
+    /**
+     * Remove all the locked artifacts.
+     */
+    void clear() {
+        if( !m_entries.isEmpty() ) {
+            m_entries.clear();
+            m_changes.incrementAndGet();
+        }
+    }
+
+    int size() {
+        return m_entries.size();
+    }
+
+    /**
+     * Load the lock file, if it exists. Malformed lines are skipped.
+     */
+    void load() throws IOException {
+        if( !m_file.isFile() ) {
+            return;
+        }
+        BufferedReader reader = new BufferedReader( new InputStreamReader( new FileInputStream( m_file ), "UTF-8" ) );
+        try {
+            String line;
+            while( ( line = reader.readLine() ) != null ) {
+                if( line.length() == 0 || line.startsWith( "#" ) ) {
+                    continue;
+                }
+                String[] fields = line.split( "\t" );
+                if( fields.length != 6 ) {
+                    continue;
+                }
+                try {
+                    m_entries.put( fields[0], new Entry( new File( fields[2] ), fields[1],
+                        Long.parseLong( fields[3] ), Long.parseLong( fields[4] ), fields[5] ) );
+                }
+                catch( NumberFormatException e ) {
+                    // skipped
+                }
+            }
+        }
+        finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Store the lock file, if the locked artifacts changed since it was last stored.
+     */
+    synchronized void store() throws IOException {
+        // the changes made while storing are stored the next time
+        long changes = m_changes.get();
+        if( changes == m_stored ) {
+            return;
+        }
+        Map<String, Entry> entries = new TreeMap<String, Entry>( m_entries );
+        File parent = m_file.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmp = File.createTempFile( m_file.getName(), ".tmp", parent );
+        try {
+            Writer writer = new BufferedWriter( new OutputStreamWriter( new FileOutputStream( tmp ), "UTF-8" ) );
+            try {
+                writer.write( HEADER );
+                writer.write( '\n' );
+                for( Map.Entry<String, Entry> entry : entries.entrySet() ) {
+                    Entry e = entry.getValue();
+                    writer.write( entry.getKey() + "\t" + e.version + "\t" + e.file.getPath() + "\t" + e.size
+                        + "\t" + e.lastModified + "\t" + e.sha1 + "\n" );
+                }
+            }
+            finally {
+                writer.close();
+            }
+            Files.move( tmp.toPath(), m_file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING );
+        }
+        finally {
+            tmp.delete();
+        }
+        m_stored = changes;
+    }
+
+    private static boolean isInvalid( String field ) {
+        return field.indexOf( '\t' ) >= 0 || field.indexOf( '\n' ) >= 0 || field.indexOf( '\r' ) >= 0;
+    }
+
+    /**
+     * Returns the version the artifact was resolved to, as named by its file in a maven layout,
+     * or the requested version.
+     */
+    static String getResolvedVersion( Artifact artifact, File file ) {
+        String name = file.getName();
+        String prefix = artifact.getArtifactId() + "-";
+        String suffix = ( artifact.getClassifier().length() > 0 ? "-" + artifact.getClassifier() : "" )
+            + "." + artifact.getExtension();
+        if( name.startsWith( prefix ) && name.endsWith( suffix ) && name.length() > prefix.length() + suffix.length() ) {
+            return name.substring( prefix.length(), name.length() - suffix.length() );
+        }
+        return artifact.getVersion();
+    }
+
+    private static class Entry {
+        final File file;
+        final String version;
+        final long size;
+        final long lastModified;
+        final String sha1;
+
+        Entry( File file, String version, long size, long lastModified, String sha1 ) {
+            this.file = file;
+            this.version = version;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.sha1 = sha1;
+        }
+    }
+
+}
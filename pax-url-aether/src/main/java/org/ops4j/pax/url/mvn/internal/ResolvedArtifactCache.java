@@ -0,0 +1,148 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.ops4j.pax.url.mvn.internal.Parser.VERSION_LATEST;
+import static org.ops4j.pax.url.mvn.internal.Parser.isVersionRange;
+
+import java.io.File;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded, least recently used cache of resolved artifact files.
+ * <p>
+ * Entries are revalidated on each access against the size and last modification
+ * time of the file, so that a deleted or replaced file is resolved again.
+ * Release versions are kept until evicted, while SNAPSHOT versions and LATEST or
+ * version ranges expire after their configured time to live.
+ */
+class ResolvedArtifactCache {
+
+    private static final String SNAPSHOT = "SNAPSHOT";
+
+    private final int m_maxSize;
+    private final long m_snapshotTtl;
+    private final long m_latestTtl;
+    private final Map<String, Entry> m_entries;
+
+    /**
+     * @param maxSize maximum number of entries; zero disables the cache
+     * @param snapshotTtl time to live in ms of SNAPSHOT entries; zero disables their caching
+     * @param latestTtl time to live in ms of LATEST and version range entries; zero disables their caching
+     */
+    ResolvedArtifactCache( final int maxSize, long snapshotTtl, long latestTtl ) {
+        m_maxSize = maxSize;
+        m_snapshotTtl = snapshotTtl;
+        m_latestTtl = latestTtl;
+        m_entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest ) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the cached file for the given key, or <code>null</code> if there is
+     * no valid entry.
+     */
+    File get( String key ) {
+        Entry entry;
+        synchronized( m_entries ) {
+            entry = m_entries.get( key );
+        }
+        if( entry == null ) {
+            return null;
+        }
+        if( entry.expires < System.currentTimeMillis()
+                || entry.file.length() != entry.size
+                || entry.file.lastModified() != entry.lastModified ) {
+            synchronized( m_entries ) {
+                if( m_entries.get( key ) == entry ) {
+                    m_entries.remove( key );
+                }
+            }
+            return null;
+        }
+        return entry.file;
+    }
+
+    /**
+     * Cache the file resolved for the given key.
+     *
+     * @param version the requested version, used to select the time to live
+     */
+    void put( String key, String version, File file ) {
+        long ttl = getTimeToLive( version );
+        if( m_maxSize <= 0 || ttl <= 0 || file == null ) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expires = ttl == Long.MAX_VALUE ? Long.MAX_VALUE : now + ttl;
+        Entry entry = new Entry( file, file.length(), file.lastModified(), expires );
+        synchronized( m_entries ) {
+            m_entries.put( key, entry );
+        }
+    }
+
+    /**
+     * Remove the entry for the given key.
+     */
+    void invalidate( String key ) {
+        synchronized( m_entries ) {
+            m_entries.remove( key );
+        }
+    }
+
+    /**
+     * Remove all entries.
+     */
+    void clear() {
+        synchronized( m_entries ) {
+            m_entries.clear();
+        }
+    }
+
+    int size() {
+        synchronized( m_entries ) {
+            return m_entries.size();
+        }
+    }
+
+    private long getTimeToLive( String version ) {
+        if( isVersionRange( version ) || VERSION_LATEST.equals( version ) ) {
+            return m_latestTtl;
+        }
+        if( version.endsWith( SNAPSHOT ) ) {
+            return m_snapshotTtl;
+        }
+        return Long.MAX_VALUE;
+    }
+
+    private static class Entry {
+        final File file;
+        final long size;
+        final long lastModified;
+        final long expires;
+
+        Entry( File file, long size, long lastModified, long expires ) {
+            this.file = file;
+            this.size = size;
+            this.lastModified = lastModified;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -0,0 +1,241 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+
+/**
+ * A pool of repository system sessions, per local repository.
+ * <p>
+ * Borrowing never blocks: a new session is created when none is idle, so the
+ * pool bounds the idle sessions rather than the borrowed ones. At most
+ * <code>maxIdle</code> sessions are kept idle per local repository, and sessions
+ * idle for longer than <code>idleTimeout</code> are evicted. The most recently
+ * released sessions are borrowed first, so that the least used ones expire.
+ */
+class SessionPool {
+
+    /**
+     * Creates the sessions of the pool.
+     */
+    interface SessionFactory {
+        RepositorySystemSession createSession( LocalRepository repo );
+    }
+
+    private final SessionFactory m_factory;
+    private final int m_maxIdle;
+    private final long m_idleTimeout;
+    private final ConcurrentMap<LocalRepository, Deque<IdleSession>> m_idle
+            = new ConcurrentHashMap<LocalRepository, Deque<IdleSession>>();
+
+    private final AtomicLong m_borrowed = new AtomicLong();
+    private final AtomicLong m_created = new AtomicLong();
+    private final AtomicLong m_evicted = new AtomicLong();
+    private final AtomicLong m_discarded = new AtomicLong();
+    private final AtomicLong m_createNanos = new AtomicLong();
+
+    /**
+     * @param factory creates the sessions
+     * @param maxIdle maximum number of idle sessions per local repository
+     * @param idleTimeout time in ms after which an idle session is evicted; zero or lower never evicts
+     */
+    SessionPool( SessionFactory factory, int maxIdle, long idleTimeout ) {
+        m_factory = factory;
+        m_maxIdle = maxIdle;
+        m_idleTimeout = idleTimeout;
+    }
+
+    /**
+     * Borrow a session for the given local repository, creating it if none is idle.
+     */
+    RepositorySystemSession borrow( LocalRepository repo ) {
+        m_borrowed.incrementAndGet();
+        RepositorySystemSession session = null;
+        Deque<IdleSession> deque = m_idle.get( repo );
+        if( deque != null ) {
+            synchronized( deque ) {
+                evict( deque, System.currentTimeMillis() );
+                IdleSession idle = deque.pollFirst();
+                if( idle != null ) {
+                    session = idle.session;
+                }
+            }
+        }
+        if( session == null ) {
+            session = create( repo );
+        }
+        return session;
+    }
+
+    /**
+     * Give a borrowed session back to the pool.
+     */
+    void release( RepositorySystemSession session ) {
+        Deque<IdleSession> deque = getDeque( session.getLocalRepository() );
+        long now = System.currentTimeMillis();
+        synchronized( deque ) {
+            evict( deque, now );
+            if( deque.size() >= m_maxIdle ) {
+                m_discarded.incrementAndGet();
+                return;
+            }
+            deque.addFirst( new IdleSession( session, now ) );
+        }
+    }
+
+    /**
+     * Create idle sessions for the given local repository, up to the given count.
+     */
+    void prewarm( LocalRepository repo, int count ) {
+        Deque<IdleSession> deque = getDeque( repo );
+        while( true ) {
+            synchronized( deque ) {
+                if( deque.size() >= Math.min( count, m_maxIdle ) ) {
+                    return;
+                }
+            }
+            RepositorySystemSession session = create( repo );
+            synchronized( deque ) {
+                deque.addLast( new IdleSession( session, System.currentTimeMillis() ) );
+            }
+        }
+    }
+
+    /**
+     * Take over the idle sessions of another pool, which are removed from it.
+     */
+    void adopt( SessionPool other ) {
+        long now = System.currentTimeMillis();
+        for( Map.Entry<LocalRepository, Deque<IdleSession>> entry : other.m_idle.entrySet() ) {
+            List<IdleSession> sessions;
+            synchronized( entry.getValue() ) {
+                sessions = new ArrayList<IdleSession>( entry.getValue() );
+                entry.getValue().clear();
+            }
+            Deque<IdleSession> deque = getDeque( entry.getKey() );
+            synchronized( deque ) {
+                for( IdleSession idle : sessions ) {
+                    if( deque.size() >= m_maxIdle ) {
+                        break;
+                    }
+                    deque.addLast( idle );
+                }
+                evict( deque, now );
+            }
+        }
+    }
+
+    /**
+     * Evict the sessions idle for too long, for all local repositories.
+     */
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        for( Deque<IdleSession> deque : m_idle.values() ) {
+            synchronized( deque ) {
+                evict( deque, now );
+            }
+        }
+    }
+
+    /**
+     * Discard all the idle sessions.
+     */
+    void clear() {
+        for( Deque<IdleSession> deque : m_idle.values() ) {
+            synchronized( deque ) {
+                deque.clear();
+            }
+        }
+    }
+
+    int getIdleCount() {
+        int count = 0;
+        for( Deque<IdleSession> deque : m_idle.values() ) {
+            synchronized( deque ) {
+                count += deque.size();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the counters of the pool: borrowed, created, evicted and discarded
+     * sessions, the total time spent creating sessions in ns, and the current number of idle sessions.
+     */
+    Map<String, Long> getStatistics() {
+        Map<String, Long> statistics = new LinkedHashMap<String, Long>();
+        statistics.put( "borrowed", m_borrowed.get() );
+        statistics.put( "created", m_created.get() );
+        statistics.put( "evicted", m_evicted.get() );
+        statistics.put( "discarded", m_discarded.get() );
+        statistics.put( "createNanos", m_createNanos.get() );
+        statistics.put( "idle", (long) getIdleCount() );
+        return statistics;
+    }
+
+    private RepositorySystemSession create( LocalRepository repo ) {
+        m_created.incrementAndGet();
+        long start = System.nanoTime();
+        try {
+            return m_factory.createSession( repo );
+        } finally {
+            m_createNanos.addAndGet( System.nanoTime() - start );
+        }
+    }
+
+    private Deque<IdleSession> getDeque( LocalRepository repo ) {
+        Deque<IdleSession> deque = m_idle.get( repo );
+        if( deque == null ) {
+            m_idle.putIfAbsent( repo, new ArrayDeque<IdleSession>() );
+            deque = m_idle.get( repo );
+        }
+        return deque;
+    }
+
+    /**
+     * Remove the sessions idle for too long, which are at the end of the deque.
+     */
+    private void evict( Deque<IdleSession> deque, long now ) {
+        if( m_idleTimeout <= 0 ) {
+            return;
+        }
+        IdleSession last;
+        while( ( last = deque.peekLast() ) != null && now - last.since > m_idleTimeout ) {
+            deque.pollLast();
+            m_evicted.incrementAndGet();
+        }
+    }
+
+    private static class IdleSession {
+        final RepositorySystemSession session;
+        final long since;
+
+        IdleSession( RepositorySystemSession session, long since ) {
+            this.session = session;
+            this.since = since;
+        }
+    }
+
+}
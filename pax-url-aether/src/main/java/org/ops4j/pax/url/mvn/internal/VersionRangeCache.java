@@ -0,0 +1,116 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * A bounded, least recently used cache of the highest versions matching LATEST
+ * or a version range.
+ * <p>
+ * Expired entries are still returned, so that a stale version can be served
+ * while it is refreshed in the background: callers check {@link Entry#isExpired()}
+ * and use {@link Entry#startRefresh()} to make sure a single refresh runs at a time.
+ */
+class VersionRangeCache {
+
+    private final Map<String, Entry> m_entries;
+
+    /**
+     * @param maxSize maximum number of entries
+     */
+    VersionRangeCache( final int maxSize ) {
+        m_entries = new LinkedHashMap<String, Entry>( 16, 0.75f, true ) {
+            @Override
+            protected boolean removeEldestEntry( Map.Entry<String, Entry> eldest ) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    /**
+     * Returns the entry for the given key, expired or not, or <code>null</code> if there is none.
+     */
+    Entry get( String key ) {
+        synchronized( m_entries ) {
+            return m_entries.get( key );
+        }
+    }
+
+    /**
+     * Cache the version resolved for the given key.
+     *
+     * @param ttl time to live in ms of the entry; zero or lower does not cache it
+     */
+    void put( String key, String version, long ttl ) {
+        if( ttl <= 0 ) {
+            invalidate( key );
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expires = ttl > Long.MAX_VALUE - now ? Long.MAX_VALUE : now + ttl;
+        synchronized( m_entries ) {
+            m_entries.put( key, new Entry( version, expires ) );
+        }
+    }
+
+    void invalidate( String key ) {
+        synchronized( m_entries ) {
+            m_entries.remove( key );
+        }
+    }
+
+    void clear() {
+        synchronized( m_entries ) {
+            m_entries.clear();
+        }
+    }
+
+    static class Entry {
+        private final String version;
+        private final long expires;
+        private final AtomicBoolean refreshing = new AtomicBoolean();
+
+        Entry( String version, long expires ) {
+            this.version = version;
+            this.expires = expires;
+        }
+
+        String getVersion() {
+            return version;
+        }
+
+        boolean isExpired() {
+            return expires < System.currentTimeMillis();
+        }
+
+        /**
+         * Returns <code>true</code> if the caller has to refresh this entry, that is
+         * if no other refresh has been started.
+         */
+        boolean startRefresh() {
+            return refreshing.compareAndSet( false, true );
+        }
+
+        /**
+         * Allow another refresh to be started, after a failed one.
+         */
+        void refreshFailed() {
+            refreshing.set( false );
+        }
+    }
+
+}
@@ -0,0 +1,405 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.archive;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.ops4j.pax.url.mvn.internal.MetadataFiles;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A read-only maven repository packed into a single file, which is memory mapped.
+ * <p>
+ * The file starts with a header, followed by the index of the entries, sorted by path
+ * so that artifacts are looked up with a binary search, then by the entries themselves,
+ * stored uncompressed. All numbers are big endian:
+ * <pre>
+ * header:  magic (4 bytes), version (int), entry count (int), length of the names (int)
+ * index:   for each entry, offset and length of its path in the names (ints),
+ *          offset and length of its content in the file (longs)
+ * names:   the utf-8 paths of the entries, relative to the repository root
+ * content: the entries, each one within a single mapped segment
+ * </pre>
+ */
+public class PackedRepository {
+
+    private static final Logger LOG = LoggerFactory.getLogger( PackedRepository.class );
+
+    /**
+     * Extension of the packed repositories.
+     */
+    public static final String EXTENSION = ".pack";
+
+    private static final int MAGIC = 0x50585250; // PXRP
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int ENTRY_SIZE = 24;
+
+    private static final String METADATA = "maven-metadata.xml";
+    private static final String METADATA_PREFIX = "maven-metadata-";
+    private static final String METADATA_SUFFIX = ".xml";
+
+    /**
+     * Size of the mapped segments of the file, entries never span two segments.
+     */
+    static final long SEGMENT_SIZE = 1L << 30;
+
+    private static final Comparator<byte[]> ORDER = new Comparator<byte[]>() {
+        @Override
+        public int compare( byte[] b1, byte[] b2 ) {
+            int length = Math.min( b1.length, b2.length );
+            for( int i = 0; i < length; i++ ) {
+                int c = ( b1[i] & 0xff ) - ( b2[i] & 0xff );
+                if( c != 0 ) {
+                    return c;
+                }
+            }
+            return b1.length - b2.length;
+        }
+    };
+
+    private final File m_file;
+    private final long m_length;
+    private final long m_lastModified;
+    private final MappedByteBuffer[] m_segments;
+    private final int m_count;
+    private final int m_namesOffset;
+
+    private PackedRepository( File file, MappedByteBuffer[] segments, int count, int namesOffset ) {
+        m_file = file;
+        m_length = file.length();
+        m_lastModified = file.lastModified();
+        m_segments = segments;
+        m_count = count;
+        m_namesOffset = namesOffset;
+    }
+
+    /**
+     * Map a packed repository. The file is not kept open, its mapping being released
+     * once the repository is garbage collected.
+     */
+    public static PackedRepository open( File file ) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            MappedByteBuffer[] segments = new MappedByteBuffer[(int) ( ( size + SEGMENT_SIZE - 1 ) / SEGMENT_SIZE )];
+            for( int i = 0; i < segments.length; i++ ) {
+                long position = i * SEGMENT_SIZE;
+                segments[i] = channel.map( FileChannel.MapMode.READ_ONLY, position,
+                                           Math.min( SEGMENT_SIZE, size - position ) );
+                segments[i].order( ByteOrder.BIG_ENDIAN );
+            }
+            if( segments.length == 0 || segments[0].limit() < HEADER_SIZE || segments[0].getInt( 0 ) != MAGIC ) {
+                throw new IOException( file + " is not a packed repository" );
+            }
+            if( segments[0].getInt( 4 ) != VERSION ) {
+                throw new IOException( "Unsupported version " + segments[0].getInt( 4 ) + " of packed repository " + file );
+            }
+            int count = segments[0].getInt( 8 );
+            int namesLength = segments[0].getInt( 12 );
+            long namesOffset = HEADER_SIZE + (long) count * ENTRY_SIZE;
+            if( count < 0 || namesLength < 0 || namesOffset + namesLength > segments[0].limit() ) {
+                throw new IOException( "Corrupted index of packed repository " + file );
+            }
+            return new PackedRepository( file, segments, count, (int) namesOffset );
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    public File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Returns <code>true</code> if the file changed since it was mapped.
+     */
+    public boolean isStale() {
+        return m_file.length() != m_length || m_file.lastModified() != m_lastModified;
+    }
+
+    public int size() {
+        return m_count;
+    }
+
+    /**
+     * Returns the content of the entry of the given path, or <code>null</code> if there is none.
+     */
+    public ByteBuffer get( String path ) throws IOException {
+        if( path.startsWith( "/" ) ) {
+            path = path.substring( 1 );
+        }
+        byte[] name = path.getBytes( "UTF-8" );
+        ByteBuffer index = m_segments[0];
+        int low = 0;
+        int high = m_count - 1;
+        while( low <= high ) {
+            int mid = ( low + high ) >>> 1;
+            int c = compare( index, HEADER_SIZE + mid * ENTRY_SIZE, name );
+            if( c < 0 ) {
+                low = mid + 1;
+            }
+            else if( c > 0 ) {
+                high = mid - 1;
+            }
+            else {
+                return getContent( index, HEADER_SIZE + mid * ENTRY_SIZE );
+            }
+        }
+        return null;
+    }
+
+    private int compare( ByteBuffer index, int entry, byte[] name ) {
+        int offset = m_namesOffset + index.getInt( entry );
+        int length = index.getInt( entry + 4 );
+        int min = Math.min( length, name.length );
+        for( int i = 0; i < min; i++ ) {
+            int c = ( index.get( offset + i ) & 0xff ) - ( name[i] & 0xff );
+            if( c != 0 ) {
+                return c;
+            }
+        }
+        return length - name.length;
+    }
+
+    private ByteBuffer getContent( ByteBuffer index, int entry ) throws IOException {
+        long offset = index.getLong( entry + 8 );
+        long length = index.getLong( entry + 16 );
+        int segment = (int) ( offset / SEGMENT_SIZE );
+        int position = (int) ( offset % SEGMENT_SIZE );
+        if( length < 0 || segment >= m_segments.length || position + length > m_segments[segment].limit() ) {
+            throw new IOException( "Corrupted entry in packed repository " + m_file );
+        }
+        ByteBuffer content = m_segments[segment].duplicate();
+        content.position( position );
+        content.limit( position + (int) length );
+        return content.slice();
+    }
+
+    /**
+     * Returns a stream reading the given content.
+     */
+    public static InputStream newInputStream( final ByteBuffer content ) {
+        return new InputStream() {
+            @Override
+            public int read() {
+                return content.hasRemaining() ? content.get() & 0xff : -1;
+            }
+
+            @Override
+            public int read( byte[] b, int off, int len ) {
+                if( len == 0 ) {
+                    return 0;
+                }
+                if( !content.hasRemaining() ) {
+                    return -1;
+                }
+                int n = Math.min( len, content.remaining() );
+                content.get( b, off, n );
+                return n;
+            }
+
+            @Override
+            public int available() {
+                return content.remaining();
+            }
+        };
+    }
+
+    /**
+     * Pack the files of a repository directory. The bookkeeping files of local repositories,
+     * and hidden files and directories, are skipped. Local repositories only hold the metadata
+     * of each repository, as <code>maven-metadata-&lt;id&gt;.xml</code>, which are merged into
+     * the <code>maven-metadata.xml</code> of their directory when it does not exist.
+     *
+     * @param repository the root directory of the repository
+     * @param archive the packed repository to create, replaced if it exists
+     * @return the number of packed files
+     */
+    public static int pack( File repository, File archive ) throws IOException {
+        if( !repository.isDirectory() ) {
+            throw new IOException( repository + " is not a directory" );
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        collect( repository, "", entries );
+        Collections.sort( entries, new Comparator<Entry>() {
+            @Override
+            public int compare( Entry e1, Entry e2 ) {
+                return ORDER.compare( e1.name, e2.name );
+            }
+        } );
+        int namesLength = 0;
+        for( Entry entry : entries ) {
+            namesLength += entry.name.length;
+        }
+        long offset = align( HEADER_SIZE + (long) entries.size() * ENTRY_SIZE + namesLength );
+        if( offset > SEGMENT_SIZE ) {
+            throw new IOException( "Too many files to pack in " + repository );
+        }
+        for( Entry entry : entries ) {
+            long length = entry.data != null ? entry.data.length : entry.file.length();
+            if( length > SEGMENT_SIZE ) {
+                throw new IOException( "Unable to pack " + entry.file + ", larger than " + SEGMENT_SIZE + " bytes" );
+            }
+            if( offset / SEGMENT_SIZE != ( offset + length - 1 ) / SEGMENT_SIZE ) {
+                offset = ( offset / SEGMENT_SIZE + 1 ) * SEGMENT_SIZE;
+            }
+            entry.offset = offset;
+            entry.length = length;
+            offset = align( offset + length );
+        }
+
+        File parent = archive.getAbsoluteFile().getParentFile();
+        parent.mkdirs();
+        File tmp = File.createTempFile( archive.getName(), ".tmp", parent );
+        try {
+            RandomAccessFile raf = new RandomAccessFile( tmp, "rw" );
+            try {
+                // entries are transferred at their offset, which must be within the file
+                raf.setLength( offset );
+                FileChannel channel = raf.getChannel();
+                ByteBuffer index = ByteBuffer.allocate( HEADER_SIZE + entries.size() * ENTRY_SIZE + namesLength );
+                index.putInt( MAGIC ).putInt( VERSION ).putInt( entries.size() ).putInt( namesLength );
+                int nameOffset = 0;
+                for( Entry entry : entries ) {
+                    index.putInt( nameOffset ).putInt( entry.name.length ).putLong( entry.offset ).putLong( entry.length );
+                    nameOffset += entry.name.length;
+                }
+                for( Entry entry : entries ) {
+                    index.put( entry.name );
+                }
+                index.flip();
+                write( channel, index, 0 );
+                for( Entry entry : entries ) {
+                    if( entry.data != null ) {
+                        write( channel, ByteBuffer.wrap( entry.data ), entry.offset );
+                        continue;
+                    }
+                    FileInputStream is = new FileInputStream( entry.file );
+                    try {
+                        FileChannel in = is.getChannel();
+                        long transferred = 0;
+                        while( transferred < entry.length ) {
+                            long n = channel.transferFrom( in, entry.offset + transferred, entry.length - transferred );
+                            if( n <= 0 ) {
+                                throw new IOException( entry.file + " changed while being packed" );
+                            }
+                            transferred += n;
+                        }
+                    }
+                    finally {
+                        is.close();
+                    }
+                }
+                channel.force( true );
+            }
+            finally {
+                raf.close();
+            }
+            if( !tmp.renameTo( archive ) ) {
+                archive.delete();
+                if( !tmp.renameTo( archive ) ) {
+                    throw new IOException( "Unable to create " + archive );
+                }
+            }
+        }
+        finally {
+            tmp.delete();
+        }
+        LOG.info( "Packed {} files of {} into {}", new Object[] { entries.size(), repository, archive } );
+        return entries.size();
+    }
+
+    private static void write( FileChannel channel, ByteBuffer buffer, long position ) throws IOException {
+        while( buffer.hasRemaining() ) {
+            position += channel.write( buffer, position );
+        }
+    }
+
+    private static long align( long offset ) {
+        return ( offset + 7 ) & ~7L;
+    }
+
+    private static void collect( File dir, String prefix, List<Entry> entries ) throws IOException {
+        File[] files = dir.listFiles();
+        if( files == null ) {
+            return;
+        }
+        List<File> metadata = new ArrayList<File>();
+        boolean merged = false;
+        for( File file : files ) {
+            String name = file.getName();
+            if( name.startsWith( "." ) ) {
+                continue;
+            }
+            if( file.isDirectory() ) {
+                collect( file, prefix + name + "/", entries );
+            }
+            else if( file.isFile() && !isBookkeeping( name ) ) {
+                entries.add( new Entry( file, ( prefix + name ).getBytes( "UTF-8" ), null ) );
+                if( METADATA.equals( name ) ) {
+                    merged = true;
+                }
+                else if( name.startsWith( METADATA_PREFIX ) && name.endsWith( METADATA_SUFFIX ) ) {
+                    metadata.add( file );
+                }
+            }
+        }
+        if( !merged && !metadata.isEmpty() ) {
+            byte[] data = MetadataFiles.merge( metadata );
+            if( data != null ) {
+                entries.add( new Entry( null, ( prefix + METADATA ).getBytes( "UTF-8" ), data ) );
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> for the files written by aether in local repositories.
+     */
+    private static boolean isBookkeeping( String name ) {
+        return name.equals( "_remote.repositories" ) || name.equals( "_maven.repositories" )
+            || name.equals( "resolver-status.properties" ) || name.endsWith( ".lastUpdated" )
+            || name.endsWith( ".part" ) || name.endsWith( ".lock" );
+    }
+
+    private static class Entry {
+        final File file;
+        final byte[] name;
+        final byte[] data;
+        long offset;
+        long length;
+
+        Entry( File file, byte[] name, byte[] data ) {
+            this.file = file;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+}
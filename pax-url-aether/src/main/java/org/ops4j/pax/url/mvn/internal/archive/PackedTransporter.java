@@ -0,0 +1,81 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.archive;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.eclipse.aether.spi.connector.transport.AbstractTransporter;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.PeekTask;
+import org.eclipse.aether.spi.connector.transport.PutTask;
+import org.eclipse.aether.spi.connector.transport.TransportTask;
+
+/**
+ * A read-only transporter serving the entries of a packed repository from its mapping.
+ */
+class PackedTransporter extends AbstractTransporter {
+
+    private final PackedRepository repository;
+
+    PackedTransporter( PackedRepository repository ) {
+        this.repository = repository;
+    }
+
+    @Override
+    public int classify( Throwable error ) {
+        if( error instanceof FileNotFoundException ) {
+            return ERROR_NOT_FOUND;
+        }
+        return ERROR_OTHER;
+    }
+
+    @Override
+    protected void implPeek( PeekTask task ) throws Exception {
+        getContent( task );
+    }
+
+    @Override
+    protected void implGet( GetTask task ) throws Exception {
+        ByteBuffer content = getContent( task );
+        long length = content.remaining();
+        if( task.getResumeOffset() > 0 && task.getResumeOffset() < length ) {
+            content.position( (int) task.getResumeOffset() );
+            utilGet( task, PackedRepository.newInputStream( content ), true, length, true );
+        }
+        else {
+            utilGet( task, PackedRepository.newInputStream( content ), true, length, false );
+        }
+    }
+
+    @Override
+    protected void implPut( PutTask task ) throws Exception {
+        throw new IOException( "Packed repository " + repository.getFile() + " is read-only" );
+    }
+
+    @Override
+    protected void implClose() {
+    }
+
+    private ByteBuffer getContent( TransportTask task ) throws IOException {
+        ByteBuffer content = repository.get( task.getLocation().getPath() );
+        if( content == null ) {
+            throw new FileNotFoundException( "Could not find " + task.getLocation() + " in "
+                + repository.getFile() );
+        }
+        return content;
+    }
+
+}
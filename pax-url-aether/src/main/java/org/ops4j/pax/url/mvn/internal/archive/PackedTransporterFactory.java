@@ -0,0 +1,110 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.archive;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.transfer.NoTransporterException;
+
+/**
+ * A transporter factory for packed repositories, given as <code>file:</code> urls of
+ * <code>.pack</code> files. Each packed repository is mapped once and shared by the
+ * transporters, until the file changes.
+ */
+public class PackedTransporterFactory implements TransporterFactory, Closeable {
+
+    private final ConcurrentMap<File, PackedRepository> repositories = new ConcurrentHashMap<File, PackedRepository>();
+
+    /**
+     * Returns the packed repository file of the given url, or <code>null</code> if it is not a packed repository.
+     */
+    public static File getFile( String url ) {
+        if( url == null || !url.regionMatches( true, 0, "file:", 0, 5 ) ) {
+            return null;
+        }
+        String path = url.endsWith( "/" ) ? url.substring( 0, url.length() - 1 ) : url;
+        if( !path.endsWith( PackedRepository.EXTENSION ) ) {
+            return null;
+        }
+        try {
+            return new File( URI.create( path ) );
+        }
+        catch( IllegalArgumentException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the given repository is a packed repository.
+     */
+    public static boolean isPacked( RemoteRepository repository ) {
+        return getFile( repository.getUrl() ) != null;
+    }
+
+    @Override
+    public Transporter newInstance( RepositorySystemSession session, RemoteRepository repository )
+        throws NoTransporterException {
+        File file = getFile( repository.getUrl() );
+        if( file == null ) {
+            throw new NoTransporterException( repository );
+        }
+        try {
+            return new PackedTransporter( getRepository( file ) );
+        }
+        catch( IOException e ) {
+            throw new NoTransporterException( repository, e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Forget the packed repositories, whose mappings are released once the transporters using them
+     * are garbage collected.
+     */
+    @Override
+    public void close() {
+        repositories.clear();
+    }
+
+    private PackedRepository getRepository( File file ) throws IOException {
+        PackedRepository repository = repositories.get( file );
+        if( repository == null || repository.isStale() ) {
+            synchronized( this ) {
+                repository = repositories.get( file );
+                if( repository == null || repository.isStale() ) {
+                    repository = PackedRepository.open( file );
+                    repositories.put( file, repository );
+                }
+            }
+        }
+        return repository;
+    }
+
+    /**
+     * Higher than the wagon transporter factory, which would read the file as a directory.
+     */
+    @Override
+    public float getPriority() {
+        return 10.0f;
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.archive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A read-only maven repository held in a zip file, such as
+ * <code>jar:file:/opt/repository.zip!/repository</code>.
+ * <p>
+ * The zip file is opened once: its central directory is read into an in-memory index of
+ * the entries, which are then read in place, with random access, without extracting them
+ * nor opening the file again. The file is closed once the last reference to the
+ * repository, taken by its owner and by each transporter using it, is released.
+ */
+class ZipRepository {
+
+    private final File m_file;
+    private final long m_length;
+    private final long m_lastModified;
+    private final ZipFile m_zip;
+    private final AtomicInteger m_references = new AtomicInteger( 1 );
+
+    private ZipRepository( File file, ZipFile zip ) {
+        m_file = file;
+        m_length = file.length();
+        m_lastModified = file.lastModified();
+        m_zip = zip;
+    }
+
+    /**
+     * Open a zip repository, the caller holding a reference to it.
+     */
+    static ZipRepository open( File file ) throws IOException {
+        return new ZipRepository( file, new ZipFile( file ) );
+    }
+
+    /**
+     * Take another reference to the repository, which must not have been closed.
+     */
+    void retain() {
+        m_references.incrementAndGet();
+    }
+
+    /**
+     * Release a reference to the repository, closing its file once none is left.
+     */
+    void release() throws IOException {
+        if( m_references.decrementAndGet() == 0 ) {
+            m_zip.close();
+        }
+    }
+
+    File getFile() {
+        return m_file;
+    }
+
+    /**
+     * Returns <code>true</code> if the file changed since it was opened.
+     */
+    boolean isStale() {
+        return m_file.length() != m_length || m_file.lastModified() != m_lastModified;
+    }
+
+    int size() {
+        return m_zip.size();
+    }
+
+    /**
+     * Returns the entry of the given path, or <code>null</code> if there is none.
+     */
+    ZipEntry getEntry( String path ) {
+        ZipEntry entry = m_zip.getEntry( path );
+        return entry != null && !entry.isDirectory() ? entry : null;
+    }
+
+    /**
+     * Returns a stream reading the content of the given entry.
+     */
+    InputStream getInputStream( ZipEntry entry ) throws IOException {
+        return m_zip.getInputStream( entry );
+    }
+
+}
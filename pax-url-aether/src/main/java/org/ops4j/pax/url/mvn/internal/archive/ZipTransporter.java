@@ -0,0 +1,113 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.archive;
+
+import java.io.EOFException;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.ZipEntry;
+
+import org.eclipse.aether.spi.connector.transport.AbstractTransporter;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.PeekTask;
+import org.eclipse.aether.spi.connector.transport.PutTask;
+import org.eclipse.aether.spi.connector.transport.TransportTask;
+
+/**
+ * A read-only transporter serving the entries of a zip repository under a given directory.
+ */
+class ZipTransporter extends AbstractTransporter {
+
+    private final ZipRepository repository;
+    private final String prefix;
+
+    /**
+     * @param repository the zip repository, whose reference is released when the transporter is closed
+     * @param prefix the directory of the repository in the zip file, empty or ending with a slash
+     */
+    ZipTransporter( ZipRepository repository, String prefix ) {
+        this.repository = repository;
+        this.prefix = prefix;
+    }
+
+    @Override
+    public int classify( Throwable error ) {
+        if( error instanceof FileNotFoundException ) {
+            return ERROR_NOT_FOUND;
+        }
+        return ERROR_OTHER;
+    }
+
+    @Override
+    protected void implPeek( PeekTask task ) throws Exception {
+        getEntry( task );
+    }
+
+    @Override
+    protected void implGet( GetTask task ) throws Exception {
+        ZipEntry entry = getEntry( task );
+        InputStream is = repository.getInputStream( entry );
+        long offset = task.getResumeOffset();
+        boolean resume = offset > 0 && offset < entry.getSize();
+        if( resume ) {
+            try {
+                skip( is, offset );
+            }
+            catch( IOException e ) {
+                is.close();
+                throw e;
+            }
+        }
+        utilGet( task, is, true, entry.getSize(), resume );
+    }
+
+    @Override
+    protected void implPut( PutTask task ) throws Exception {
+        throw new IOException( "Zip repository " + repository.getFile() + " is read-only" );
+    }
+
+    @Override
+    protected void implClose() {
+        try {
+            repository.release();
+        }
+        catch( IOException e ) {
+            // ignore
+        }
+    }
+
+    private ZipEntry getEntry( TransportTask task ) throws FileNotFoundException {
+        String path = task.getLocation().getPath();
+        if( path.startsWith( "/" ) ) {
+            path = path.substring( 1 );
+        }
+        ZipEntry entry = repository.getEntry( prefix + path );
+        if( entry == null ) {
+            throw new FileNotFoundException( "Could not find " + prefix + path + " in " + repository.getFile() );
+        }
+        return entry;
+    }
+
+    private static void skip( InputStream is, long count ) throws IOException {
+        while( count > 0 ) {
+            long n = is.skip( count );
+            if( n <= 0 ) {
+                throw new EOFException();
+            }
+            count -= n;
+        }
+    }
+
+}
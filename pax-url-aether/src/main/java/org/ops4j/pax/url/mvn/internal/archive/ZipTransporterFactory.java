@@ -0,0 +1,126 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.archive;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.transfer.NoTransporterException;
+
+/**
+ * A transporter factory for zip repositories, given as <code>jar:file:</code> urls such as
+ * <code>jar:file:/opt/repository.zip!/repository</code>. Each zip file is opened once and
+ * shared by the transporters of all its repositories, until the file changes.
+ */
+public class ZipTransporterFactory implements TransporterFactory, Closeable {
+
+    private static final String PROTOCOL = "jar:";
+    private static final String SEPARATOR = "!/";
+
+    private final Map<File, ZipRepository> repositories = new HashMap<File, ZipRepository>();
+
+    /**
+     * Returns the zip file of the given url, or <code>null</code> if it is not a zip repository.
+     */
+    public static File getFile( String url ) {
+        if( url == null || !url.regionMatches( true, 0, PROTOCOL + "file:", 0, PROTOCOL.length() + 5 ) ) {
+            return null;
+        }
+        int separator = url.indexOf( SEPARATOR );
+        if( separator < 0 ) {
+            return null;
+        }
+        try {
+            return new File( URI.create( url.substring( PROTOCOL.length(), separator ) ) );
+        }
+        catch( IllegalArgumentException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the directory of the repository in the zip file of the given url, empty or ending with a slash.
+     */
+    static String getPrefix( String url ) {
+        String prefix = url.substring( url.indexOf( SEPARATOR ) + SEPARATOR.length() );
+        return prefix.length() == 0 || prefix.endsWith( "/" ) ? prefix : prefix + "/";
+    }
+
+    /**
+     * Returns <code>true</code> if the given repository is a zip repository.
+     */
+    public static boolean isZip( RemoteRepository repository ) {
+        return getFile( repository.getUrl() ) != null;
+    }
+
+    @Override
+    public Transporter newInstance( RepositorySystemSession session, RemoteRepository repository )
+        throws NoTransporterException {
+        File file = getFile( repository.getUrl() );
+        if( file == null ) {
+            throw new NoTransporterException( repository );
+        }
+        try {
+            return new ZipTransporter( retainRepository( file ), getPrefix( repository.getUrl() ) );
+        }
+        catch( IOException e ) {
+            throw new NoTransporterException( repository, e.getMessage(), e );
+        }
+    }
+
+    /**
+     * Close the zip files, once the transporters using them are closed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        for( ZipRepository repository : repositories.values() ) {
+            repository.release();
+        }
+        repositories.clear();
+    }
+
+    /**
+     * Returns the repository of the given zip file, opened again if it changed, with a
+     * reference taken for the caller.
+     */
+    private synchronized ZipRepository retainRepository( File file ) throws IOException {
+        ZipRepository repository = repositories.get( file );
+        if( repository == null || repository.isStale() ) {
+            if( repository != null ) {
+                repository.release();
+            }
+            repository = ZipRepository.open( file );
+            repositories.put( file, repository );
+        }
+        repository.retain();
+        return repository;
+    }
+
+    /**
+     * Higher than the wagon transporter factory, which would go through the <code>jar:</code> url handler.
+     */
+    @Override
+    public float getPriority() {
+        return 10.0f;
+    }
+
+}
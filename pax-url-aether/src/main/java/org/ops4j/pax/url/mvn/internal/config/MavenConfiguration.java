@@ -136,4 +136,16 @@ public interface MavenConfiguration {
     String getSecuritySettings();
 
     PropertyResolver getPropertyResolver();
+
+    /**
+     * Returns the value of a configuration property, converted to the given type.
+     * Supported types are {@link String}, {@link Integer}, {@link Long} and {@link Boolean}.
+     *
+     * @param name the property name, without the pid prefix
+     * @param defaultValue the value to use if the property is not set
+     * @param clazz the property type
+     *
+     * @return the property value or the default value if not set
+     */
+    <T> T getProperty( String name, T defaultValue, Class<T> clazz );
 }
@@ -442,6 +442,33 @@ public class MavenConfigurationImpl extends PropertyStore implements MavenConfig
         return get(m_pid + ServiceConstants.PROPERTY_TIMEOUT);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    public <T> T getProperty(String name, T defaultValue, Class<T> clazz) {
+        if (!contains(m_pid + name)) {
+            String value = m_propertyResolver.get(m_pid + name);
+            return set(m_pid + name, value == null ? defaultValue : convert(value.trim(), clazz));
+        }
+        return get(m_pid + name);
+    }
+
+    private <T> T convert(String value, Class<T> clazz) {
+        if (String.class == clazz) {
+            return clazz.cast(value);
+        }
+        else if (Integer.class == clazz) {
+            return clazz.cast(Integer.valueOf(value));
+        }
+        else if (Long.class == clazz) {
+            return clazz.cast(Long.valueOf(value));
+        }
+        else if (Boolean.class == clazz) {
+            return clazz.cast(Boolean.valueOf(value));
+        }
+        throw new IllegalArgumentException("Unsupported property type " + clazz.getName());
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -25,6 +25,8 @@ import java.net.URL;
 
 import org.ops4j.lang.NullArgumentException;
 import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.archive.PackedRepository;
+import org.ops4j.pax.url.mvn.internal.archive.ZipTransporterFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -342,6 +344,26 @@ public class MavenRepositoryURL
         return m_file != null;
     }
 
+    /**
+     * Getter.
+     *
+     * @return if the repository is a packed repository, see {@link PackedRepository}.
+     */
+    public boolean isPackedRepository()
+    {
+        return m_file != null && m_file.getName().endsWith( PackedRepository.EXTENSION );
+    }
+
+    /**
+     * Getter.
+     *
+     * @return if the repository is a directory of a zip file, such as <code>jar:file:/repo.zip!/repository</code>.
+     */
+    public boolean isZipRepository()
+    {
+        return ZipTransporterFactory.getFile( m_repositoryURL.toExternalForm() ) != null;
+    }
+
     @Override
     public String toString()
     {
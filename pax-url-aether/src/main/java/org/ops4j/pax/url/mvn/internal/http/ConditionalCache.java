@@ -0,0 +1,185 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collections;
+import java.util.Properties;
+
+import org.eclipse.aether.util.ChecksumUtils;
+
+/**
+ * The http validators of the resources downloaded into the local repository, used to
+ * send conditional requests.
+ * <p>
+ * Aether downloads a resource into a temporary file next to its target file in the
+ * local repository, such as <code>maven-metadata-central.xml</code>, and renames it
+ * once checked. The <code>ETag</code> and <code>Last-Modified</code> headers of the
+ * download are stored next to the target file, with the uri and the checksum of the downloaded content.
+ * When the server reports the resource unchanged, the target file is downloaded again
+ * from the disk, provided it still holds that content. Nothing else is stored, and
+ * the validators are replaced atomically.
+ */
+class ConditionalCache {
+
+    private static final String EXTENSION = ".validators";
+
+    private static final String URI = "uri";
+    private static final String ETAG = "etag";
+    private static final String LAST_MODIFIED = "lastModified";
+    private static final String SHA1 = "sha1";
+
+    /**
+     * Returns the validators of the resource stored in the given file, or <code>null</code>
+     * if the file does not hold the content they were received with.
+     */
+    Entry get( URI uri, File file ) {
+        if( !file.isFile() ) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream is = new FileInputStream( new File( file.getPath() + EXTENSION ) );
+            try {
+                properties.load( is );
+            }
+            finally {
+                is.close();
+            }
+        }
+        catch( IOException e ) {
+            return null;
+        }
+        String etag = properties.getProperty( ETAG );
+        String lastModified = properties.getProperty( LAST_MODIFIED );
+        String sha1 = properties.getProperty( SHA1 );
+        if( ( etag == null && lastModified == null ) || !uri.toString().equals( properties.getProperty( URI ) )
+            || sha1 == null || !sha1.equals( getSha1( file ) ) ) {
+            return null;
+        }
+        return new Entry( file, etag, lastModified, sha1 );
+    }
+
+    /**
+     * Store the validators of the resource downloaded into the given data file, to be
+     * stored in the given file. Without validators, the stored ones are removed.
+     */
+    void put( URI uri, File file, File dataFile, String etag, String lastModified ) throws IOException {
+        File validators = new File( file.getPath() + EXTENSION );
+        String sha1 = getSha1( dataFile );
+        if( ( etag == null && lastModified == null ) || sha1 == null ) {
+            validators.delete();
+            return;
+        }
+        putValidators( uri, validators, etag, lastModified, sha1 );
+    }
+
+    /**
+     * Update the validators of a resource, after the server reported it unchanged.
+     */
+    void update( URI uri, Entry entry, String etag, String lastModified ) throws IOException {
+        if( etag == null && lastModified == null ) {
+            return;
+        }
+        if( ( etag == null || etag.equals( entry.getETag() ) )
+            && ( lastModified == null || lastModified.equals( entry.getLastModified() ) ) ) {
+            return;
+        }
+        putValidators( uri, new File( entry.getContent().getPath() + EXTENSION ),
+                       etag != null ? etag : entry.getETag(),
+                       lastModified != null ? lastModified : entry.getLastModified(),
+                       entry.getSha1() );
+    }
+
+    private static void putValidators( URI uri, File validators, String etag, String lastModified, String sha1 )
+        throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty( URI, uri.toString() );
+        properties.setProperty( SHA1, sha1 );
+        if( etag != null ) {
+            properties.setProperty( ETAG, etag );
+        }
+        if( lastModified != null ) {
+            properties.setProperty( LAST_MODIFIED, lastModified );
+        }
+        File tmp = File.createTempFile( validators.getName(), ".tmp", validators.getParentFile() );
+        try {
+            OutputStream os = new FileOutputStream( tmp );
+            try {
+                properties.store( os, null );
+            }
+            finally {
+                os.close();
+            }
+            Files.move( tmp.toPath(), validators.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE );
+        }
+        finally {
+            tmp.delete();
+        }
+    }
+
+    private static String getSha1( File file ) {
+        try {
+            Object sha1 = ChecksumUtils.calc( file, Collections.singleton( "SHA-1" ) ).get( "SHA-1" );
+            return sha1 instanceof String ? (String) sha1 : null;
+        }
+        catch( IOException e ) {
+            return null;
+        }
+    }
+
+    /**
+     * The validators of a resource, and the file holding its content.
+     */
+    static class Entry {
+
+        private final File content;
+        private final String etag;
+        private final String lastModified;
+        private final String sha1;
+
+        Entry( File content, String etag, String lastModified, String sha1 ) {
+            this.content = content;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.sha1 = sha1;
+        }
+
+        File getContent() {
+            return content;
+        }
+
+        String getETag() {
+            return etag;
+        }
+
+        String getLastModified() {
+            return lastModified;
+        }
+
+        String getSha1() {
+            return sha1;
+        }
+    }
+
+}
@@ -0,0 +1,390 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.http;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.TransportListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Downloads a resource into the data file of a get task.
+ * <p>
+ * The download resumes from the partial data file when the task asks for it, and
+ * an interrupted transfer is resumed from the bytes already written when the server
+ * accepts byte ranges. When a chunk size is given, the resource is requested by
+ * ranges of that size: the first one tells the total size of the resource, and the
+ * other ones are downloaded concurrently into the data file. The listener of the
+ * task is still given the data in order, as each range completes.
+ */
+class FileDownload {
+
+    private static final Logger LOG = LoggerFactory.getLogger( FileDownload.class );
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private static final Pattern CONTENT_RANGE = Pattern.compile( "bytes\\s+(\\d+)-(\\d+)/(\\d+|\\*)" );
+
+    private final HttpTransporter transporter;
+    private final GetTask task;
+    private final URI uri;
+    private final File file;
+    private final long chunkSize;
+    private final int retries;
+    private final Executor executor;
+
+    /**
+     * Requests in progress, aborted when the download fails.
+     */
+    private final List<HttpGet> requests = new CopyOnWriteArrayList<HttpGet>();
+
+    /**
+     * ETag or Last-Modified of the resource, so that ranges are only sent if the resource did not change.
+     */
+    private volatile String validator;
+
+    /**
+     * @param chunkSize size of the ranges downloaded concurrently; zero or lower downloads in a single request
+     * @param retries number of times an interrupted transfer is resumed
+     * @param executor downloads the ranges, may be <code>null</code> if chunkSize is not positive
+     */
+    FileDownload( HttpTransporter transporter, GetTask task, URI uri, long chunkSize, int retries, Executor executor ) {
+        this.transporter = transporter;
+        this.task = task;
+        this.uri = uri;
+        this.file = task.getDataFile();
+        this.chunkSize = executor != null ? chunkSize : 0;
+        this.retries = retries;
+        this.executor = executor;
+    }
+
+    void run() throws Exception {
+        long offset = task.getResumeOffset();
+        boolean chunked = chunkSize > 0 && offset == 0;
+        int attempt = 0;
+        boolean started = false;
+        while( true ) {
+            HttpGet get = newRequest( offset, chunked ? chunkSize - 1 : -1 );
+            CloseableHttpResponse response = transporter.execute( get );
+            boolean resumable;
+            try {
+                int status = response.getStatusLine().getStatusCode();
+                if( status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0 && attempt++ < retries ) {
+                    // the partial file does not match the resource anymore
+                    offset = 0;
+                    continue;
+                }
+                long[] range = null;
+                if( status == HttpStatus.SC_PARTIAL_CONTENT && get.containsHeader( "Range" ) ) {
+                    range = getContentRange( response );
+                    if( range == null || range[0] != offset ) {
+                        throw new IOException( "Unexpected content range returned for " + uri );
+                    }
+                }
+                else {
+                    HttpTransporter.checkStatus( response.getStatusLine() );
+                    offset = 0;
+                }
+                if( validator == null ) {
+                    validator = getValidator( response );
+                }
+                resumable = range != null || isAcceptingRanges( response );
+                if( chunked && range != null && range[2] > range[1] + 1 ) {
+                    downloadChunks( response, range[1], range[2] );
+                    return;
+                }
+                HttpEntity entity = response.getEntity();
+                long length = range != null ? range[2] : entity != null ? entity.getContentLength() : 0;
+                if( !started || offset == 0 ) {
+                    // a resumed transfer is only started again when the whole resource is sent again
+                    task.getListener().transportStarted( offset, length );
+                    started = true;
+                }
+                try {
+                    write( entity, offset > 0 );
+                    return;
+                }
+                catch( IOException e ) {
+                    if( !resumable || attempt++ >= retries || !isResumable( e ) ) {
+                        throw e;
+                    }
+                    offset = file.length();
+                    chunked = false;
+                    LOG.debug( "Download of {} interrupted, resuming from byte {}", uri, offset );
+                }
+            }
+            finally {
+                response.close();
+            }
+        }
+    }
+
+    /**
+     * Download the other ranges of the resource while the first one is read from the given response.
+     */
+    private void downloadChunks( CloseableHttpResponse first, long firstEnd, long total ) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+        try {
+            raf.setLength( total );
+        }
+        finally {
+            raf.close();
+        }
+        List<FutureTask<Void>> chunks = new ArrayList<FutureTask<Void>>();
+        List<long[]> ranges = new ArrayList<long[]>();
+        for( long start = firstEnd + 1; start < total; start += chunkSize ) {
+            final long from = start;
+            final long to = Math.min( start + chunkSize, total ) - 1;
+            FutureTask<Void> chunk = new FutureTask<Void>( new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    downloadRange( from, to, null );
+                    return null;
+                }
+            } );
+            chunks.add( chunk );
+            ranges.add( new long[] { from, to } );
+            try {
+                executor.execute( chunk );
+            }
+            catch( RejectedExecutionException e ) {
+                // run below by this thread
+            }
+        }
+        LOG.debug( "Downloading {} in {} ranges", uri, chunks.size() + 1 );
+        boolean done = false;
+        try {
+            downloadRange( 0, firstEnd, first );
+            TransportListener listener = task.getListener();
+            listener.transportStarted( 0, total );
+            progress( listener, 0, firstEnd + 1 );
+            for( int i = 0; i < chunks.size(); i++ ) {
+                FutureTask<Void> chunk = chunks.get( i );
+                // a chunk still waiting for a thread is downloaded by this one
+                chunk.run();
+                try {
+                    chunk.get();
+                }
+                catch( ExecutionException e ) {
+                    if( e.getCause() instanceof Exception ) {
+                        throw (Exception) e.getCause();
+                    }
+                    throw e;
+                }
+                progress( listener, ranges.get( i )[0], ranges.get( i )[1] + 1 );
+            }
+            done = true;
+        }
+        finally {
+            if( !done ) {
+                for( FutureTask<Void> chunk : chunks ) {
+                    chunk.cancel( true );
+                }
+                for( HttpGet request : requests ) {
+                    request.abort();
+                }
+            }
+        }
+    }
+
+    /**
+     * Download the given range of the resource into the data file, resuming it if the transfer
+     * is interrupted.
+     *
+     * @param response the response already received for this range, or <code>null</code>
+     */
+    private void downloadRange( long start, long end, CloseableHttpResponse response ) throws IOException {
+        long position = start;
+        int attempt = 0;
+        while( true ) {
+            HttpGet get = null;
+            if( response == null ) {
+                get = newRequest( position, end );
+                requests.add( get );
+                response = transporter.execute( get );
+            }
+            try {
+                if( get != null ) {
+                    long[] range = response.getStatusLine().getStatusCode() == HttpStatus.SC_PARTIAL_CONTENT
+                            ? getContentRange( response ) : null;
+                    if( range == null || range[0] != position ) {
+                        HttpTransporter.checkStatus( response.getStatusLine() );
+                        throw new IOException( "Range " + position + "-" + end + " of " + uri + " not returned" );
+                    }
+                }
+                RandomAccessFile raf = new RandomAccessFile( file, "rw" );
+                try {
+                    raf.seek( position );
+                    HttpEntity entity = response.getEntity();
+                    InputStream is = entity != null ? entity.getContent() : null;
+                    byte[] buffer = new byte[BUFFER_SIZE];
+                    int n;
+                    while( position <= end && is != null && ( n = is.read( buffer ) ) >= 0 ) {
+                        n = (int) Math.min( n, end + 1 - position );
+                        raf.write( buffer, 0, n );
+                        position += n;
+                    }
+                    if( position <= end ) {
+                        throw new EOFException( "Range " + start + "-" + end + " of " + uri + " ended at " + position );
+                    }
+                }
+                finally {
+                    raf.close();
+                }
+                return;
+            }
+            catch( IOException e ) {
+                if( e instanceof HttpResponseException || attempt++ >= retries || !isResumable( e ) ) {
+                    throw e;
+                }
+                LOG.debug( "Download of range {}-{} of {} interrupted, resuming from byte {}",
+                           new Object[] { start, end, uri, position } );
+            }
+            finally {
+                response.close();
+                response = null;
+                if( get != null ) {
+                    requests.remove( get );
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns <code>true</code> if the transfer failed on its own rather than because it was
+     * interrupted or cancelled: a read timeout is the usual way a dropped connection shows up.
+     */
+    private static boolean isResumable( IOException e ) {
+        return !Thread.currentThread().isInterrupted()
+            && !( e instanceof InterruptedIOException && !( e instanceof SocketTimeoutException ) );
+    }
+
+    private HttpGet newRequest( long start, long end ) {
+        HttpGet get = new HttpGet( uri );
+        if( start > 0 || end >= 0 ) {
+            get.setHeader( "Range", "bytes=" + start + "-" + ( end >= 0 ? end : "" ) );
+            if( validator != null ) {
+                get.setHeader( "If-Range", validator );
+            }
+        }
+        return get;
+    }
+
+    /**
+     * Write the entity to the data file, giving its content to the listener.
+     */
+    private void write( HttpEntity entity, boolean append ) throws Exception {
+        OutputStream os = new FileOutputStream( file, append );
+        try {
+            if( entity != null ) {
+                TransportListener listener = task.getListener();
+                InputStream is = entity.getContent();
+                byte[] buffer = new byte[BUFFER_SIZE];
+                int n;
+                while( ( n = is.read( buffer ) ) >= 0 ) {
+                    if( n > 0 ) {
+                        os.write( buffer, 0, n );
+                        listener.transportProgressed( ByteBuffer.wrap( buffer, 0, n ) );
+                    }
+                }
+            }
+        }
+        finally {
+            os.close();
+        }
+    }
+
+    /**
+     * Give the given part of the data file to the listener.
+     */
+    private void progress( TransportListener listener, long from, long to ) throws Exception {
+        RandomAccessFile raf = new RandomAccessFile( file, "r" );
+        try {
+            raf.seek( from );
+            byte[] buffer = new byte[BUFFER_SIZE];
+            for( long position = from; position < to; ) {
+                int n = raf.read( buffer, 0, (int) Math.min( buffer.length, to - position ) );
+                if( n < 0 ) {
+                    throw new EOFException( file + " ended at " + position );
+                }
+                position += n;
+                listener.transportProgressed( ByteBuffer.wrap( buffer, 0, n ) );
+            }
+        }
+        finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the start, end and total length of the content range of the response,
+     * or <code>null</code> if it is missing or the total length is unknown.
+     */
+    private static long[] getContentRange( HttpResponse response ) {
+        Header header = response.getFirstHeader( "Content-Range" );
+        if( header == null ) {
+            return null;
+        }
+        Matcher matcher = CONTENT_RANGE.matcher( header.getValue().trim() );
+        if( !matcher.matches() || "*".equals( matcher.group( 3 ) ) ) {
+            return null;
+        }
+        return new long[] { Long.parseLong( matcher.group( 1 ) ), Long.parseLong( matcher.group( 2 ) ),
+                            Long.parseLong( matcher.group( 3 ) ) };
+    }
+
+    private static boolean isAcceptingRanges( HttpResponse response ) {
+        Header header = response.getFirstHeader( "Accept-Ranges" );
+        return header != null && "bytes".equalsIgnoreCase( header.getValue().trim() );
+    }
+
+    private static String getValidator( HttpResponse response ) {
+        Header header = response.getFirstHeader( "ETag" );
+        if( header != null && !header.getValue().startsWith( "W/" ) ) {
+            return header.getValue();
+        }
+        header = response.getFirstHeader( "Last-Modified" );
+        return header != null ? header.getValue() : null;
+    }
+
+}
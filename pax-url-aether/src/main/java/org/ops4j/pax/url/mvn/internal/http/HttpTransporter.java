@@ -0,0 +1,471 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.http;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
+import org.apache.http.auth.AuthScheme;
+import org.apache.http.auth.AuthScope;
+import org.apache.http.auth.Credentials;
+import org.apache.http.auth.NTCredentials;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.AuthCache;
+import org.apache.http.client.CredentialsProvider;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.config.CookieSpecs;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.impl.client.BasicAuthCache;
+import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.aether.ConfigurationProperties;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.metadata.DefaultMetadata;
+import org.eclipse.aether.metadata.Metadata;
+import org.eclipse.aether.repository.AuthenticationContext;
+import org.eclipse.aether.repository.LocalRepositoryManager;
+import org.eclipse.aether.repository.Proxy;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.AbstractTransporter;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.PeekTask;
+import org.eclipse.aether.spi.connector.transport.PutTask;
+import org.eclipse.aether.spi.connector.transport.TransportTask;
+import org.eclipse.aether.transfer.NoTransporterException;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.util.ConfigUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A transporter for a http or https repository, sending its requests through a
+ * shared http client.
+ * <p>
+ * The credentials, proxy, headers and timeouts of the repository are computed once,
+ * when the transporter is created, and the downloaded content is streamed to the
+ * target of each task. Downloads to a file are resumable, and may be split into
+ * ranges downloaded concurrently, see {@link FileDownload}. Metadata are refreshed
+ * with conditional requests, using the validators of their last download, when a
+ * metadata cache is given.
+ */
+public class HttpTransporter extends AbstractTransporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger( HttpTransporter.class );
+
+    private final CloseableHttpClient client;
+    private final URI baseUri;
+    private final HttpHost server;
+    private final HttpHost proxy;
+    private final CredentialsProvider credentialsProvider;
+    private final AuthCache authCache;
+    private final RequestConfig requestConfig;
+    private final Map<String, String> headers;
+    private final long chunkSize;
+    private final int resumeRetries;
+    private final Executor executor;
+    private final ConditionalCache metadataCache;
+    private final LocalRepositoryManager localRepositoryManager;
+    private final RemoteRepository repository;
+
+    HttpTransporter( CloseableHttpClient client, int timeout, long chunkSize, int resumeRetries, Executor executor,
+                     ConditionalCache metadataCache, RepositorySystemSession session, RemoteRepository repository )
+        throws NoTransporterException {
+        this.client = client;
+        this.chunkSize = chunkSize;
+        this.resumeRetries = resumeRetries;
+        this.executor = executor;
+        this.metadataCache = metadataCache;
+        this.localRepositoryManager = session.getLocalRepositoryManager();
+        this.repository = repository;
+        try {
+            String url = repository.getUrl();
+            baseUri = new URI( url.endsWith( "/" ) ? url : url + "/" ).parseServerAuthority();
+            if( baseUri.isOpaque() || baseUri.getHost() == null ) {
+                throw new URISyntaxException( url, "Missing host" );
+            }
+        }
+        catch( URISyntaxException e ) {
+            throw new NoTransporterException( repository, e.getMessage(), e );
+        }
+        server = new HttpHost( baseUri.getHost(), baseUri.getPort(), baseUri.getScheme() );
+        Proxy repoProxy = repository.getProxy();
+        proxy = repoProxy != null ? new HttpHost( repoProxy.getHost(), repoProxy.getPort() ) : null;
+
+        credentialsProvider = new BasicCredentialsProvider();
+        AuthenticationContext repoAuth = AuthenticationContext.forRepository( session, repository );
+        try {
+            Credentials credentials = getCredentials( repoAuth );
+            if( credentials != null ) {
+                credentialsProvider.setCredentials( new AuthScope( server.getHostName(), AuthScope.ANY_PORT ),
+                                                    credentials );
+            }
+        }
+        finally {
+            AuthenticationContext.close( repoAuth );
+        }
+        if( proxy != null ) {
+            AuthenticationContext proxyAuth = AuthenticationContext.forProxy( session, repository );
+            try {
+                Credentials credentials = getCredentials( proxyAuth );
+                if( credentials != null ) {
+                    credentialsProvider.setCredentials( new AuthScope( proxy.getHostName(), proxy.getPort() ),
+                                                        credentials );
+                }
+            }
+            finally {
+                AuthenticationContext.close( proxyAuth );
+            }
+        }
+        authCache = new SynchronizedAuthCache();
+
+        requestConfig = RequestConfig.custom()
+                .setConnectTimeout( timeout )
+                .setConnectionRequestTimeout( timeout )
+                .setSocketTimeout( timeout )
+                .setProxy( proxy )
+                .setCookieSpec( CookieSpecs.BROWSER_COMPATIBILITY )
+                .build();
+
+        headers = new HashMap<String, String>();
+        headers.put( "User-Agent", ConfigUtils.getString( session, ConfigurationProperties.DEFAULT_USER_AGENT,
+                                                          ConfigurationProperties.USER_AGENT ) );
+        Map<?, ?> configured = ConfigUtils.getMap( session, null,
+                                                   ConfigurationProperties.HTTP_HEADERS + "." + repository.getId(),
+                                                   ConfigurationProperties.HTTP_HEADERS );
+        if( configured != null ) {
+            for( Map.Entry<?, ?> entry : configured.entrySet() ) {
+                if( entry.getKey() instanceof String && entry.getValue() instanceof String ) {
+                    headers.put( (String) entry.getKey(), (String) entry.getValue() );
+                }
+            }
+        }
+    }
+
+    @Override
+    public int classify( Throwable error ) {
+        if( error instanceof HttpResponseException
+            && ( (HttpResponseException) error ).getStatusCode() == 404 ) {
+            return ERROR_NOT_FOUND;
+        }
+        return ERROR_OTHER;
+    }
+
+    @Override
+    protected void implPeek( PeekTask task ) throws Exception {
+        CloseableHttpResponse response = execute( new HttpHead( resolve( task ) ) );
+        try {
+            checkStatus( response.getStatusLine() );
+        }
+        finally {
+            response.close();
+        }
+    }
+
+    @Override
+    protected void implGet( GetTask task ) throws Exception {
+        if( metadataCache != null && task.getDataFile() != null && task.getResumeOffset() == 0
+            && isMetadata( task ) ) {
+            File file = getLocalFile( task );
+            if( file != null ) {
+                getConditionally( task, file );
+                return;
+            }
+        }
+        if( task.getDataFile() != null ) {
+            new FileDownload( this, task, resolve( task ), chunkSize, resumeRetries, executor ).run();
+            return;
+        }
+        CloseableHttpResponse response = execute( new HttpGet( resolve( task ) ) );
+        try {
+            HttpEntity entity = response.getEntity();
+            try {
+                checkStatus( response.getStatusLine() );
+                if( entity == null ) {
+                    utilGet( task, new EmptyInputStream(), true, 0, false );
+                }
+                else {
+                    utilGet( task, entity.getContent(), true, entity.getContentLength(), false );
+                }
+            }
+            finally {
+                EntityUtils.consumeQuietly( entity );
+            }
+        }
+        finally {
+            response.close();
+        }
+    }
+
+    @Override
+    protected void implPut( PutTask task ) throws Exception {
+        HttpPut put = new HttpPut( resolve( task ) );
+        put.setEntity( new PutTaskEntity( task ) );
+        CloseableHttpResponse response;
+        try {
+            response = execute( put );
+        }
+        catch( TransferCancelledIOException e ) {
+            throw (TransferCancelledException) e.getCause();
+        }
+        try {
+            checkStatus( response.getStatusLine() );
+        }
+        finally {
+            EntityUtils.consumeQuietly( response.getEntity() );
+            response.close();
+        }
+    }
+
+    /**
+     * Download a resource with a conditional request, serving the local copy if the
+     * server reports it unchanged, and store the validators of the download otherwise.
+     *
+     * @param file the file of the resource in the local repository
+     */
+    private void getConditionally( GetTask task, File file ) throws Exception {
+        URI uri = resolve( task );
+        ConditionalCache.Entry cached = metadataCache.get( uri, file );
+        HttpGet get = new HttpGet( uri );
+        if( cached != null ) {
+            if( cached.getETag() != null ) {
+                get.setHeader( HttpHeaders.IF_NONE_MATCH, cached.getETag() );
+            }
+            if( cached.getLastModified() != null ) {
+                get.setHeader( HttpHeaders.IF_MODIFIED_SINCE, cached.getLastModified() );
+            }
+        }
+        CloseableHttpResponse response = execute( get );
+        try {
+            HttpEntity entity = response.getEntity();
+            try {
+                String etag = getHeader( response, HttpHeaders.ETAG );
+                String lastModified = getHeader( response, HttpHeaders.LAST_MODIFIED );
+                if( cached != null && response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED ) {
+                    metadataCache.update( uri, cached, etag, lastModified );
+                    File content = cached.getContent();
+                    utilGet( task, new FileInputStream( content ), true, content.length(), false );
+                    return;
+                }
+                checkStatus( response.getStatusLine() );
+                if( entity == null ) {
+                    utilGet( task, new EmptyInputStream(), true, 0, false );
+                }
+                else {
+                    utilGet( task, entity.getContent(), true, entity.getContentLength(), false );
+                }
+                metadataCache.put( uri, file, task.getDataFile(), etag, lastModified );
+            }
+            finally {
+                EntityUtils.consumeQuietly( entity );
+            }
+        }
+        finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Returns the file of the metadata of the task in the local repository, as laid out by the
+     * local repository manager of the session, or <code>null</code> if the task does not download
+     * next to it.
+     */
+    private File getLocalFile( GetTask task ) {
+        if( localRepositoryManager == null ) {
+            return null;
+        }
+        // the directories of the location, whatever the coordinates they stand for, then the type
+        String path = task.getLocation().getPath();
+        int type = path.lastIndexOf( '/' );
+        int first = path.indexOf( '/' );
+        Metadata metadata = new DefaultMetadata( type > 0 ? path.substring( 0, first ) : "",
+                                                 first < type ? path.substring( first + 1, type ) : "", "",
+                                                 path.substring( type + 1 ), Metadata.Nature.RELEASE_OR_SNAPSHOT );
+        File file = new File( localRepositoryManager.getRepository().getBasedir(),
+                              localRepositoryManager.getPathForRemoteMetadata( metadata, repository, "" ) );
+        if( !file.getAbsoluteFile().getParentFile().equals( task.getDataFile().getAbsoluteFile().getParentFile() ) ) {
+            LOG.debug( "Metadata {} are not downloaded next to {}, requesting them unconditionally",
+                       task.getLocation(), file );
+            return null;
+        }
+        return file;
+    }
+
+    private static boolean isMetadata( GetTask task ) {
+        String path = task.getLocation().getPath();
+        return path != null && path.substring( path.lastIndexOf( '/' ) + 1 ).startsWith( "maven-metadata" );
+    }
+
+    private static String getHeader( HttpResponse response, String name ) {
+        Header header = response.getFirstHeader( name );
+        return header != null ? header.getValue() : null;
+    }
+
+    /**
+     * The http client is shared, and thus closed by its owner.
+     */
+    @Override
+    protected void implClose() {
+    }
+
+    private URI resolve( TransportTask task ) {
+        return baseUri.resolve( task.getLocation() );
+    }
+
+    CloseableHttpResponse execute( HttpRequestBase request ) throws IOException {
+        request.setConfig( requestConfig );
+        for( Map.Entry<String, String> header : headers.entrySet() ) {
+            request.setHeader( header.getKey(), header.getValue() );
+        }
+        HttpClientContext context = HttpClientContext.create();
+        context.setCredentialsProvider( credentialsProvider );
+        context.setAuthCache( authCache );
+        return client.execute( server, request, context );
+    }
+
+    static void checkStatus( StatusLine status ) throws HttpResponseException {
+        if( status.getStatusCode() >= 300 ) {
+            throw new HttpResponseException( status.getStatusCode(), status.getReasonPhrase() + " ("
+                                                                     + status.getStatusCode() + ")" );
+        }
+    }
+
+    private static Credentials getCredentials( AuthenticationContext auth ) {
+        if( auth == null ) {
+            return null;
+        }
+        String username = auth.get( AuthenticationContext.USERNAME );
+        if( username == null ) {
+            return null;
+        }
+        String password = auth.get( AuthenticationContext.PASSWORD );
+        String domain = auth.get( AuthenticationContext.NTLM_DOMAIN );
+        String workstation = auth.get( AuthenticationContext.NTLM_WORKSTATION );
+        if( domain != null || workstation != null ) {
+            return new NTCredentials( username, password, workstation, domain );
+        }
+        return new UsernamePasswordCredentials( username, password );
+    }
+
+    /**
+     * Streams the data of a put task, reporting its progress.
+     */
+    private class PutTaskEntity extends AbstractHttpEntity {
+
+        private final PutTask task;
+
+        PutTaskEntity( PutTask task ) {
+            this.task = task;
+        }
+
+        @Override
+        public boolean isRepeatable() {
+            return true;
+        }
+
+        @Override
+        public long getContentLength() {
+            return task.getDataLength();
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return task.newInputStream();
+        }
+
+        @Override
+        public void writeTo( OutputStream os ) throws IOException {
+            try {
+                utilPut( task, os, false );
+            }
+            catch( TransferCancelledException e ) {
+                throw new TransferCancelledIOException( e );
+            }
+        }
+
+        @Override
+        public boolean isStreaming() {
+            return false;
+        }
+    }
+
+    private static class TransferCancelledIOException extends InterruptedIOException {
+
+        private static final long serialVersionUID = 1L;
+
+        TransferCancelledIOException( TransferCancelledException cause ) {
+            super( cause.getMessage() );
+            initCause( cause );
+        }
+    }
+
+    private static class EmptyInputStream extends InputStream {
+        @Override
+        public int read() {
+            return -1;
+        }
+    }
+
+    /**
+     * The auth cache is shared by the concurrent requests of the transporter.
+     */
+    private static class SynchronizedAuthCache implements AuthCache {
+
+        private final AuthCache delegate = new BasicAuthCache();
+
+        @Override
+        public synchronized void put( HttpHost host, AuthScheme authScheme ) {
+            delegate.put( host, authScheme );
+        }
+
+        @Override
+        public synchronized AuthScheme get( HttpHost host ) {
+            return delegate.get( host );
+        }
+
+        @Override
+        public synchronized void remove( HttpHost host ) {
+            delegate.remove( host );
+        }
+
+        @Override
+        public synchronized void clear() {
+            delegate.clear();
+        }
+    }
+
+}
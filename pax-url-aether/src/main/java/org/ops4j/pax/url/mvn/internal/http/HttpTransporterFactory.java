@@ -0,0 +1,83 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.http;
+
+import java.util.concurrent.Executor;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.spi.connector.transport.TransporterFactory;
+import org.eclipse.aether.transfer.NoTransporterException;
+
+/**
+ * A transporter factory for http and https repositories, using a shared
+ * http client so that its connections are reused across transfers.
+ */
+public class HttpTransporterFactory implements TransporterFactory {
+
+    private final CloseableHttpClient client;
+    private final int timeout;
+    private final long chunkSize;
+    private final int resumeRetries;
+    private final Executor executor;
+    private final boolean conditionalMetadata;
+
+    /**
+     * @param client the shared http client, which is not closed by the transporters
+     * @param timeout the connect and read timeout in ms
+     */
+    public HttpTransporterFactory( CloseableHttpClient client, int timeout ) {
+        this( client, timeout, 0, 0, null, false );
+    }
+
+    /**
+     * @param client the shared http client, which is not closed by the transporters
+     * @param timeout the connect and read timeout in ms
+     * @param chunkSize size in bytes of the ranges downloaded concurrently; zero or lower downloads in a single request
+     * @param resumeRetries number of times an interrupted download is resumed
+     * @param executor downloads the ranges, may be <code>null</code> to download in a single request
+     * @param conditionalMetadata whether metadata are refreshed with conditional requests
+     */
+    public HttpTransporterFactory( CloseableHttpClient client, int timeout, long chunkSize, int resumeRetries,
+                                   Executor executor, boolean conditionalMetadata ) {
+        this.client = client;
+        this.timeout = timeout;
+        this.chunkSize = chunkSize;
+        this.resumeRetries = resumeRetries;
+        this.executor = executor;
+        this.conditionalMetadata = conditionalMetadata;
+    }
+
+    @Override
+    public Transporter newInstance( RepositorySystemSession session, RemoteRepository repository )
+        throws NoTransporterException {
+        String protocol = repository.getProtocol();
+        if( !"http".equalsIgnoreCase( protocol ) && !"https".equalsIgnoreCase( protocol ) ) {
+            throw new NoTransporterException( repository );
+        }
+        return new HttpTransporter( client, timeout, chunkSize, resumeRetries, executor,
+                                    conditionalMetadata ? new ConditionalCache() : null, session, repository );
+    }
+
+    /**
+     * Higher than the wagon transporter factory, which is only used for other protocols.
+     */
+    @Override
+    public float getPriority() {
+        return 5.0f;
+    }
+
+}
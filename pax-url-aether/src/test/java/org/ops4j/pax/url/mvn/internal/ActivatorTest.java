@@ -0,0 +1,75 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.MavenResolver;
+import org.osgi.framework.BundleContext;
+import org.osgi.service.cm.ManagedService;
+
+public class ActivatorTest
+{
+
+    @Test
+    public void onlyTheStartupPushIsIgnored() throws Exception
+    {
+        final AtomicInteger resolvers = new AtomicInteger();
+        final AtomicReference<ManagedService> managedService = new AtomicReference<ManagedService>();
+        BundleContext context = (BundleContext) Proxy.newProxyInstance( getClass().getClassLoader(),
+            new Class<?>[] { BundleContext.class }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if( "registerService".equals( method.getName() ) )
+                    {
+                        if( MavenResolver.class.getName().equals( args[0] ) )
+                        {
+                            resolvers.incrementAndGet();
+                        }
+                        else if( args[1] instanceof ManagedService )
+                        {
+                            managedService.set( (ManagedService) args[1] );
+                        }
+                    }
+                    return null;
+                }
+            } );
+
+        Activator activator = new Activator();
+        activator.start( context );
+        try
+        {
+            assertEquals( 1, resolvers.get() );
+            managedService.get().updated( null );
+            assertEquals( 1, resolvers.get() );
+            // an unchanged configuration pushed again reloads the settings files
+            managedService.get().updated( null );
+            assertEquals( 2, resolvers.get() );
+        }
+        finally
+        {
+            activator.stop( context );
+        }
+    }
+
+}
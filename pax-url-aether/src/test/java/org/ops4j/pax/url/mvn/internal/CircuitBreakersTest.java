@@ -0,0 +1,261 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.client.HttpResponseException;
+import org.apache.maven.settings.Settings;
+import org.apache.maven.wagon.TransferFailedException;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.ArtifactTransferException;
+import org.eclipse.aether.transfer.ChecksumFailureException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferResource;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class CircuitBreakersTest
+{
+
+    private static final RemoteRepository REPO_A = new RemoteRepository.Builder( "a", "default", "http://a/" ).build();
+    private static final RemoteRepository REPO_B = new RemoteRepository.Builder( "b", "default", "http://b/" ).build();
+    private static final List<RemoteRepository> REPOS = Arrays.asList( REPO_A, REPO_B );
+
+    @Test
+    public void opensAfterConsecutiveFailures()
+    {
+        CircuitBreakers breakers = new CircuitBreakers( 3, 60000 );
+        failTransfer( breakers, "http://a/", new SocketTimeoutException() );
+        failTransfer( breakers, "http://a/", new SocketTimeoutException() );
+        assertEquals( REPOS, breakers.filter( REPOS ) );
+        failTransfer( breakers, "http://a/", new SocketTimeoutException() );
+        assertTrue( breakers.isOpen( REPO_A ) );
+        assertEquals( Collections.singletonList( REPO_B ), breakers.filter( REPOS ) );
+    }
+
+    @Test
+    public void successResetsFailures()
+    {
+        CircuitBreakers breakers = new CircuitBreakers( 2, 60000 );
+        failTransfer( breakers, "http://a/", new SocketTimeoutException() );
+        breakers.transferSucceeded( newEvent( "http://a/", null ) );
+        failTransfer( breakers, "http://a/", new SocketTimeoutException() );
+        assertFalse( breakers.isOpen( REPO_A ) );
+    }
+
+    @Test
+    public void missingResourcesAndClientErrorsAreNotFailures()
+    {
+        CircuitBreakers breakers = new CircuitBreakers( 1, 60000 );
+        breakers.transferFailed( newEvent( "http://a/",
+            new ArtifactNotFoundException( new DefaultArtifact( "g:a:1" ), REPO_A ) ) );
+        failTransfer( breakers, "http://a/", new HttpResponseException( 401, "Unauthorized" ) );
+        assertFalse( breakers.isOpen( REPO_A ) );
+        failTransfer( breakers, "http://a/", new HttpResponseException( 503, "Service Unavailable" ) );
+        assertTrue( breakers.isOpen( REPO_A ) );
+    }
+
+    @Test
+    public void wagonClientErrorsAndChecksumsAreNotFailures()
+    {
+        assertFalse( CircuitBreakers.isFailure( new TransferFailedException(
+            "Failed to transfer file: http://a/g/a/1/a-1.jar. Return code is: 400 , ReasonPhrase:Bad Request." ) ) );
+        assertTrue( CircuitBreakers.isFailure( new TransferFailedException(
+            "Failed to transfer file: http://a/g/a/1/a-1.jar. Return code is: 502 , ReasonPhrase:Bad Gateway." ) ) );
+        assertTrue( CircuitBreakers.isFailure( new TransferFailedException( "Transfer failed",
+            new SocketTimeoutException() ) ) );
+        assertFalse( CircuitBreakers.isFailure( new ChecksumFailureException( "Checksum validation failed" ) ) );
+        assertFalse( CircuitBreakers.isFailure( new IllegalStateException() ) );
+
+        // only artifact transfers are counted
+        CircuitBreakers breakers = new CircuitBreakers( 1, 60000 );
+        breakers.transferFailed( newEvent( "http://a/", "g/a/1/a-1.jar.sha1", new SocketTimeoutException() ) );
+        breakers.transferFailed( newEvent( "http://a/", "g/a/maven-metadata.xml", new SocketTimeoutException() ) );
+        assertFalse( breakers.isOpen( REPO_A ) );
+    }
+
+    @Test
+    public void halfOpenAllowsASingleProbe() throws Exception
+    {
+        CircuitBreakers breakers = new CircuitBreakers( 1, 50 );
+        failTransfer( breakers, "http://a/", new SocketTimeoutException() );
+        assertEquals( Collections.singletonList( REPO_B ), breakers.filter( REPOS ) );
+        Thread.sleep( 100 );
+        assertEquals( REPOS, breakers.filter( REPOS ) );
+        assertEquals( Collections.singletonList( REPO_B ), breakers.filter( REPOS ) );
+
+        // the probe fails, the circuit opens again
+        failTransfer( breakers, "http://a/", new SocketTimeoutException() );
+        assertEquals( Collections.singletonList( REPO_B ), breakers.filter( REPOS ) );
+        Thread.sleep( 100 );
+        assertEquals( REPOS, breakers.filter( REPOS ) );
+
+        // the probe succeeds, the circuit closes
+        breakers.transferSucceeded( newEvent( "http://a/", null ) );
+        assertFalse( breakers.isOpen( REPO_A ) );
+        assertEquals( REPOS, breakers.filter( REPOS ) );
+        assertEquals( REPOS, breakers.filter( REPOS ) );
+    }
+
+    @Test
+    public void resolverSkipsFailingRepository() throws Exception
+    {
+        final AtomicInteger failingRequests = new AtomicInteger();
+        Server failing = newServer( new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                failingRequests.incrementAndGet();
+                response.setStatus( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+                baseRequest.setHandled( true );
+            }
+        } );
+        AbstractHandler checksums = new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                if( target.endsWith( ".sha1" ) || target.endsWith( ".md5" ) )
+                {
+                    // the test jar does not match its checksum, which would make aether retry
+                    response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                    baseRequest.setHandled( true );
+                }
+            }
+        };
+        ResourceHandler resourceHandler = new ResourceHandler();
+        resourceHandler.setResourceBase( "target/test-classes/repo2" );
+        HandlerList handlers = new HandlerList();
+        handlers.setHandlers( new Handler[] { checksums, resourceHandler } );
+        Server working = newServer( handlers );
+        try
+        {
+            Properties p = new Properties();
+            File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+            p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+                localRepo.toURI().toString() );
+            p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+                "http://localhost:" + getPort( failing ) + "/@id=failing,http://localhost:"
+                    + getPort( working ) + "/@id=working" );
+            p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_CIRCUIT_BREAKER_THRESHOLD, "1" );
+            MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+                ServiceConstants.PID );
+            Settings settings = new Settings();
+            settings.setLocalRepository( localRepo.getPath() );
+            config.setSettings( settings );
+            AetherBasedResolver resolver = new AetherBasedResolver( config );
+            try
+            {
+                assertTrue( resolver.resolve( "mvn:ant/ant/1.5.1" ).isFile() );
+                int requests = failingRequests.get();
+                assertTrue( requests > 0 );
+                try
+                {
+                    resolver.resolve( "mvn:ant/missing/1.0" );
+                    fail( "Expected an exception" );
+                }
+                catch( IOException e )
+                {
+                    // expected
+                }
+                assertEquals( requests, failingRequests.get() );
+            }
+            finally
+            {
+                resolver.close();
+            }
+        }
+        finally
+        {
+            failing.stop();
+            working.stop();
+        }
+    }
+
+    private static Server newServer( Handler handler ) throws Exception
+    {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+        server.setHandler( handler );
+        server.start();
+        return server;
+    }
+
+    private static int getPort( Server server )
+    {
+        return server.getConnectors()[0].getLocalPort();
+    }
+
+    private static void failTransfer( CircuitBreakers breakers, String url, Exception cause )
+    {
+        breakers.transferFailed( newEvent( url,
+            new ArtifactTransferException( new DefaultArtifact( "g:a:1" ), REPO_A, cause ) ) );
+    }
+
+    private static TransferEvent newEvent( String url, Exception exception )
+    {
+        return newEvent( url, "g/a/1/a-1.jar", exception );
+    }
+
+    private static TransferEvent newEvent( String url, String name, Exception exception )
+    {
+        TransferResource resource = new TransferResource( url, name, null, null );
+        TransferEvent.Builder builder = new TransferEvent.Builder( new DefaultRepositorySystemSession(), resource )
+            .setRequestType( TransferEvent.RequestType.GET );
+        if( exception != null )
+        {
+            builder.setType( TransferEvent.EventType.FAILED ).setException( exception );
+        }
+        else
+        {
+            builder.setType( TransferEvent.EventType.SUCCEEDED );
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.LocalRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class DefaultRepositoryIndexTest
+{
+
+    private static final Artifact ARTIFACT = new DefaultArtifact( "org.ops4j", "indexed", "jar", "1.0" );
+
+    private File repoA;
+    private File repoB;
+    private DefaultRepositoryIndex index;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        File base = new File( "target/index_" + System.nanoTime() );
+        repoA = new File( base, "a" );
+        repoB = new File( base, "b" );
+        repoA.mkdirs();
+        repoB.mkdirs();
+        createArtifact( repoB );
+        index = new DefaultRepositoryIndex( Arrays.asList(
+            new LocalRepository( repoA, "simple" ), new LocalRepository( repoB, "simple" ) ), 16 );
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        index.close();
+    }
+
+    @Test
+    public void findInFirstRepository() throws Exception
+    {
+        assertEquals( artifactFile( repoB ).getAbsoluteFile(), index.find( ARTIFACT ) );
+        assertNull( index.find( ARTIFACT.setVersion( "2.0" ) ) );
+
+        createArtifact( repoA );
+        assertEquals( artifactFile( repoA ).getAbsoluteFile(), awaitFind( artifactFile( repoA ) ) );
+
+        artifactFile( repoA ).delete();
+        assertEquals( artifactFile( repoB ).getAbsoluteFile(), awaitFind( artifactFile( repoB ) ) );
+    }
+
+    @Test
+    public void deepChangesAreWatched() throws Exception
+    {
+        assertEquals( artifactFile( repoB ).getAbsoluteFile(), index.find( ARTIFACT ) );
+
+        // in the version directory of an earlier repository, while indexed in a later one
+        createArtifact( repoA );
+        Artifact sources = new DefaultArtifact( "org.ops4j", "indexed", "sources", "jar", "1.0" );
+        File other = new File( repoA, DefaultRepositoryIndex.getPath( sources ) );
+        assertTrue( other.createNewFile() );
+        assertEquals( other.getAbsoluteFile(), awaitFind( sources, other ) );
+        assertEquals( artifactFile( repoA ).getAbsoluteFile(), index.find( ARTIFACT ) );
+
+        // a whole subtree removed
+        assertTrue( other.delete() );
+        assertTrue( artifactFile( repoA ).delete() );
+        assertTrue( artifactFile( repoA ).getParentFile().delete() );
+        assertEquals( artifactFile( repoB ).getAbsoluteFile(), awaitFind( artifactFile( repoB ) ) );
+    }
+
+    @Test
+    public void boundedWatches() throws Exception
+    {
+        for( int i = 0; i < 10; i++ )
+        {
+            Artifact artifact = ARTIFACT.setVersion( i + ".0" );
+            File file = new File( repoB, DefaultRepositoryIndex.getPath( artifact ) );
+            file.getParentFile().mkdirs();
+            file.createNewFile();
+            assertEquals( file.getAbsoluteFile(), index.find( artifact ) );
+            assertTrue( index.size() <= 16 );
+        }
+        // listed again once forgotten
+        assertEquals( artifactFile( repoB ).getAbsoluteFile(), index.find( ARTIFACT ) );
+        assertNull( index.find( ARTIFACT.setVersion( "11.0" ) ) );
+    }
+
+    @Test
+    public void missingRepositoryIsWatchedForCreation() throws Exception
+    {
+        File missing = new File( repoA.getParentFile(), "c" );
+        DefaultRepositoryIndex other = new DefaultRepositoryIndex( Arrays.asList(
+            new LocalRepository( missing, "simple" ), new LocalRepository( repoB, "simple" ) ), 16 );
+        try
+        {
+            assertEquals( artifactFile( repoB ).getAbsoluteFile(), other.find( ARTIFACT ) );
+            createArtifact( missing );
+            File found = null;
+            for( int i = 0; i < 100 && !artifactFile( missing ).getAbsoluteFile().equals( found ); i++ )
+            {
+                Thread.sleep( 100 );
+                found = other.find( ARTIFACT );
+            }
+            assertEquals( artifactFile( missing ).getAbsoluteFile(), found );
+        }
+        finally
+        {
+            other.close();
+        }
+    }
+
+    @Test
+    public void findRepositoriesOfMetadataVersions() throws Exception
+    {
+        assertTrue( new File( repoB, "org/ops4j/indexed/1.0-SNAPSHOT" ).mkdirs() );
+        LocalRepository b = new LocalRepository( repoB, "simple" );
+        assertEquals( Arrays.asList( b ), index.findRepositories( ARTIFACT.setVersion( "LATEST" ) ) );
+        assertEquals( Arrays.asList( b ), index.findRepositories( ARTIFACT.setVersion( "1.0-SNAPSHOT" ) ) );
+        assertTrue( index.findRepositories( ARTIFACT.setVersion( "2.0-SNAPSHOT" ) ).isEmpty() );
+        assertTrue( index.findRepositories(
+            new DefaultArtifact( "org.ops4j", "other", "jar", "RELEASE" ) ).isEmpty() );
+    }
+
+    @Test
+    public void resolveFromIndexedDefaultRepository() throws Exception
+    {
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES, "" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_DEFAULT_REPOSITORIES,
+            repoA.toURI().toString() + "," + repoB.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_DEFAULT_REPOSITORIES_INDEX, "true" );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        AetherBasedResolver resolver = new AetherBasedResolver( config );
+        try
+        {
+            assertEquals( artifactFile( repoB ).getCanonicalFile(),
+                resolver.resolve( "mvn:org.ops4j/indexed/1.0" ).getCanonicalFile() );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    /**
+     * Wait for the index to pick up the change of the watched directories.
+     */
+    private File awaitFind( File expected ) throws InterruptedException
+    {
+        return awaitFind( ARTIFACT, expected );
+    }
+
+    private File awaitFind( Artifact artifact, File expected ) throws InterruptedException
+    {
+        File found = null;
+        for( int i = 0; i < 100; i++ )
+        {
+            found = index.find( artifact );
+            if( expected.getAbsoluteFile().equals( found ) )
+            {
+                break;
+            }
+            Thread.sleep( 100 );
+        }
+        return found;
+    }
+
+    private static File artifactFile( File repo )
+    {
+        return new File( repo, DefaultRepositoryIndex.getPath( ARTIFACT ) );
+    }
+
+    private static void createArtifact( File repo ) throws IOException
+    {
+        File file = artifactFile( repo );
+        file.getParentFile().mkdirs();
+        file.createNewFile();
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Properties;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.AbstractTransferListener;
+import org.eclipse.aether.transfer.TransferCancelledException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class HedgedArtifactResolverTest
+{
+
+    private Server slow;
+    private Server fast;
+
+    @Before
+    public void startHttp() throws Exception
+    {
+        slow = newServer( 3000 );
+        fast = newServer( 0 );
+    }
+
+    @After
+    public void stopHttp() throws Exception
+    {
+        slow.stop();
+        fast.stop();
+    }
+
+    @Test
+    public void slowRepositoryIsHedged() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( true );
+        try
+        {
+            long start = System.currentTimeMillis();
+            File file = resolver.resolve( "mvn:ant/ant/1.5.1" );
+            long elapsed = System.currentTimeMillis() - start;
+            assertTrue( file.isFile() );
+            assertEquals( new File( "target/test-classes/repo2/ant/ant/1.5.1/ant-1.5.1.jar" ).length(), file.length() );
+            assertTrue( "Resolution took " + elapsed + " ms", elapsed < 2500 );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void withoutHedging() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( false );
+        try
+        {
+            long start = System.currentTimeMillis();
+            File file = resolver.resolve( "mvn:ant/ant/1.5.1" );
+            assertTrue( file.isFile() );
+            assertTrue( System.currentTimeMillis() - start >= 3000 );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void losingResolutionIsCancelled() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( false );
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try
+        {
+            final CountDownLatch cancelled = new CountDownLatch( 1 );
+            DefaultRepositorySystemSession session = new DefaultRepositorySystemSession( resolver.newSession() );
+            session.setTransferListener( new AbstractTransferListener()
+            {
+                @Override
+                public void transferFailed( TransferEvent event )
+                {
+                    if( event.getException().getCause() instanceof TransferCancelledException )
+                    {
+                        cancelled.countDown();
+                    }
+                }
+            } );
+            LatencyTracker latencies = new LatencyTracker( 10 );
+            HedgedArtifactResolver hedged = new HedgedArtifactResolver( resolver.getRepositorySystem(), executor,
+                latencies, 90, 100 );
+            ArtifactRequest request = new ArtifactRequest( new DefaultArtifact( "ant:ant:1.5.1" ), Arrays.asList(
+                new RemoteRepository.Builder( "slow", "default", "http://localhost:" + getPort( slow ) + "/" ).build(),
+                new RemoteRepository.Builder( "fast", "default", "http://localhost:" + getPort( fast ) + "/" ).build() ),
+                null );
+            ArtifactResult result = hedged.resolveArtifact( session, request );
+            assertEquals( "fast", result.getRepository().getId() );
+            // the slow repository starts answering once its delay elapsed
+            assertTrue( cancelled.await( 10, TimeUnit.SECONDS ) );
+            assertEquals( 2, latencies.getCount() );
+            assertTrue( latencies.getPercentile( 100, 2, 0 ) >= 3000 );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            resolver.close();
+        }
+    }
+
+    private AetherBasedResolver newResolver( boolean hedging ) throws Exception
+    {
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:" + getPort( slow ) + "/@id=slow,http://localhost:" + getPort( fast ) + "/@id=fast" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_HEDGED_REQUESTS,
+            Boolean.toString( hedging ) );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_HEDGE_DELAY, "100" );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+    private static int getPort( Server server )
+    {
+        return server.getConnectors()[0].getLocalPort();
+    }
+
+    private static Server newServer( final long delay ) throws Exception
+    {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+        AbstractHandler delaying = new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                if( target.endsWith( ".sha1" ) || target.endsWith( ".md5" ) )
+                {
+                    // the test jar does not match its checksum, which would make aether retry
+                    response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                    baseRequest.setHandled( true );
+                }
+                else if( delay > 0 )
+                {
+                    try
+                    {
+                        Thread.sleep( delay );
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        ResourceHandler resourceHandler = new ResourceHandler();
+        resourceHandler.setResourceBase( "target/test-classes/repo2" );
+        HandlerList handlers = new HandlerList();
+        handlers.setHandlers( new Handler[] { delaying, resourceHandler } );
+        server.setHandler( handlers );
+        server.start();
+        return server;
+    }
+
+}
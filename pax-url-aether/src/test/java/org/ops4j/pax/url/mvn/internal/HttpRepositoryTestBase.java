@@ -0,0 +1,153 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.ops4j.io.FileUtils;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+/**
+ * serve a remote repository over http, resolved into a local repository removed after each test
+ */
+public abstract class HttpRepositoryTestBase
+{
+
+    /**
+     * resources served, by path
+     */
+    protected final Map<String, byte[]> content = new ConcurrentHashMap<String, byte[]>();
+
+    /**
+     * number of requests received
+     */
+    protected final AtomicInteger requests = new AtomicInteger();
+
+    protected File localRepo;
+
+    private Server server;
+
+    private int port;
+
+    @Before
+    public void startHttp() throws Exception
+    {
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+        server.setHandler( new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                baseRequest.setHandled( true );
+                requests.incrementAndGet();
+                HttpRepositoryTestBase.this.handle( target, response );
+            }
+        } );
+        server.start();
+        port = connector.getLocalPort();
+        localRepo = new File( "target/localrepo_" + System.nanoTime() );
+    }
+
+    @After
+    public void stopHttp() throws Exception
+    {
+        server.stop();
+        FileUtils.delete( localRepo );
+    }
+
+    /**
+     * Serve the content deployed at the given path.
+     */
+    protected void handle( String target, HttpServletResponse response ) throws IOException
+    {
+        byte[] data = content.get( target );
+        if( data == null )
+        {
+            response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+        response.setContentLength( data.length );
+        response.getOutputStream().write( data );
+    }
+
+    /**
+     * Deploy a new build of the <code>g:a:1.0-SNAPSHOT</code> jar.
+     */
+    protected void deploySnapshot( String timestamp, int buildNumber, String data ) throws Exception
+    {
+        String path = "/g/a/1.0-SNAPSHOT/";
+        String version = "1.0-" + timestamp + "-" + buildNumber;
+        String updated = timestamp.replace( ".", "" );
+        content.put( path + "a-" + version + ".jar", data.getBytes( "UTF-8" ) );
+        content.put( path + "maven-metadata.xml", ( "<metadata><groupId>g</groupId><artifactId>a</artifactId>"
+            + "<version>1.0-SNAPSHOT</version><versioning><snapshot><timestamp>" + timestamp
+            + "</timestamp><buildNumber>" + buildNumber + "</buildNumber></snapshot><lastUpdated>" + updated
+            + "</lastUpdated><snapshotVersions><snapshotVersion><extension>jar</extension><value>" + version
+            + "</value><updated>" + updated + "</updated></snapshotVersion></snapshotVersions></versioning>"
+            + "</metadata>" ).getBytes( "UTF-8" ) );
+    }
+
+    /**
+     * Returns the configuration of a resolver of the served repository, always checked for updates.
+     */
+    protected Properties newConfiguration()
+    {
+        Properties p = new Properties();
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:" + port + "/@id=test@snapshots" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_GLOBAL_UPDATE_POLICY, "always" );
+        return p;
+    }
+
+    protected AetherBasedResolver newResolver( Properties p )
+    {
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+    protected static String read( File file ) throws IOException
+    {
+        return new String( Files.readAllBytes( file.toPath() ), "UTF-8" );
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyTrackerTest
+{
+
+    @Test
+    public void defaultUntilEnoughSamples()
+    {
+        LatencyTracker tracker = new LatencyTracker( 100 );
+        assertEquals( 500, tracker.getPercentile( 95, 10, 500 ) );
+        for( int i = 1; i <= 9; i++ )
+        {
+            tracker.record( i );
+        }
+        assertEquals( 500, tracker.getPercentile( 95, 10, 500 ) );
+        tracker.record( 10 );
+        assertEquals( 10, tracker.getPercentile( 95, 10, 500 ) );
+        assertEquals( 5, tracker.getPercentile( 50, 10, 500 ) );
+        assertEquals( 1, tracker.getPercentile( 0, 10, 500 ) );
+    }
+
+    @Test
+    public void keepsMostRecentSamples()
+    {
+        LatencyTracker tracker = new LatencyTracker( 10 );
+        for( int i = 0; i < 10; i++ )
+        {
+            tracker.record( 1000 );
+        }
+        for( int i = 0; i < 10; i++ )
+        {
+            tracker.record( 20 );
+        }
+        assertEquals( 10, tracker.getCount() );
+        assertEquals( 20, tracker.getPercentile( 100, 1, 0 ) );
+    }
+
+}
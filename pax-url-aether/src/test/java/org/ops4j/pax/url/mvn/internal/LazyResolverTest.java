@@ -0,0 +1,212 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.util.Dictionary;
+import java.util.Hashtable;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.DictionaryPropertyResolver;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+import org.osgi.framework.BundleContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class LazyResolverTest
+{
+
+    private static final Logger LOG = LoggerFactory.getLogger( LazyResolverTest.class );
+
+    private static final int STARTS = 20;
+
+    private static final int WARMUP = 5;
+
+    private File localRepo;
+    private File jar;
+
+    @Before
+    public void createLocalRepository() throws Exception
+    {
+        localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        jar = new File( localRepo, "g/a/1.0/a-1.0.jar" );
+        jar.getParentFile().mkdirs();
+        Files.write( jar.toPath(), "a".getBytes( "UTF-8" ) );
+    }
+
+    @Test
+    public void bundleStartDoesNotReadConfiguration()
+    {
+        final AtomicInteger properties = new AtomicInteger();
+        BundleContext context = newBundleContext( properties );
+
+        for( int i = 0; i < STARTS; i++ )
+        {
+            Activator activator = new Activator();
+            activator.start( context );
+            activator.stop( context );
+        }
+        assertEquals( 0, properties.get() );
+    }
+
+    @Test
+    public void resolverIsBuiltOnFirstUse() throws Exception
+    {
+        LazyResolver resolver = new LazyResolver( newPropertyResolver(), null );
+        try
+        {
+            assertFalse( resolver.isInitialized() );
+            assertEquals( jar.getCanonicalFile(), resolver.resolve( "mvn:g/a/1.0" ).getCanonicalFile() );
+            assertTrue( resolver.isInitialized() );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void usedResolverIsReplacedRightAway() throws Exception
+    {
+        LazyResolver unused = new LazyResolver( newPropertyResolver(), null );
+        LazyResolver replacement = new LazyResolver( newPropertyResolver(), unused );
+        unused.close();
+        assertFalse( replacement.isInitialized() );
+
+        replacement.resolve( "mvn:g/a/1.0" );
+        LazyResolver next = new LazyResolver( newPropertyResolver(), replacement );
+        replacement.close();
+        try
+        {
+            assertTrue( next.isInitialized() );
+            assertEquals( jar.getCanonicalFile(), next.resolve( "mvn:g/a/1.0" ).getCanonicalFile() );
+        }
+        finally
+        {
+            next.close();
+        }
+    }
+
+    /**
+     * Compares bundle starts followed by the two configuration pushes of the configuration admin,
+     * the resolvers being built either at once, as before, or lazily.
+     */
+    @Test
+    public void startupBenchmark() throws Exception
+    {
+        BundleContext context = newBundleContext( new AtomicInteger() );
+        Dictionary<String, Object> config = newConfiguration();
+        for( int i = 0; i < WARMUP; i++ )
+        {
+            startEagerly( config );
+            startLazily( context, config );
+        }
+        long eager = 0;
+        long lazy = 0;
+        for( int i = 0; i < STARTS; i++ )
+        {
+            long start = System.nanoTime();
+            startEagerly( config );
+            eager += System.nanoTime() - start;
+            start = System.nanoTime();
+            startLazily( context, config );
+            lazy += System.nanoTime() - start;
+        }
+        LOG.info( "Bundle start and configuration pushes: {} us eager, {} us lazy",
+            TimeUnit.NANOSECONDS.toMicros( eager / STARTS ), TimeUnit.NANOSECONDS.toMicros( lazy / STARTS ) );
+        assertTrue( lazy < eager );
+    }
+
+    /**
+     * Build a resolver for the bundle start and for each configuration push.
+     */
+    private void startEagerly( Dictionary<String, Object> config ) throws Exception
+    {
+        new AetherBasedResolver( new MavenConfigurationImpl( newPropertyResolver(), ServiceConstants.PID ) )
+            .close();
+        for( int i = 0; i < 2; i++ )
+        {
+            new AetherBasedResolver( new MavenConfigurationImpl( new DictionaryPropertyResolver( config ),
+                ServiceConstants.PID ) ).close();
+        }
+    }
+
+    private void startLazily( BundleContext context, Dictionary<String, Object> config )
+    {
+        Activator activator = new Activator();
+        activator.start( context );
+        activator.updated( config );
+        activator.updated( config );
+        activator.stop( context );
+    }
+
+    private BundleContext newBundleContext( final AtomicInteger properties )
+    {
+        return (BundleContext) Proxy.newProxyInstance( getClass().getClassLoader(),
+            new Class<?>[] { BundleContext.class }, new InvocationHandler()
+            {
+                @Override
+                public Object invoke( Object proxy, Method method, Object[] args )
+                {
+                    if( "getProperty".equals( method.getName() ) )
+                    {
+                        properties.incrementAndGet();
+                    }
+                    return null;
+                }
+            } );
+    }
+
+    private Dictionary<String, Object> newConfiguration()
+    {
+        Properties p = newProperties();
+        Dictionary<String, Object> config = new Hashtable<String, Object>();
+        for( String name : p.stringPropertyNames() )
+        {
+            config.put( name, p.getProperty( name ) );
+        }
+        return config;
+    }
+
+    private PropertiesPropertyResolver newPropertyResolver()
+    {
+        return new PropertiesPropertyResolver( newProperties() );
+    }
+
+    private Properties newProperties()
+    {
+        Properties p = new Properties();
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES, "" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_USE_FALLBACK_REPOSITORIES, "false" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_SESSION_POOL_PREWARM, "0" );
+        return p;
+    }
+
+}
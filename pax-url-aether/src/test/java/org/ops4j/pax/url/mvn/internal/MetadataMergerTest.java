@@ -0,0 +1,170 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Properties;
+
+import org.apache.maven.artifact.repository.metadata.Metadata;
+import org.apache.maven.artifact.repository.metadata.SnapshotVersion;
+import org.apache.maven.artifact.repository.metadata.io.xpp3.MetadataXpp3Reader;
+import org.junit.Test;
+import org.ops4j.io.FileUtils;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class MetadataMergerTest
+{
+
+    private static final String METADATA1 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<metadata>\n"
+        + "  <groupId>org.ops4j</groupId>\n"
+        + "  <artifactId>merged</artifactId>\n"
+        + "  <versioning>\n"
+        + "    <latest>1.10</latest>\n"
+        + "    <release>1.10</release>\n"
+        + "    <versions>\n"
+        + "      <version>1.9</version>\n"
+        + "      <version>1.10</version>\n"
+        + "    </versions>\n"
+        + "    <lastUpdated>20150101000000</lastUpdated>\n"
+        + "  </versioning>\n"
+        + "</metadata>\n";
+
+    private static final String METADATA2 = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+        + "<metadata modelVersion=\"1.1.0\">\n"
+        + "  <groupId>org.ops4j</groupId>\n"
+        + "  <artifactId>merged</artifactId>\n"
+        + "  <version>2.0-SNAPSHOT</version>\n"
+        + "  <versioning>\n"
+        + "    <latest>2.0-SNAPSHOT</latest>\n"
+        + "    <release>1.2</release>\n"
+        + "    <versions>\n"
+        + "      <version>1.2</version>\n"
+        + "      <version>1.9</version>\n"
+        + "      <version>2.0-SNAPSHOT</version>\n"
+        + "    </versions>\n"
+        + "    <snapshotVersions>\n"
+        + "      <snapshotVersion>\n"
+        + "        <extension>jar</extension>\n"
+        + "        <value>2.0-20150102.000000-1</value>\n"
+        + "        <updated>20150102000000</updated>\n"
+        + "      </snapshotVersion>\n"
+        + "      <snapshotVersion>\n"
+        + "        <extension>jar</extension>\n"
+        + "        <value>2.0-20150102.000000-1</value>\n"
+        + "        <updated>20150103000000</updated>\n"
+        + "      </snapshotVersion>\n"
+        + "      <snapshotVersion>\n"
+        + "        <classifier>sources</classifier>\n"
+        + "        <extension>jar</extension>\n"
+        + "        <value>2.0-20150102.000000-1</value>\n"
+        + "        <updated>20150102000000</updated>\n"
+        + "      </snapshotVersion>\n"
+        + "    </snapshotVersions>\n"
+        + "    <lastUpdated>20150103000000</lastUpdated>\n"
+        + "  </versioning>\n"
+        + "</metadata>\n";
+
+    @Test
+    public void mergeMetadata() throws Exception
+    {
+        MetadataMerger merger = new MetadataMerger( "org.ops4j", "merged" );
+        assertFalse( merger.isMerged() );
+        merger.merge( new ByteArrayInputStream( METADATA1.getBytes( "UTF-8" ) ) );
+        merger.merge( new ByteArrayInputStream( METADATA2.getBytes( "UTF-8" ) ) );
+        assertTrue( merger.isMerged() );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        merger.write( baos );
+        Metadata metadata = new MetadataXpp3Reader().read( new ByteArrayInputStream( baos.toByteArray() ) );
+
+        assertEquals( "org.ops4j", metadata.getGroupId() );
+        assertEquals( "merged", metadata.getArtifactId() );
+        assertEquals( "2.0-SNAPSHOT", metadata.getVersioning().getLatest() );
+        assertEquals( "1.10", metadata.getVersioning().getRelease() );
+        assertEquals( "20150103000000", metadata.getVersioning().getLastUpdated() );
+        assertEquals( Arrays.asList( "1.2", "1.9", "1.10", "2.0-SNAPSHOT" ), metadata.getVersioning().getVersions() );
+
+        assertEquals( 2, metadata.getVersioning().getSnapshotVersions().size() );
+        SnapshotVersion jar = metadata.getVersioning().getSnapshotVersions().get( 0 );
+        assertEquals( "", jar.getClassifier() );
+        assertEquals( "20150103000000", jar.getUpdated() );
+        assertEquals( "sources", metadata.getVersioning().getSnapshotVersions().get( 1 ).getClassifier() );
+    }
+
+    @Test
+    public void keepVersionsComparingEqual() throws Exception
+    {
+        MetadataMerger merger = new MetadataMerger( "org.ops4j", "merged" );
+        merger.merge( new ByteArrayInputStream( versions( "1.1", "1.0" ).getBytes( "UTF-8" ) ) );
+        merger.merge( new ByteArrayInputStream( versions( "1.0.0", "1.0-final", "1.0" ).getBytes( "UTF-8" ) ) );
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        merger.write( baos );
+        Metadata metadata = new MetadataXpp3Reader().read( new ByteArrayInputStream( baos.toByteArray() ) );
+
+        assertEquals( Arrays.asList( "1.0", "1.0.0", "1.0-final", "1.1" ), metadata.getVersioning().getVersions() );
+    }
+
+    @Test
+    public void resolvedMetadataReplaceTheirFile() throws Exception
+    {
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        File local = new File( localRepo, "org/ops4j/merged/maven-metadata-local.xml" );
+        local.getParentFile().mkdirs();
+        Files.write( local.toPath(), METADATA1.getBytes( "UTF-8" ) );
+        Properties p = new Properties();
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES, "" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_USE_FALLBACK_REPOSITORIES, "false" );
+        LazyResolver resolver = new LazyResolver( new PropertiesPropertyResolver( p ), null );
+        try
+        {
+            File first = resolver.resolveMetadata( "org.ops4j", "merged", "maven-metadata.xml", null );
+            Files.write( local.toPath(), METADATA2.getBytes( "UTF-8" ) );
+            File second = resolver.resolveMetadata( "org.ops4j", "merged", "maven-metadata.xml", null );
+            assertEquals( first, second );
+            assertTrue( second.getCanonicalPath().startsWith( localRepo.getCanonicalPath() ) );
+            Metadata metadata = new MetadataXpp3Reader().read( new ByteArrayInputStream(
+                Files.readAllBytes( second.toPath() ) ) );
+            assertTrue( metadata.getVersioning().getVersions().contains( "1.2" ) );
+        }
+        finally
+        {
+            resolver.close();
+            FileUtils.delete( localRepo );
+        }
+    }
+
+    private static String versions( String... versions )
+    {
+        StringBuilder xml = new StringBuilder( "<metadata>\n  <versioning>\n    <versions>\n" );
+        for( String version : versions )
+        {
+            xml.append( "      <version>" ).append( version ).append( "</version>\n" );
+        }
+        return xml.append( "    </versions>\n  </versioning>\n</metadata>\n" ).toString();
+    }
+
+}
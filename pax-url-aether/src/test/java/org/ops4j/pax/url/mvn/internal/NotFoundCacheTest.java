@@ -0,0 +1,225 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.aether.artifact.Artifact;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.resolution.ArtifactRequest;
+import org.eclipse.aether.resolution.ArtifactResult;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class NotFoundCacheTest
+{
+
+    private static final Artifact ARTIFACT = new DefaultArtifact( "org.ops4j", "missing", "jar", "1.0" );
+    private static final RemoteRepository REPO1 = new RemoteRepository.Builder( "repo1", "default",
+        "http://localhost/repo1/" ).build();
+    private static final RemoteRepository REPO2 = new RemoteRepository.Builder( "repo2", "default",
+        "http://localhost/repo2/" ).build();
+
+    private Server server;
+    private int port;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    @Before
+    public void startHttp() throws Exception
+    {
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+        server.setHandler( new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                requests.incrementAndGet();
+                response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                baseRequest.setHandled( true );
+            }
+        } );
+        server.start();
+        port = connector.getLocalPort();
+    }
+
+    @After
+    public void stopHttp() throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void filterMissingRepositories()
+    {
+        NotFoundCache cache = new NotFoundCache( 100, 60000 );
+        List<RemoteRepository> repos = Arrays.asList( REPO1, REPO2 );
+        assertSame( repos, cache.filter( ARTIFACT, repos ) );
+
+        cache.record( notFound( REPO1 ) );
+        assertTrue( cache.isMissing( ARTIFACT, REPO1 ) );
+        assertFalse( cache.isMissing( ARTIFACT, REPO2 ) );
+        assertFalse( cache.isMissing( ARTIFACT.setVersion( "1.1" ), REPO1 ) );
+        assertEquals( Arrays.asList( REPO2 ), cache.filter( ARTIFACT, repos ) );
+
+        cache.purge();
+        assertEquals( 0, cache.size() );
+        assertSame( repos, cache.filter( ARTIFACT, repos ) );
+    }
+
+    @Test
+    public void expiredEntries() throws Exception
+    {
+        NotFoundCache cache = new NotFoundCache( 100, 1 );
+        cache.record( notFound( REPO1 ) );
+        Thread.sleep( 10 );
+        assertFalse( cache.isMissing( ARTIFACT, REPO1 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted()
+    {
+        NotFoundCache cache = new NotFoundCache( 2, 60000 );
+        cache.record( notFound( REPO1 ) );
+        cache.record( notFound( REPO2 ) );
+        assertTrue( cache.isMissing( ARTIFACT, REPO1 ) );
+        cache.record( notFound( REPO1, ARTIFACT.setVersion( "1.1" ) ) );
+        assertEquals( 2, cache.size() );
+        assertTrue( cache.isMissing( ARTIFACT, REPO1 ) );
+        assertFalse( cache.isMissing( ARTIFACT, REPO2 ) );
+    }
+
+    @Test
+    public void disabledCache()
+    {
+        NotFoundCache cache = new NotFoundCache( 100, 0 );
+        cache.record( notFound( REPO1 ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void missingArtifactNotLookedUpAgain() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( 60000 );
+        try
+        {
+            assertMissing( resolver, "mvn:org.ops4j/missing/1.0" );
+            int count = requests.get();
+            assertTrue( count > 0 );
+
+            assertMissing( resolver, "mvn:org.ops4j/missing/1.0" );
+            assertEquals( count, requests.get() );
+
+            resolver.purgeNotFound();
+            assertMissing( resolver, "mvn:org.ops4j/missing/1.0" );
+            assertTrue( requests.get() > count );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void missingArtifactLookedUpAgainWhenDisabled() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( 0 );
+        try
+        {
+            assertMissing( resolver, "mvn:org.ops4j/missing/1.0" );
+            int count = requests.get();
+            assertMissing( resolver, "mvn:org.ops4j/missing/1.0" );
+            assertTrue( requests.get() > count );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private void assertMissing( AetherBasedResolver resolver, String url )
+    {
+        try
+        {
+            resolver.resolve( url );
+            fail( "Expected IOException resolving " + url );
+        }
+        catch( IOException e )
+        {
+            // expected
+        }
+    }
+
+    private AetherBasedResolver newResolver( long ttl )
+    {
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:" + port + "/@id=missing" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_GLOBAL_UPDATE_POLICY, "always" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_NOT_FOUND_CACHE_TTL,
+            Long.toString( ttl ) );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+    private static ArtifactResult notFound( RemoteRepository repository )
+    {
+        return notFound( repository, ARTIFACT );
+    }
+
+    private static ArtifactResult notFound( RemoteRepository repository, Artifact artifact )
+    {
+        ArtifactResult result = new ArtifactResult( new ArtifactRequest( artifact, null, null ) );
+        result.addException( new ArtifactNotFoundException( artifact, repository ) );
+        return result;
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Properties;
+
+import org.apache.maven.settings.Settings;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class PinnedReleaseTest
+{
+
+    @Test
+    public void pinnedReleases()
+    {
+        assertTrue( AetherBasedResolver.isPinnedRelease( "1.0" ) );
+        assertTrue( AetherBasedResolver.isPinnedRelease( "1.0.0.Final" ) );
+        assertFalse( AetherBasedResolver.isPinnedRelease( "1.0-SNAPSHOT" ) );
+        assertFalse( AetherBasedResolver.isPinnedRelease( "LATEST" ) );
+        assertFalse( AetherBasedResolver.isPinnedRelease( "RELEASE" ) );
+        assertFalse( AetherBasedResolver.isPinnedRelease( "[1.0,2.0)" ) );
+        assertFalse( AetherBasedResolver.isPinnedRelease( "" ) );
+    }
+
+    @Test
+    public void resolveFromLocalRepositoryWithoutRemoteAccess() throws Exception
+    {
+        Properties p = new Properties();
+        File localRepo = new File( "target/test-classes/repo2" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        // unreachable repository: any remote access would fail
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:1/@id=unreachable" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_PINNED_RELEASE_LOOKUP, "true" );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        AetherBasedResolver resolver = new AetherBasedResolver( config );
+        try
+        {
+            File file = resolver.resolve( "mvn:ant/ant/1.5.1" );
+            assertEquals( new File( localRepo, "ant/ant/1.5.1/ant-1.5.1.jar" ).getAbsoluteFile(),
+                file.getAbsoluteFile() );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+}
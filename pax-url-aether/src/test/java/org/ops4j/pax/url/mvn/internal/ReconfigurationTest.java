@@ -0,0 +1,165 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Map;
+import java.util.Properties;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class ReconfigurationTest
+{
+
+    private Server server;
+    private int port;
+    private File localRepo;
+
+    @Before
+    public void startHttp() throws Exception
+    {
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+        server.setHandler( new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                baseRequest.setHandled( true );
+                if( !target.endsWith( ".jar" ) )
+                {
+                    response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                    return;
+                }
+                byte[] data = target.getBytes( "UTF-8" );
+                response.setContentLength( data.length );
+                response.getOutputStream().write( data );
+            }
+        } );
+        server.start();
+        port = connector.getLocalPort();
+        localRepo = new File( "target/localrepo_" + System.nanoTime() );
+    }
+
+    @After
+    public void stopHttp() throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void unchangedConfigurationKeepsSessions() throws Exception
+    {
+        AetherBasedResolver previous = newResolver( "daily" );
+        AetherBasedResolver resolver;
+        try
+        {
+            assertEquals( "/g/a/1.0/a-1.0.jar", read( previous.resolve( "mvn:g/a/1.0" ) ) );
+            resolver = new AetherBasedResolver( newConfiguration( "daily" ), null, previous );
+        }
+        finally
+        {
+            previous.close();
+        }
+        try
+        {
+            Map<String, Long> statistics = resolver.getSessionPoolStatistics();
+            assertTrue( statistics.get( "idle" ) > 0 );
+
+            // the http client handed over is still open
+            assertEquals( "/g/b/1.0/b-1.0.jar", read( resolver.resolve( "mvn:g/b/1.0" ) ) );
+            assertEquals( Long.valueOf( 0 ), resolver.getSessionPoolStatistics().get( "created" ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void changedConfigurationCreatesSessions() throws Exception
+    {
+        AetherBasedResolver previous = newResolver( "daily" );
+        AetherBasedResolver resolver;
+        try
+        {
+            assertEquals( "/g/a/1.0/a-1.0.jar", read( previous.resolve( "mvn:g/a/1.0" ) ) );
+            resolver = new AetherBasedResolver( newConfiguration( "always" ), null, previous );
+        }
+        finally
+        {
+            previous.close();
+        }
+        try
+        {
+            assertEquals( Long.valueOf( 0 ), resolver.getSessionPoolStatistics().get( "idle" ) );
+            assertEquals( "/g/b/1.0/b-1.0.jar", read( resolver.resolve( "mvn:g/b/1.0" ) ) );
+            assertEquals( Long.valueOf( 1 ), resolver.getSessionPoolStatistics().get( "created" ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private AetherBasedResolver newResolver( String updatePolicy )
+    {
+        return new AetherBasedResolver( newConfiguration( updatePolicy ) );
+    }
+
+    private MavenConfigurationImpl newConfiguration( String updatePolicy )
+    {
+        Properties p = new Properties();
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:" + port + "/@id=test" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_GLOBAL_UPDATE_POLICY, updatePolicy );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_SESSION_POOL_PREWARM, "0" );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return config;
+    }
+
+    private static String read( File file ) throws IOException
+    {
+        return new String( Files.readAllBytes( file.toPath() ), "UTF-8" );
+    }
+
+}
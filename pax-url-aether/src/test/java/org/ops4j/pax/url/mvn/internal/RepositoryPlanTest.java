@@ -0,0 +1,141 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class RepositoryPlanTest
+{
+
+    private File multiDir;
+    private AetherBasedResolver resolver;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        multiDir = new File( "target/multi_" + System.nanoTime() );
+        new File( multiDir, "first" ).mkdirs();
+
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:1/repo@id=remote," + multiDir.toURI().toString() + "@multi" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_RESOLVED_CACHE_SIZE, "1000" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_RESOLVED_CACHE_LATEST_TTL, "60000" );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        resolver = new AetherBasedResolver( config );
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        resolver.close();
+    }
+
+    @Test
+    public void planIsReused() throws Exception
+    {
+        RepositoryPlan plan = resolver.getRepositoryPlan();
+        assertSame( plan, resolver.getRepositoryPlan() );
+        assertEquals( 2, plan.getRemoteRepositories().size() );
+    }
+
+    @Test
+    public void planIsRebuiltWhenMultiDirectoryChanges() throws Exception
+    {
+        RepositoryPlan plan = resolver.getRepositoryPlan();
+        assertFalse( plan.isStale() );
+
+        new File( multiDir, "second" ).mkdirs();
+        multiDir.setLastModified( multiDir.lastModified() + 2000 );
+        assertTrue( plan.isStale() );
+
+        RepositoryPlan rebuilt = resolver.getRepositoryPlan();
+        assertNotSame( plan, rebuilt );
+        assertEquals( 3, rebuilt.getRemoteRepositories().size() );
+    }
+
+    @Test
+    public void resolvedArtifactsAreForgottenWhenPlanIsRebuilt() throws Exception
+    {
+        deploy( new File( multiDir, "first" ), "1.0" );
+        assertEquals( "a-1.0.jar", resolver.resolve( "mvn:g/a/LATEST" ).getName() );
+
+        deploy( new File( multiDir, "second" ), "2.0" );
+        multiDir.setLastModified( multiDir.lastModified() + 2000 );
+
+        assertEquals( "a-2.0.jar", resolver.resolve( "mvn:g/a/LATEST" ).getName() );
+    }
+
+    @Test
+    public void derivedRepositoriesAreCached() throws Exception
+    {
+        RepositoryPlan plan = resolver.getRepositoryPlan();
+        String key = "extra";
+        List<RemoteRepository> derived = plan.putDerived( key, plan.getRemoteRepositories() );
+        assertSame( derived, plan.getDerived( key ) );
+    }
+
+    private static void deploy( File repository, String version ) throws Exception
+    {
+        File dir = new File( repository, "g/a/" + version );
+        dir.mkdirs();
+        writeFile( new File( dir, "a-" + version + ".jar" ), version );
+        writeFile( new File( repository, "g/a/maven-metadata.xml" ),
+            "<metadata><groupId>g</groupId><artifactId>a</artifactId><versioning>"
+                + "<latest>" + version + "</latest><release>" + version + "</release>"
+                + "<versions><version>" + version + "</version></versions>"
+                + "</versioning></metadata>" );
+    }
+
+    private static void writeFile( File file, String content ) throws Exception
+    {
+        Writer writer = new OutputStreamWriter( new FileOutputStream( file ), "UTF-8" );
+        try
+        {
+            writer.write( content );
+        }
+        finally
+        {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,360 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.AbstractTransporter;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.PeekTask;
+import org.eclipse.aether.spi.connector.transport.PutTask;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.spi.connector.transport.TransporterProvider;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class RepositoryRoutesTest
+{
+
+    private static final RemoteRepository CENTRAL = new RemoteRepository.Builder( "central", "default", "http://a/" ).build();
+    private static final RemoteRepository PROXY = new RemoteRepository.Builder( "proxy", "default", "http://b/" ).build();
+    private static final RemoteRepository INTERNAL = new RemoteRepository.Builder( "internal", "default", "http://c/" ).build();
+    private static final List<RemoteRepository> REPOS = Arrays.asList( CENTRAL, PROXY, INTERNAL );
+
+    @Test
+    public void parseRoutes()
+    {
+        Map<String, Set<String>> routes = RepositoryRoutes.parse( " com.acme=internal|proxy, bad, org= ,com.acme=central" );
+        assertEquals( Collections.singleton( "com.acme" ), routes.keySet() );
+        assertEquals( 3, routes.get( "com.acme" ).size() );
+        assertTrue( RepositoryRoutes.parse( null ).isEmpty() );
+    }
+
+    @Test
+    public void routedArtifactsOnlyGoToTheirRepositories()
+    {
+        RepositoryRoutes routes = new RepositoryRoutes( RepositoryRoutes.parse( "com.acme=internal" ), null );
+        assertEquals( Collections.singletonList( INTERNAL ), routes.filter( null, "com.acme", "a", REPOS ) );
+        assertEquals( Collections.singletonList( INTERNAL ), routes.filter( null, "com.acme.foo", "a", REPOS ) );
+        assertEquals( Arrays.asList( CENTRAL, PROXY ), routes.filter( null, "com.acmeco", "a", REPOS ) );
+        assertEquals( Arrays.asList( CENTRAL, PROXY ), routes.filter( null, "org.ops4j", "a", REPOS ) );
+    }
+
+    @Test
+    public void longestPrefixWins()
+    {
+        RepositoryRoutes routes = new RepositoryRoutes(
+            RepositoryRoutes.parse( "com.acme=internal,com.acme.oss=central|internal" ), null );
+        assertEquals( Arrays.asList( CENTRAL, INTERNAL ), routes.filter( null, "com.acme.oss.foo", "a", REPOS ) );
+        assertEquals( Collections.singletonList( INTERNAL ), routes.filter( null, "com.acme.foo", "a", REPOS ) );
+        assertEquals( Collections.singletonList( PROXY ), routes.filter( null, "org.ops4j", "a", REPOS ) );
+    }
+
+    @Test
+    public void mirrorsAreRoutedThroughTheirRepositories()
+    {
+        RemoteRepository mirror = new RemoteRepository.Builder( "mirror", "default", "http://m/" )
+            .setMirroredRepositories( Arrays.asList( CENTRAL, PROXY ) ).build();
+        List<RemoteRepository> repos = Arrays.asList( mirror, INTERNAL );
+        RepositoryRoutes routes = new RepositoryRoutes( RepositoryRoutes.parse( "com.acme=internal" ), null );
+        assertEquals( Collections.singletonList( mirror ), routes.filter( null, "org.ops4j", "a", repos ) );
+        routes = new RepositoryRoutes( RepositoryRoutes.parse( "com.acme=internal,org.ops4j=central" ), null );
+        assertEquals( Collections.singletonList( mirror ), routes.filter( null, "org.ops4j", "a", repos ) );
+        routes = new RepositoryRoutes( RepositoryRoutes.parse( "com.acme=internal|central|proxy" ), null );
+        assertEquals( Collections.<RemoteRepository>emptyList(), routes.filter( null, "org.ops4j", "a", repos ) );
+    }
+
+    @Test
+    public void unroutedRepositoriesAreUnchanged()
+    {
+        RepositoryRoutes routes = new RepositoryRoutes( RepositoryRoutes.parse( "com.acme=other" ), null );
+        assertSame( REPOS, routes.filter( null, "org.ops4j", "a", REPOS ) );
+    }
+
+    @Test
+    public void parsePrefixes() throws Exception
+    {
+        assertEquals( Arrays.asList( "/org/apache", "/com/acme" ),
+            RepositoryRoutes.parsePrefixes( "## repository-prefixes/2.0\n#\n/org/apache/\n\ncom/acme\n" ) );
+        assertNull( RepositoryRoutes.parsePrefixes( "## repository-prefixes/2.0\n" ) );
+        assertNull( RepositoryRoutes.parsePrefixes( "@ unsupported\n" ) );
+    }
+
+    @Test
+    public void resolverSkipsRoutedRepositories() throws Exception
+    {
+        List<String> publicRequests = Collections.synchronizedList( new ArrayList<String>() );
+        Server publicServer = newServer( new RecordingHandler( publicRequests, null ) );
+        Server internalServer = newServer( newRepositoryHandler() );
+        try
+        {
+            AetherBasedResolver resolver = newResolver( publicServer, internalServer,
+                ServiceConstants.PROPERTY_REPOSITORY_ROUTES, "ant=internal" );
+            try
+            {
+                assertTrue( resolver.resolve( "mvn:ant/ant/1.5.1" ).isFile() );
+                assertEquals( Collections.<String>emptyList(), publicRequests );
+            }
+            finally
+            {
+                resolver.close();
+            }
+        }
+        finally
+        {
+            publicServer.stop();
+            internalServer.stop();
+        }
+    }
+
+    @Test
+    public void resolverSkipsRepositoriesWithoutPrefix() throws Exception
+    {
+        List<String> publicRequests = Collections.synchronizedList( new ArrayList<String>() );
+        Server publicServer = newServer( new RecordingHandler( publicRequests,
+            "## repository-prefixes/2.0\n/org/apache\n" ) );
+        Server internalServer = newServer( newRepositoryHandler() );
+        try
+        {
+            AetherBasedResolver resolver = newResolver( publicServer, internalServer,
+                ServiceConstants.PROPERTY_REPOSITORY_PREFIXES, "true" );
+            try
+            {
+                assertTrue( resolver.resolve( "mvn:ant/ant/1.5.1" ).isFile() );
+                assertEquals( Collections.singletonList( "/" + RepositoryRoutes.PREFIXES_FILE ), publicRequests );
+            }
+            finally
+            {
+                resolver.close();
+            }
+        }
+        finally
+        {
+            publicServer.stop();
+            internalServer.stop();
+        }
+    }
+
+    @Test
+    public void reloadPrefixesAfterFailure() throws Exception
+    {
+        PrefixesProvider provider = new PrefixesProvider( "/org/apache\n" );
+        RepositoryRoutes routes = new RepositoryRoutes( Collections.<String, Set<String>>emptyMap(), provider,
+            5000, 0 );
+        List<RemoteRepository> repos = Collections.singletonList( CENTRAL );
+        provider.failures.set( 1 );
+        assertSame( repos, routes.filter( null, "com.acme", "acme", repos ) );
+        assertEquals( Collections.<RemoteRepository>emptyList(), routes.filter( null, "com.acme", "acme", repos ) );
+        assertEquals( Collections.<RemoteRepository>emptyList(), routes.filter( null, "com.acme", "acme", repos ) );
+        assertEquals( 2, provider.loads.get() );
+    }
+
+    @Test
+    public void keepMissingPrefixes() throws Exception
+    {
+        PrefixesProvider provider = new PrefixesProvider( null );
+        RepositoryRoutes routes = new RepositoryRoutes( Collections.<String, Set<String>>emptyMap(), provider,
+            5000, 0 );
+        List<RemoteRepository> repos = Collections.singletonList( CENTRAL );
+        assertSame( repos, routes.filter( null, "com.acme", "acme", repos ) );
+        assertSame( repos, routes.filter( null, "com.acme", "acme", repos ) );
+        assertEquals( 1, provider.loads.get() );
+    }
+
+    private static AetherBasedResolver newResolver( Server publicServer, Server internalServer,
+                                                    String property, String value ) throws Exception
+    {
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:" + getPort( publicServer ) + "/@id=public,http://localhost:"
+                + getPort( internalServer ) + "/@id=internal" );
+        p.setProperty( ServiceConstants.PID + "." + property, value );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+    private static Handler newRepositoryHandler()
+    {
+        AbstractHandler checksums = new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                if( target.endsWith( ".sha1" ) || target.endsWith( ".md5" ) )
+                {
+                    // the test jar does not match its checksum, which would make aether retry
+                    response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                    baseRequest.setHandled( true );
+                }
+            }
+        };
+        ResourceHandler resourceHandler = new ResourceHandler();
+        resourceHandler.setResourceBase( "target/test-classes/repo2" );
+        HandlerList handlers = new HandlerList();
+        handlers.setHandlers( new Handler[] { checksums, resourceHandler } );
+        return handlers;
+    }
+
+    private static Server newServer( Handler handler ) throws Exception
+    {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+        server.setHandler( handler );
+        server.start();
+        return server;
+    }
+
+    private static int getPort( Server server )
+    {
+        return server.getConnectors()[0].getLocalPort();
+    }
+
+    /**
+     * Records the requested paths, serves the prefix file if given and nothing else.
+     */
+    private static class RecordingHandler extends AbstractHandler
+    {
+
+        private final List<String> requests;
+        private final String prefixes;
+
+        RecordingHandler( List<String> requests, String prefixes )
+        {
+            this.requests = requests;
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        public void handle( String target, Request baseRequest, HttpServletRequest request,
+                            HttpServletResponse response ) throws IOException, ServletException
+        {
+            requests.add( target );
+            if( prefixes != null && target.equals( "/" + RepositoryRoutes.PREFIXES_FILE ) )
+            {
+                response.setContentType( "text/plain" );
+                response.getWriter().write( prefixes );
+            }
+            else
+            {
+                response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+            }
+            baseRequest.setHandled( true );
+        }
+    }
+
+    /**
+     * Serves the given prefix file, or none if <code>null</code>, after failing the given number of times.
+     */
+    private static class PrefixesProvider implements TransporterProvider
+    {
+
+        private final String prefixes;
+        final AtomicInteger loads = new AtomicInteger();
+        final AtomicInteger failures = new AtomicInteger();
+
+        PrefixesProvider( String prefixes )
+        {
+            this.prefixes = prefixes;
+        }
+
+        @Override
+        public Transporter newTransporter( RepositorySystemSession session, RemoteRepository repository )
+        {
+            return new AbstractTransporter()
+            {
+                @Override
+                public int classify( Throwable error )
+                {
+                    return error instanceof FileNotFoundException ? ERROR_NOT_FOUND : ERROR_OTHER;
+                }
+
+                @Override
+                protected void implPeek( PeekTask task ) throws Exception
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                protected void implGet( GetTask task ) throws Exception
+                {
+                    loads.incrementAndGet();
+                    if( failures.getAndDecrement() > 0 )
+                    {
+                        throw new IOException( "Unreachable" );
+                    }
+                    if( prefixes == null )
+                    {
+                        throw new FileNotFoundException( task.getLocation().toString() );
+                    }
+                    byte[] data = prefixes.getBytes( "UTF-8" );
+                    utilGet( task, new ByteArrayInputStream( data ), true, data.length, false );
+                }
+
+                @Override
+                protected void implPut( PutTask task ) throws Exception
+                {
+                    throw new UnsupportedOperationException();
+                }
+
+                @Override
+                protected void implClose()
+                {
+                }
+            };
+        }
+    }
+
+}
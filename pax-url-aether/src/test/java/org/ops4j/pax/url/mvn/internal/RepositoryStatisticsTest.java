@@ -0,0 +1,261 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.transfer.ArtifactNotFoundException;
+import org.eclipse.aether.transfer.TransferEvent;
+import org.eclipse.aether.transfer.TransferResource;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class RepositoryStatisticsTest
+{
+
+    private static final RemoteRepository REPO_A = new RemoteRepository.Builder( "a", "default", "http://a/" ).build();
+    private static final RemoteRepository REPO_B = new RemoteRepository.Builder( "b", "default", "http://b" ).build();
+    private static final RemoteRepository REPO_C = new RemoteRepository.Builder( "c", "default", "http://c/" ).build();
+    private static final RemoteRepository REPO_D = new RemoteRepository.Builder( "d", "default", "http://d/" ).build();
+
+    @Test
+    public void repositoriesWithoutStatisticsKeepTheirOrder()
+    {
+        RepositoryStatistics statistics = new RepositoryStatistics( 50 );
+        List<RemoteRepository> repos = Arrays.asList( REPO_A, REPO_B, REPO_C );
+        assertSame( repos, statistics.order( repos ) );
+        miss( statistics, "http://d/" );
+        assertEquals( repos, statistics.order( repos ) );
+    }
+
+    @Test
+    public void hitsComeFirstAndMissesLast()
+    {
+        RepositoryStatistics statistics = new RepositoryStatistics( 50 );
+        for( int i = 0; i < 5; i++ )
+        {
+            miss( statistics, "http://a/" );
+            hit( statistics, "http://c/" );
+        }
+        assertEquals( Arrays.asList( REPO_C, REPO_B, REPO_D, REPO_A ),
+            statistics.order( Arrays.asList( REPO_A, REPO_B, REPO_C, REPO_D ) ) );
+        assertEquals( Long.valueOf( 5 ), statistics.getStatistics().get( "http://a" ).get( "misses" ) );
+        assertEquals( Long.valueOf( 5 ), statistics.getStatistics().get( "http://c" ).get( "hits" ) );
+    }
+
+    @Test
+    public void checksumsAndMetadataAreIgnored()
+    {
+        RepositoryStatistics statistics = new RepositoryStatistics( 50 );
+        statistics.transferFailed( newEvent( "http://a/", "g/a/1/a-1.jar.sha1", TransferEvent.EventType.FAILED ) );
+        statistics.transferFailed( newEvent( "http://a/", "g/a/maven-metadata.xml", TransferEvent.EventType.FAILED ) );
+        assertTrue( statistics.getStatistics().isEmpty() );
+    }
+
+    @Test
+    public void storeAndLoad() throws Exception
+    {
+        RepositoryStatistics statistics = new RepositoryStatistics( 50 );
+        miss( statistics, "http://a/" );
+        miss( statistics, "http://a/" );
+        hit( statistics, "http://b" );
+        File file = new File( "target/statistics_" + System.nanoTime() + ".properties" );
+        statistics.store( file );
+        RepositoryStatistics loaded = new RepositoryStatistics( 50 );
+        loaded.load( file );
+        assertEquals( statistics.getStatistics(), loaded.getStatistics() );
+        assertEquals( Arrays.asList( REPO_B, REPO_A ), loaded.order( Arrays.asList( REPO_A, REPO_B ) ) );
+    }
+
+    @Test
+    public void storeAgainAfterFailure() throws Exception
+    {
+        RepositoryStatistics statistics = new RepositoryStatistics( 50 );
+        hit( statistics, "http://b" );
+        File parent = new File( "target/statistics_" + System.nanoTime() );
+        assertTrue( parent.createNewFile() );
+        try
+        {
+            statistics.store( new File( parent, "statistics.properties" ) );
+            fail( "Expected an IOException" );
+        }
+        catch( IOException e )
+        {
+            // the parent is a file
+        }
+        File file = new File( "target/statistics_" + System.nanoTime() + ".properties" );
+        statistics.store( file );
+        RepositoryStatistics loaded = new RepositoryStatistics( 50 );
+        loaded.load( file );
+        assertEquals( statistics.getStatistics(), loaded.getStatistics() );
+    }
+
+    @Test
+    public void resolverTriesTheRepositoryHavingArtifactsFirst() throws Exception
+    {
+        final AtomicInteger emptyRequests = new AtomicInteger();
+        Server empty = newServer( new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                if( target.endsWith( ".jar" ) )
+                {
+                    emptyRequests.incrementAndGet();
+                }
+                response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                baseRequest.setHandled( true );
+            }
+        } );
+        AbstractHandler checksums = new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                if( target.endsWith( ".sha1" ) || target.endsWith( ".md5" ) )
+                {
+                    // the test jar does not match its checksum, which would make aether retry
+                    response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                    baseRequest.setHandled( true );
+                }
+            }
+        };
+        ResourceHandler resourceHandler = new ResourceHandler();
+        resourceHandler.setResourceBase( "target/test-classes/repo2" );
+        HandlerList handlers = new HandlerList();
+        handlers.setHandlers( new Handler[] { checksums, resourceHandler } );
+        Server full = newServer( handlers );
+        File statisticsFile = new File( "target/statistics_" + System.nanoTime() + ".properties" );
+        try
+        {
+            String repositories = "http://localhost:" + getPort( empty ) + "/@id=empty,http://localhost:"
+                + getPort( full ) + "/@id=full";
+            AetherBasedResolver resolver = newResolver( repositories, statisticsFile );
+            try
+            {
+                assertTrue( resolver.resolve( "mvn:ant/ant/1.5.1" ).isFile() );
+                assertEquals( 1, emptyRequests.get() );
+            }
+            finally
+            {
+                resolver.close();
+            }
+            assertTrue( statisticsFile.isFile() );
+
+            // the statistics survive the resolver, the artifact is requested from the full repository first
+            resolver = newResolver( repositories, statisticsFile );
+            try
+            {
+                assertTrue( resolver.resolve( "mvn:ant/ant/1.5.1" ).isFile() );
+                assertEquals( 1, emptyRequests.get() );
+            }
+            finally
+            {
+                resolver.close();
+            }
+        }
+        finally
+        {
+            empty.stop();
+            full.stop();
+        }
+    }
+
+    private static AetherBasedResolver newResolver( String repositories, File statisticsFile ) throws Exception
+    {
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES, repositories );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_ADAPTIVE_REPOSITORY_ORDER, "true" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORY_STATISTICS_FILE,
+            statisticsFile.getPath() );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+    private static Server newServer( Handler handler ) throws Exception
+    {
+        Server server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+        server.setHandler( handler );
+        server.start();
+        return server;
+    }
+
+    private static int getPort( Server server )
+    {
+        return server.getConnectors()[0].getLocalPort();
+    }
+
+    private static void hit( RepositoryStatistics statistics, String url )
+    {
+        statistics.transferStarted( newEvent( url, "g/a/1/a-1.jar", TransferEvent.EventType.STARTED ) );
+        statistics.transferSucceeded( newEvent( url, "g/a/1/a-1.jar", TransferEvent.EventType.SUCCEEDED ) );
+    }
+
+    private static void miss( RepositoryStatistics statistics, String url )
+    {
+        statistics.transferFailed( newEvent( url, "g/a/1/a-1.jar", TransferEvent.EventType.FAILED ) );
+    }
+
+    private static TransferEvent newEvent( String url, String name, TransferEvent.EventType type )
+    {
+        TransferResource resource = new TransferResource( url, name, null, null );
+        TransferEvent.Builder builder = new TransferEvent.Builder( new DefaultRepositorySystemSession(), resource )
+            .setType( type ).setRequestType( TransferEvent.RequestType.GET );
+        if( type == TransferEvent.EventType.FAILED )
+        {
+            builder.setException( new ArtifactNotFoundException( new DefaultArtifact( "g:a:1" ), null ) );
+        }
+        return builder.build();
+    }
+
+}
@@ -0,0 +1,198 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.aether.artifact.DefaultArtifact;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.io.FileUtils;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+
+public class ResolutionLockTest extends HttpRepositoryTestBase
+{
+
+    private File dir;
+
+    @Before
+    public void createDirectory() throws Exception
+    {
+        dir = new File( "target/lock_" + System.nanoTime() );
+        dir.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() throws Exception
+    {
+        FileUtils.delete( dir );
+    }
+
+    /**
+     * Serve version 1.0 of every artifact, with the jar path as content.
+     */
+    @Override
+    protected void handle( String target, HttpServletResponse response ) throws IOException
+    {
+        byte[] data;
+        if( target.endsWith( "/maven-metadata.xml" ) )
+        {
+            data = ( "<metadata><versioning><versions><version>1.0</version></versions>"
+                + "</versioning></metadata>" ).getBytes( "UTF-8" );
+        }
+        else if( target.endsWith( ".jar" ) )
+        {
+            data = target.getBytes( "UTF-8" );
+        }
+        else
+        {
+            response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+            return;
+        }
+        response.setContentLength( data.length );
+        response.getOutputStream().write( data );
+    }
+
+    @Test
+    public void storeAndLoad() throws Exception
+    {
+        File file = new File( dir, "a-1.0.jar" );
+        Files.write( file.toPath(), "a".getBytes( "UTF-8" ) );
+        ResolutionLock lock = new ResolutionLock( new File( dir, "lock" ) );
+        lock.record( "g:a:jar:1.0|", new DefaultArtifact( "g:a:jar:1.0" ), file );
+        lock.store();
+
+        ResolutionLock loaded = new ResolutionLock( new File( dir, "lock" ) );
+        loaded.load();
+        assertEquals( 1, loaded.size() );
+        assertEquals( file, loaded.get( "g:a:jar:1.0|" ) );
+        assertNull( loaded.get( "g:b:jar:1.0|" ) );
+
+        // SHA-1 of "a"
+        assertTrue( read( new File( dir, "lock" ) ).contains( "86f7e437faa5a7fce15d1ddcb9eaeaea377667b8" ) );
+    }
+
+    @Test
+    public void storeAgainAfterFailure() throws Exception
+    {
+        File file = new File( dir, "a-1.0.jar" );
+        Files.write( file.toPath(), "a".getBytes( "UTF-8" ) );
+        File lockFile = new File( dir, "lock" );
+        // a directory which is not empty cannot be replaced
+        new File( lockFile, "child" ).mkdirs();
+        ResolutionLock lock = new ResolutionLock( lockFile );
+        lock.record( "g:a:jar:1.0|", new DefaultArtifact( "g:a:jar:1.0" ), file );
+        try
+        {
+            lock.store();
+            fail( "Expected an IOException" );
+        }
+        catch( IOException e )
+        {
+            // expected
+        }
+        FileUtils.delete( lockFile );
+        lock.store();
+
+        ResolutionLock loaded = new ResolutionLock( lockFile );
+        loaded.load();
+        assertEquals( file, loaded.get( "g:a:jar:1.0|" ) );
+        // the jar and the lock file, without temporary files
+        assertEquals( 2, dir.list().length );
+    }
+
+    @Test
+    public void changedFileIsNotLocked() throws Exception
+    {
+        File file = new File( dir, "a-1.0.jar" );
+        Files.write( file.toPath(), "a".getBytes( "UTF-8" ) );
+        ResolutionLock lock = new ResolutionLock( new File( dir, "lock" ) );
+        lock.record( "g:a:jar:1.0|", new DefaultArtifact( "g:a:jar:1.0" ), file );
+
+        Files.write( file.toPath(), "ab".getBytes( "UTF-8" ) );
+        assertNull( lock.get( "g:a:jar:1.0|" ) );
+        assertEquals( 0, lock.size() );
+    }
+
+    @Test
+    public void resolvedVersion()
+    {
+        assertEquals( "1.2", ResolutionLock.getResolvedVersion( new DefaultArtifact( "g:a:jar:[1,2)" ),
+            new File( "g/a/1.2/a-1.2.jar" ) ) );
+        assertEquals( "1.0-20200101.000000-1", ResolutionLock.getResolvedVersion(
+            new DefaultArtifact( "g:a:jar:tests:1.0-SNAPSHOT" ), new File( "a-1.0-20200101.000000-1-tests.jar" ) ) );
+        assertEquals( "LATEST", ResolutionLock.getResolvedVersion( new DefaultArtifact( "g:a:jar:LATEST" ),
+            new File( "other.jar" ) ) );
+    }
+
+    @Test
+    public void lockedArtifactsAreResolvedWithoutRepositories() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver();
+        File a;
+        List<File> all;
+        try
+        {
+            a = resolver.resolve( "mvn:g/a/[1,2)" );
+            all = resolver.resolveAll( Arrays.asList( "mvn:g/b/1.0", "mvn:g/c/1.0" ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+
+        requests.set( 0 );
+        resolver = newResolver();
+        try
+        {
+            assertEquals( a, resolver.resolve( "mvn:g/a/[1,2)" ) );
+            assertEquals( all, resolver.resolveAll( Arrays.asList( "mvn:g/b/1.0", "mvn:g/c/1.0" ) ) );
+            assertEquals( 0, requests.get() );
+            String lock = read( new File( dir, "resolution.lock" ) );
+            assertTrue( lock.contains( "g:a:jar:[1,2)|\t1.0\t" ) );
+
+            // a file removed since it was locked is resolved again
+            a.delete();
+            assertEquals( "/g/a/1.0/a-1.0.jar",
+                read( resolver.resolve( "mvn:g/a/[1,2)" ) ) );
+            assertTrue( requests.get() > 0 );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private AetherBasedResolver newResolver()
+    {
+        Properties p = newConfiguration();
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_RESOLUTION_LOCK_FILE,
+            new File( dir, "resolution.lock" ).getPath() );
+        return newResolver( p );
+    }
+
+}
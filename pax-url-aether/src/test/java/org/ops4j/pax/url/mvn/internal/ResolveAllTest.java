@@ -0,0 +1,91 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.apache.maven.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class ResolveAllTest
+{
+
+    private AetherBasedResolver resolver;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        String repo = new File( "target/test-classes/repo2" ).toURI().toString() + "@id=repo2";
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES, repo );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        resolver = new AetherBasedResolver( config );
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        resolver.close();
+    }
+
+    @Test
+    public void resolveAllKeepsOrder() throws IOException
+    {
+        List<File> files = resolver.resolveAll( Arrays.asList(
+            "mvn:ant/ant/1.5.1/pom",
+            "mvn:ant/ant/1.5.1",
+            "mvn:ant/ant/1.5.1/jar" ) );
+        assertEquals( 3, files.size() );
+        assertTrue( files.get( 0 ).getName().equals( "ant-1.5.1.pom" ) );
+        assertTrue( files.get( 1 ).getName().equals( "ant-1.5.1.jar" ) );
+        assertEquals( files.get( 1 ), files.get( 2 ) );
+        assertTrue( files.get( 0 ).isFile() );
+        assertTrue( files.get( 1 ).isFile() );
+    }
+
+    @Test
+    public void resolveAllReportsMissingArtifacts() throws IOException
+    {
+        try
+        {
+            resolver.resolveAll( Arrays.asList( "mvn:ant/ant/1.5.1", "mvn:ant/ant/0.0.1" ) );
+            fail( "Expected an IOException" );
+        }
+        catch( IOException e )
+        {
+            assertTrue( e.getMessage(), e.getMessage().contains( "ant:ant:jar:0.0.1" ) );
+        }
+    }
+
+}
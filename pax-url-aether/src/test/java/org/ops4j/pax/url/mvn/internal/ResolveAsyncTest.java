@@ -0,0 +1,236 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.maven.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class ResolveAsyncTest
+{
+
+    /**
+     * A server accepting connections but never answering.
+     */
+    private ServerSocket server;
+    private final List<Socket> clients = new ArrayList<Socket>();
+
+    @Before
+    public void startServer() throws IOException
+    {
+        server = new ServerSocket( 0 );
+        Thread thread = new Thread( new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                try
+                {
+                    while( true )
+                    {
+                        clients.add( server.accept() );
+                    }
+                }
+                catch( IOException e )
+                {
+                    // closed
+                }
+            }
+        } );
+        thread.setDaemon( true );
+        thread.start();
+    }
+
+    @After
+    public void stopServer() throws IOException
+    {
+        server.close();
+        for( Socket client : clients )
+        {
+            client.close();
+        }
+    }
+
+    private AetherBasedResolver createResolver( String repositories )
+    {
+        return createResolver( repositories, new Properties() );
+    }
+
+    private AetherBasedResolver createResolver( String repositories, Properties p )
+    {
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES, repositories );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_TIMEOUT, "10000" );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+    @Test
+    public void resolveAsync() throws Exception
+    {
+        AetherBasedResolver resolver = createResolver(
+            new File( "target/test-classes/repo2" ).toURI().toString() + "@id=repo2" );
+        try
+        {
+            Future<File> future = resolver.resolveAsync( "mvn:ant/ant/1.5.1" );
+            File file = future.get( 10, TimeUnit.SECONDS );
+            assertEquals( "ant-1.5.1.jar", file.getName() );
+            assertTrue( file.isFile() );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void resolveAsyncComposed() throws Exception
+    {
+        AetherBasedResolver resolver = createResolver(
+            new File( "target/test-classes/repo2" ).toURI().toString() + "@id=repo2" );
+        try
+        {
+            CompletableFuture<String> name = resolver.resolveAsync( "mvn:ant/ant/1.5.1" )
+                .thenApply( File::getName );
+            assertEquals( "ant-1.5.1.jar", name.get( 10, TimeUnit.SECONDS ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void resolveAsyncFailure() throws Exception
+    {
+        AetherBasedResolver resolver = createResolver(
+            new File( "target/test-classes/repo2" ).toURI().toString() + "@id=repo2" );
+        try
+        {
+            resolver.resolveAsync( "mvn:ant/ant/0.0.1" ).get( 10, TimeUnit.SECONDS );
+            fail( "Expected an ExecutionException" );
+        }
+        catch( ExecutionException e )
+        {
+            assertTrue( e.getCause() instanceof IOException );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void resolveAsyncDeadline() throws Exception
+    {
+        AetherBasedResolver resolver = createResolver(
+            "http://localhost:" + server.getLocalPort() + "/@id=stalled" );
+        try
+        {
+            long start = System.currentTimeMillis();
+            Future<File> future = resolver.resolveAsync( "mvn:ant/ant/1.5.1", 200, TimeUnit.MILLISECONDS );
+            try
+            {
+                future.get( 5, TimeUnit.SECONDS );
+                fail( "Expected a CancellationException" );
+            }
+            catch( CancellationException e )
+            {
+                assertTrue( future.isCancelled() );
+                assertTrue( System.currentTimeMillis() - start < 5000 );
+            }
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void resolveAsyncCancel() throws Exception
+    {
+        AetherBasedResolver resolver = createResolver(
+            "http://localhost:" + server.getLocalPort() + "/@id=stalled" );
+        try
+        {
+            Future<File> future = resolver.resolveAsync( "mvn:ant/ant/1.5.1" );
+            assertTrue( future.cancel( true ) );
+            assertTrue( future.isDone() );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void resolveAsyncRejected() throws Exception
+    {
+        Properties p = new Properties();
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_ASYNC_THREADS, "1" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_ASYNC_QUEUE_SIZE, "1" );
+        AetherBasedResolver resolver = createResolver(
+            "http://localhost:" + server.getLocalPort() + "/@id=stalled", p );
+        try
+        {
+            // the first one stalls on the single thread, the second one fills the queue
+            resolver.resolveAsync( "mvn:ant/ant/1.5.1", 10, TimeUnit.SECONDS );
+            resolver.resolveAsync( "mvn:ant/ant/1.5.2", 10, TimeUnit.SECONDS );
+            Future<File> future = resolver.resolveAsync( "mvn:ant/ant/1.5.3", 10, TimeUnit.SECONDS );
+            assertTrue( future.isDone() );
+            try
+            {
+                future.get();
+                fail( "Expected an ExecutionException" );
+            }
+            catch( ExecutionException e )
+            {
+                assertTrue( e.getCause() instanceof RejectedExecutionException );
+            }
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ResolvedArtifactCacheTest
+{
+
+    private File file1;
+    private File file2;
+
+    @Before
+    public void createFiles() throws IOException
+    {
+        File dir = new File( "target/cache_" + System.nanoTime() );
+        dir.mkdirs();
+        file1 = write( new File( dir, "a.jar" ), "a" );
+        file2 = write( new File( dir, "b.jar" ), "b" );
+    }
+
+    private File write( File file, String content ) throws IOException
+    {
+        FileOutputStream fos = new FileOutputStream( file );
+        try
+        {
+            fos.write( content.getBytes( "UTF-8" ) );
+        }
+        finally
+        {
+            fos.close();
+        }
+        return file;
+    }
+
+    @Test
+    public void releasesAreCached()
+    {
+        ResolvedArtifactCache cache = new ResolvedArtifactCache( 10, 0, 0 );
+        cache.put( "a", "1.0", file1 );
+        assertEquals( file1, cache.get( "a" ) );
+        assertNull( cache.get( "b" ) );
+    }
+
+    @Test
+    public void dynamicVersionsNeedTimeToLive()
+    {
+        ResolvedArtifactCache cache = new ResolvedArtifactCache( 10, 0, 0 );
+        cache.put( "a", "1.0-SNAPSHOT", file1 );
+        cache.put( "b", "LATEST", file2 );
+        cache.put( "c", "[1.0,2.0)", file2 );
+        assertEquals( 0, cache.size() );
+
+        cache = new ResolvedArtifactCache( 10, 60000, 60000 );
+        cache.put( "a", "1.0-SNAPSHOT", file1 );
+        cache.put( "b", "LATEST", file2 );
+        assertEquals( file1, cache.get( "a" ) );
+        assertEquals( file2, cache.get( "b" ) );
+    }
+
+    @Test
+    public void expiredEntriesAreDropped() throws InterruptedException
+    {
+        ResolvedArtifactCache cache = new ResolvedArtifactCache( 10, 1, 1 );
+        cache.put( "a", "1.0-SNAPSHOT", file1 );
+        Thread.sleep( 10 );
+        assertNull( cache.get( "a" ) );
+        assertEquals( 0, cache.size() );
+    }
+
+    @Test
+    public void modifiedFilesAreRevalidated() throws IOException
+    {
+        ResolvedArtifactCache cache = new ResolvedArtifactCache( 10, 0, 0 );
+        cache.put( "a", "1.0", file1 );
+        cache.put( "b", "1.0", file2 );
+        write( file1, "modified" );
+        file2.delete();
+        assertNull( cache.get( "a" ) );
+        assertNull( cache.get( "b" ) );
+    }
+
+    @Test
+    public void leastRecentlyUsedEntriesAreEvicted()
+    {
+        ResolvedArtifactCache cache = new ResolvedArtifactCache( 2, 0, 0 );
+        cache.put( "a", "1.0", file1 );
+        cache.put( "b", "1.0", file2 );
+        cache.get( "a" );
+        cache.put( "c", "1.0", file2 );
+        assertEquals( 2, cache.size() );
+        assertEquals( file1, cache.get( "a" ) );
+        assertNull( cache.get( "b" ) );
+        assertEquals( file2, cache.get( "c" ) );
+    }
+
+    @Test
+    public void invalidate()
+    {
+        ResolvedArtifactCache cache = new ResolvedArtifactCache( 10, 0, 0 );
+        cache.put( "a", "1.0", file1 );
+        cache.put( "b", "1.0", file2 );
+        cache.invalidate( "a" );
+        assertNull( cache.get( "a" ) );
+        assertEquals( file2, cache.get( "b" ) );
+        cache.clear();
+        assertNull( cache.get( "b" ) );
+    }
+
+}
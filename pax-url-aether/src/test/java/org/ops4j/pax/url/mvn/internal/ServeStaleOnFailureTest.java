@@ -0,0 +1,135 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+
+public class ServeStaleOnFailureTest extends HttpRepositoryTestBase
+{
+
+    private volatile boolean failing;
+
+    @Before
+    public void deployFirstSnapshot() throws Exception
+    {
+        deploySnapshot( "20200101.000000", 1, "v1" );
+    }
+
+    @Override
+    protected void handle( String target, HttpServletResponse response ) throws IOException
+    {
+        if( failing && target.endsWith( ".jar" ) )
+        {
+            response.setStatus( HttpServletResponse.SC_SERVICE_UNAVAILABLE );
+            return;
+        }
+        super.handle( target, response );
+    }
+
+    @Test
+    public void failureIsReportedByDefault() throws Exception
+    {
+        download();
+        // the new snapshot is announced, but cannot be downloaded
+        deploySnapshot( "20200102.000000", 2, "v2" );
+        failing = true;
+        AetherBasedResolver resolver = newResolver( false );
+        try
+        {
+            resolver.resolve( "mvn:g/a/1.0-SNAPSHOT" );
+            fail( "Expected an exception" );
+        }
+        catch( IOException e )
+        {
+            // expected
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void localCopyIsServedOnFailure() throws Exception
+    {
+        download();
+        // the new snapshot is announced, but cannot be downloaded
+        deploySnapshot( "20200102.000000", 2, "v2" );
+        failing = true;
+        AetherBasedResolver resolver = newResolver( true );
+        try
+        {
+            assertEquals( "v1", read( resolver.resolve( "mvn:g/a/1.0-SNAPSHOT" ) ) );
+            // later resolutions use the local copy without contacting the repository
+            int count = requests.get();
+            assertEquals( "v1", read( resolver.resolve( "mvn:g/a/1.0-SNAPSHOT" ) ) );
+            assertEquals( count, requests.get() );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void missingArtifactIsReported() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( true );
+        try
+        {
+            resolver.resolve( "mvn:g/missing/1.0-SNAPSHOT" );
+            fail( "Expected an exception" );
+        }
+        catch( IOException e )
+        {
+            // expected
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private void download() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( false );
+        try
+        {
+            assertEquals( "v1", read( resolver.resolve( "mvn:g/a/1.0-SNAPSHOT" ) ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private AetherBasedResolver newResolver( boolean serveStale )
+    {
+        Properties p = newConfiguration();
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_SERVE_STALE_ON_FAILURE,
+            String.valueOf( serveStale ) );
+        return newResolver( p );
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.LocalRepositoryManager;
+import org.junit.Test;
+
+public class SessionPoolTest
+{
+
+    private static final LocalRepository REPO = new LocalRepository( new File( "target/pool" ), "simple" );
+
+    private final SessionPool.SessionFactory factory = new SessionPool.SessionFactory()
+    {
+        @Override
+        public RepositorySystemSession createSession( LocalRepository repo )
+        {
+            DefaultRepositorySystemSession session = new DefaultRepositorySystemSession();
+            LocalRepositoryManager manager = createMock( LocalRepositoryManager.class );
+            expect( manager.getRepository() ).andReturn( repo ).anyTimes();
+            replay( manager );
+            session.setLocalRepositoryManager( manager );
+            return session;
+        }
+    };
+
+    @Test
+    public void sessionsAreReused()
+    {
+        SessionPool pool = new SessionPool( factory, 2, 0 );
+        RepositorySystemSession session = pool.borrow( REPO );
+        pool.release( session );
+        assertSame( session, pool.borrow( REPO ) );
+        assertEquals( Long.valueOf( 2 ), pool.getStatistics().get( "borrowed" ) );
+        assertEquals( Long.valueOf( 1 ), pool.getStatistics().get( "created" ) );
+        assertTrue( pool.getStatistics().get( "createNanos" ) > 0 );
+    }
+
+    @Test
+    public void idleSessionsAreBounded()
+    {
+        SessionPool pool = new SessionPool( factory, 2, 0 );
+        RepositorySystemSession s1 = pool.borrow( REPO );
+        RepositorySystemSession s2 = pool.borrow( REPO );
+        RepositorySystemSession s3 = pool.borrow( REPO );
+        pool.release( s1 );
+        pool.release( s2 );
+        pool.release( s3 );
+        assertEquals( 2, pool.getIdleCount() );
+        assertEquals( Long.valueOf( 1 ), pool.getStatistics().get( "discarded" ) );
+    }
+
+    @Test
+    public void idleSessionsAreEvicted() throws Exception
+    {
+        SessionPool pool = new SessionPool( factory, 2, 1 );
+        RepositorySystemSession session = pool.borrow( REPO );
+        pool.release( session );
+        Thread.sleep( 10 );
+        pool.evictIdle();
+        assertEquals( 0, pool.getIdleCount() );
+        assertEquals( Long.valueOf( 1 ), pool.getStatistics().get( "evicted" ) );
+        assertNotSame( session, pool.borrow( REPO ) );
+    }
+
+    @Test
+    public void prewarm()
+    {
+        SessionPool pool = new SessionPool( factory, 2, 0 );
+        pool.prewarm( REPO, 5 );
+        assertEquals( 2, pool.getIdleCount() );
+        pool.borrow( REPO );
+        assertEquals( Long.valueOf( 2 ), pool.getStatistics().get( "created" ) );
+    }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.maven.settings.Settings;
+import org.eclipse.jetty.server.Handler;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.handler.HandlerList;
+import org.eclipse.jetty.server.handler.ResourceHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class SingleFlightTest
+{
+
+    private Server server;
+    private int port;
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicBoolean failFirst = new AtomicBoolean();
+    private final CountDownLatch firstReceived = new CountDownLatch( 1 );
+    private final CountDownLatch firstReleased = new CountDownLatch( 1 );
+
+    @Before
+    public void startHttp() throws Exception
+    {
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+
+        AbstractHandler counter = new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                if( target.endsWith( ".sha1" ) || target.endsWith( ".md5" ) )
+                {
+                    // the test jar does not match its checksum, which would make aether retry
+                    response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                    baseRequest.setHandled( true );
+                }
+                else if( target.endsWith( ".jar" ) && failFirst.compareAndSet( true, false ) )
+                {
+                    // held until the test releases it, then failed
+                    firstReceived.countDown();
+                    try
+                    {
+                        firstReleased.await();
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                    response.setStatus( HttpServletResponse.SC_INTERNAL_SERVER_ERROR );
+                    baseRequest.setHandled( true );
+                }
+                else if( target.endsWith( ".jar" ) )
+                {
+                    requests.incrementAndGet();
+                    try
+                    {
+                        // leave enough time for all the threads to join the resolution
+                        Thread.sleep( 500 );
+                    }
+                    catch( InterruptedException e )
+                    {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }
+        };
+        ResourceHandler resourceHandler = new ResourceHandler();
+        resourceHandler.setResourceBase( "target/test-classes/repo2" );
+        HandlerList handlers = new HandlerList();
+        handlers.setHandlers( new Handler[] { counter, resourceHandler } );
+        server.setHandler( handlers );
+        server.start();
+        port = connector.getLocalPort();
+    }
+
+    @After
+    public void stopHttp() throws Exception
+    {
+        server.stop();
+    }
+
+    @Test
+    public void concurrentResolutionsShareRequest() throws Exception
+    {
+        final AetherBasedResolver resolver = newResolver();
+
+        int threads = 8;
+        final CountDownLatch start = new CountDownLatch( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( threads );
+        try
+        {
+            List<Future<File>> futures = new ArrayList<Future<File>>();
+            for( int i = 0; i < threads; i++ )
+            {
+                futures.add( executor.submit( new Callable<File>()
+                {
+                    @Override
+                    public File call() throws Exception
+                    {
+                        start.await();
+                        return resolver.resolve( "mvn:ant/ant/1.5.1" );
+                    }
+                } ) );
+            }
+            start.countDown();
+            File expected = futures.get( 0 ).get();
+            for( Future<File> future : futures )
+            {
+                assertEquals( expected, future.get() );
+            }
+            assertEquals( 1, requests.get() );
+        }
+        finally
+        {
+            executor.shutdownNow();
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void cancellingFirstCallerDoesNotFailOthers() throws Exception
+    {
+        final AetherBasedResolver resolver = newResolver();
+        failFirst.set( true );
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try
+        {
+            Future<File> first = resolver.resolveAsync( "mvn:ant/ant/1.5.1" );
+            assertTrue( firstReceived.await( 10, TimeUnit.SECONDS ) );
+            Future<File> second = executor.submit( new Callable<File>()
+            {
+                @Override
+                public File call() throws Exception
+                {
+                    return resolver.resolve( "mvn:ant/ant/1.5.1" );
+                }
+            } );
+            // leave enough time for the second caller to join the resolution
+            Thread.sleep( 200 );
+            first.cancel( true );
+            firstReleased.countDown();
+
+            assertTrue( first.isCancelled() );
+            assertTrue( second.get( 10, TimeUnit.SECONDS ).isFile() );
+            assertEquals( 1, requests.get() );
+        }
+        finally
+        {
+            firstReleased.countDown();
+            executor.shutdownNow();
+            resolver.close();
+        }
+    }
+
+    private AetherBasedResolver newResolver()
+    {
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:" + port + "/@id=repo2" );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+}
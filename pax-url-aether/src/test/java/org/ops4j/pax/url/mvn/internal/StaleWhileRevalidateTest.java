@@ -0,0 +1,95 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Properties;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+
+public class StaleWhileRevalidateTest extends HttpRepositoryTestBase
+{
+
+    private volatile long delay;
+
+    @Override
+    protected void handle( String target, HttpServletResponse response ) throws IOException
+    {
+        try
+        {
+            Thread.sleep( delay );
+        }
+        catch( InterruptedException e )
+        {
+            Thread.currentThread().interrupt();
+        }
+        super.handle( target, response );
+    }
+
+    @Test
+    public void localSnapshotIsReturnedWhileRefreshed() throws Exception
+    {
+        deploySnapshot( "20200101.000000", 1, "v1" );
+        AetherBasedResolver resolver = newResolver();
+        try
+        {
+            assertEquals( "v1", read( resolver.resolve( "mvn:g/a/1.0-SNAPSHOT" ) ) );
+
+            deploySnapshot( "20200102.000000", 2, "v2" );
+            delay = 2000;
+            long start = System.currentTimeMillis();
+            assertEquals( "v1", read( resolver.resolve( "mvn:g/a/1.0-SNAPSHOT" ) ) );
+            assertTrue( System.currentTimeMillis() - start < 1500 );
+            delay = 0;
+
+            // resolutions after the refresh see the new snapshot
+            assertEquals( "v2", awaitChange( resolver, "v1" ) );
+
+            // and the next ones are refreshed again
+            deploySnapshot( "20200103.000000", 3, "v3" );
+            assertEquals( "v3", awaitChange( resolver, "v2" ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private static String awaitChange( AetherBasedResolver resolver, String current ) throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 30000;
+        String data = current;
+        while( current.equals( data ) && System.currentTimeMillis() < deadline )
+        {
+            Thread.sleep( 200 );
+            data = read( resolver.resolve( "mvn:g/a/1.0-SNAPSHOT" ) );
+        }
+        return data;
+    }
+
+    private AetherBasedResolver newResolver()
+    {
+        Properties p = newConfiguration();
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_SNAPSHOT_STALE_WHILE_REVALIDATE,
+            "true" );
+        return newResolver( p );
+    }
+
+}
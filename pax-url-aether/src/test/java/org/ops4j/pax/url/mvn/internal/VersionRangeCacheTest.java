@@ -0,0 +1,79 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class VersionRangeCacheTest
+{
+
+    @Test
+    public void freshEntry()
+    {
+        VersionRangeCache cache = new VersionRangeCache( 10 );
+        cache.put( "g:a:LATEST", "1.0", Long.MAX_VALUE );
+        VersionRangeCache.Entry entry = cache.get( "g:a:LATEST" );
+        assertNotNull( entry );
+        assertEquals( "1.0", entry.getVersion() );
+        assertFalse( entry.isExpired() );
+    }
+
+    @Test
+    public void expiredEntryIsServedAndRefreshedOnce() throws Exception
+    {
+        VersionRangeCache cache = new VersionRangeCache( 10 );
+        cache.put( "g:a:[1,2)", "1.5", 1 );
+        Thread.sleep( 10 );
+        VersionRangeCache.Entry entry = cache.get( "g:a:[1,2)" );
+        assertNotNull( entry );
+        assertEquals( "1.5", entry.getVersion() );
+        assertTrue( entry.isExpired() );
+        assertTrue( entry.startRefresh() );
+        assertFalse( entry.startRefresh() );
+        entry.refreshFailed();
+        assertTrue( entry.startRefresh() );
+
+        cache.put( "g:a:[1,2)", "1.6", Long.MAX_VALUE );
+        assertEquals( "1.6", cache.get( "g:a:[1,2)" ).getVersion() );
+    }
+
+    @Test
+    public void noTimeToLive()
+    {
+        VersionRangeCache cache = new VersionRangeCache( 10 );
+        cache.put( "g:a:LATEST", "1.0", Long.MAX_VALUE );
+        cache.put( "g:a:LATEST", "1.1", 0 );
+        assertNull( cache.get( "g:a:LATEST" ) );
+    }
+
+    @Test
+    public void leastRecentlyUsedEviction()
+    {
+        VersionRangeCache cache = new VersionRangeCache( 2 );
+        cache.put( "a", "1", Long.MAX_VALUE );
+        cache.put( "b", "1", Long.MAX_VALUE );
+        cache.get( "a" );
+        cache.put( "c", "1", Long.MAX_VALUE );
+        assertNotNull( cache.get( "a" ) );
+        assertNull( cache.get( "b" ) );
+        assertNotNull( cache.get( "c" ) );
+    }
+
+}
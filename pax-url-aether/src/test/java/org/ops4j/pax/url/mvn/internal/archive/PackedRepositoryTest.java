@@ -0,0 +1,149 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Properties;
+
+import org.apache.maven.settings.Settings;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.PackedRepositories;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.AetherBasedResolver;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class PackedRepositoryTest
+{
+
+    private File dir;
+    private File archive;
+
+    @Before
+    public void packRepository() throws Exception
+    {
+        dir = new File( "target/packed_" + System.nanoTime() );
+        File repository = new File( dir, "source" );
+        write( new File( repository, "g/a/1.0/a-1.0.jar" ), "a-1.0" );
+        write( new File( repository, "g/a/1.1/a-1.1.jar" ), "a-1.1" );
+        write( new File( repository, "g/a/1.1/a-1.1.pom" ), "<project/>" );
+        write( new File( repository, "g/a/1.1/_remote.repositories" ), "" );
+        write( new File( repository, "g/a/maven-metadata-central.xml" ), "<metadata><groupId>g</groupId>"
+            + "<artifactId>a</artifactId><versioning><versions><version>1.0</version></versions></versioning></metadata>" );
+        write( new File( repository, "g/a/maven-metadata-local.xml" ), "<metadata><groupId>g</groupId>"
+            + "<artifactId>a</artifactId><versioning><versions><version>1.1</version></versions></versioning></metadata>" );
+        write( new File( repository, "g/b/2.0/b-2.0.jar.lastUpdated" ), "" );
+        archive = new File( dir, "repository.pack" );
+        assertEquals( 6, PackedRepositories.pack( repository, archive ) );
+    }
+
+    @Test
+    public void lookup() throws Exception
+    {
+        PackedRepository repository = PackedRepository.open( archive );
+        assertEquals( 6, repository.size() );
+        assertEquals( "a-1.1", read( repository.get( "g/a/1.1/a-1.1.jar" ) ) );
+        assertEquals( "a-1.0", read( repository.get( "/g/a/1.0/a-1.0.jar" ) ) );
+        assertNull( repository.get( "g/a/1.1/_remote.repositories" ) );
+        assertNull( repository.get( "g/b/2.0/b-2.0.jar.lastUpdated" ) );
+        assertNull( repository.get( "g/a/1.2/a-1.2.jar" ) );
+        assertNull( repository.get( "" ) );
+
+        String metadata = read( repository.get( "g/a/maven-metadata.xml" ) );
+        assertTrue( metadata.contains( "<version>1.0</version>" ) );
+        assertTrue( metadata.contains( "<version>1.1</version>" ) );
+        assertTrue( metadata.contains( "<artifactId>a</artifactId>" ) );
+    }
+
+    @Test( expected = IOException.class )
+    public void notPacked() throws Exception
+    {
+        PackedRepository.open( new File( dir, "source/g/a/1.0/a-1.0.jar" ) );
+    }
+
+    @Test
+    public void resolveFromRepositories() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( ServiceConstants.PROPERTY_REPOSITORIES );
+        try
+        {
+            assertEquals( "a-1.0", read( resolver.resolve( "mvn:g/a/1.0" ) ) );
+            assertEquals( "a-1.1", read( resolver.resolve( "mvn:g/a/[1,2)" ) ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void resolveFromDefaultRepositories() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( ServiceConstants.PROPERTY_DEFAULT_REPOSITORIES );
+        try
+        {
+            assertEquals( "a-1.1", read( resolver.resolve( "mvn:g/a/LATEST" ) ) );
+            assertEquals( "<project/>", read( resolver.resolve( "mvn:g/a/1.1/pom" ) ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private AetherBasedResolver newResolver( String property )
+    {
+        Properties p = new Properties();
+        File localRepo = new File( dir, "repository_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES, "" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_USE_FALLBACK_REPOSITORIES, "false" );
+        p.setProperty( ServiceConstants.PID + "." + property, archive.toURI().toString() + "@id=packed" );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+    private static void write( File file, String content ) throws IOException
+    {
+        file.getParentFile().mkdirs();
+        Files.write( file.toPath(), content.getBytes( "UTF-8" ) );
+    }
+
+    private static String read( File file ) throws IOException
+    {
+        return new String( Files.readAllBytes( file.toPath() ), "UTF-8" );
+    }
+
+    private static String read( ByteBuffer content ) throws IOException
+    {
+        byte[] data = new byte[content.remaining()];
+        content.get( data );
+        return new String( data, "UTF-8" );
+    }
+
+}
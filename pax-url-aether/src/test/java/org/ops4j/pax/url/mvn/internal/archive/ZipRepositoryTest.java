@@ -0,0 +1,191 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.archive;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import org.apache.maven.settings.Settings;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.AetherBasedResolver;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class ZipRepositoryTest
+{
+
+    private File dir;
+    private File zip;
+
+    @Before
+    public void createZip() throws Exception
+    {
+        dir = new File( "target/zip_" + System.nanoTime() );
+        dir.mkdirs();
+        zip = new File( dir, "offline repository.zip" );
+        ZipOutputStream os = new ZipOutputStream( new FileOutputStream( zip ) );
+        try
+        {
+            os.putNextEntry( new ZipEntry( "repository/" ) );
+            add( os, "repository/g/a/1.0/a-1.0.jar", "a-1.0", false );
+            add( os, "repository/g/a/1.1/a-1.1.jar", "a-1.1", true );
+            add( os, "repository/g/a/maven-metadata.xml", "<metadata><groupId>g</groupId><artifactId>a</artifactId>"
+                + "<versioning><versions><version>1.0</version><version>1.1</version></versions></versioning>"
+                + "</metadata>", false );
+        }
+        finally
+        {
+            os.close();
+        }
+    }
+
+    @Test
+    public void urls()
+    {
+        String url = zip.toURI().toString();
+        assertEquals( zip.getAbsoluteFile(), ZipTransporterFactory.getFile( "jar:" + url + "!/repository/" ) );
+        assertEquals( "repository/", ZipTransporterFactory.getPrefix( "jar:" + url + "!/repository" ) );
+        assertEquals( "", ZipTransporterFactory.getPrefix( "jar:" + url + "!/" ) );
+        assertNull( ZipTransporterFactory.getFile( url ) );
+        assertNull( ZipTransporterFactory.getFile( "jar:http://localhost/repo.zip!/repository/" ) );
+    }
+
+    @Test
+    public void lookup() throws Exception
+    {
+        ZipRepository repository = ZipRepository.open( zip );
+        assertEquals( 4, repository.size() );
+        assertEquals( 5, repository.getEntry( "repository/g/a/1.1/a-1.1.jar" ).getSize() );
+        assertNull( repository.getEntry( "repository/" ) );
+        assertNull( repository.getEntry( "repository/g/a/1.2/a-1.2.jar" ) );
+        repository.release();
+    }
+
+    @Test
+    public void closedOnceReleased() throws Exception
+    {
+        ZipRepository repository = ZipRepository.open( zip );
+        ZipEntry entry = repository.getEntry( "repository/g/a/1.1/a-1.1.jar" );
+        repository.retain();
+        repository.release();
+        repository.getInputStream( entry ).close();
+        repository.release();
+        try
+        {
+            repository.getInputStream( entry );
+            fail( "Expected the zip file to be closed" );
+        }
+        catch( IllegalStateException e )
+        {
+            // expected
+        }
+    }
+
+    @Test
+    public void resolveFromRepositories() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( ServiceConstants.PROPERTY_REPOSITORIES,
+            "jar:" + zip.toURI() + "!/repository@id=zip" );
+        try
+        {
+            assertEquals( "a-1.0", read( resolver.resolve( "mvn:g/a/1.0" ) ) );
+            assertEquals( "a-1.1", read( resolver.resolve( "mvn:g/a/[1,2)" ) ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void resolveFromDefaultRepositories() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( ServiceConstants.PROPERTY_DEFAULT_REPOSITORIES,
+            "jar:" + zip.toURI() + "!/repository@id=zip" );
+        try
+        {
+            assertEquals( "a-1.1", read( resolver.resolve( "mvn:g/a/LATEST" ) ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    @Test
+    public void resolveFromUrlRepository() throws Exception
+    {
+        AetherBasedResolver resolver = newResolver( ServiceConstants.PROPERTY_REPOSITORIES, "" );
+        try
+        {
+            assertEquals( "a-1.0", read( resolver.resolve( "mvn:jar:" + zip.toURI() + "!/repository!g/a/1.0" ) ) );
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private AetherBasedResolver newResolver( String property, String repositories )
+    {
+        Properties p = new Properties();
+        File localRepo = new File( dir, "repository_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES, "" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_USE_FALLBACK_REPOSITORIES, "false" );
+        p.setProperty( ServiceConstants.PID + "." + property, repositories );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        return new AetherBasedResolver( config );
+    }
+
+    private static void add( ZipOutputStream os, String name, String content, boolean deflated ) throws IOException
+    {
+        byte[] data = content.getBytes( "UTF-8" );
+        ZipEntry entry = new ZipEntry( name );
+        if( !deflated )
+        {
+            CRC32 crc = new CRC32();
+            crc.update( data );
+            entry.setMethod( ZipEntry.STORED );
+            entry.setSize( data.length );
+            entry.setCrc( crc.getValue() );
+        }
+        os.putNextEntry( entry );
+        os.write( data );
+        os.closeEntry();
+    }
+
+    private static String read( File file ) throws IOException
+    {
+        return new String( Files.readAllBytes( file.toPath() ), "UTF-8" );
+    }
+
+}
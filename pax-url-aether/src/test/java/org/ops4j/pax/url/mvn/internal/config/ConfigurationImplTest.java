@@ -642,4 +642,21 @@ public class ConfigurationImplTest
         verify(propertyResolver);
     }
 
+    @Test
+    public void getProperty()
+    {
+        PropertyResolver propertyResolver = createMock( PropertyResolver.class );
+        expect( propertyResolver.get( "org.ops4j.pax.url.mvn.localRepository" ) ).andReturn( null );
+        expect( propertyResolver.get( "org.ops4j.pax.url.mvn.settings" ) ).andReturn( null );
+        expect( propertyResolver.get( "org.ops4j.pax.url.mvn.useFallbackRepositories" ) ).andReturn( null );
+        expect( propertyResolver.get( "org.ops4j.pax.url.mvn.asyncThreads" ) ).andReturn( " 4 " );
+        expect( propertyResolver.get( "org.ops4j.pax.url.mvn.asyncQueueSize" ) ).andReturn( null );
+        replay( propertyResolver );
+        MavenConfiguration config = new MavenConfigurationImpl( propertyResolver, PID );
+        assertEquals( Integer.valueOf( 4 ), config.getProperty( "asyncThreads", 8, Integer.class ) );
+        assertEquals( Integer.valueOf( 4 ), config.getProperty( "asyncThreads", 8, Integer.class ) );
+        assertEquals( Integer.valueOf( 1000 ), config.getProperty( "asyncQueueSize", 1000, Integer.class ) );
+        verify( propertyResolver );
+    }
+
 }
@@ -0,0 +1,553 @@
+/*
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ops4j.pax.url.mvn.internal.http;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.maven.repository.internal.MavenRepositorySystemUtils;
+import org.apache.maven.settings.Settings;
+import org.eclipse.aether.DefaultRepositorySystemSession;
+import org.eclipse.aether.internal.impl.SimpleLocalRepositoryManagerFactory;
+import org.eclipse.aether.repository.LocalRepository;
+import org.eclipse.aether.repository.RemoteRepository;
+import org.eclipse.aether.spi.connector.transport.GetTask;
+import org.eclipse.aether.spi.connector.transport.PeekTask;
+import org.eclipse.aether.spi.connector.transport.PutTask;
+import org.eclipse.aether.spi.connector.transport.TransportListener;
+import org.eclipse.aether.spi.connector.transport.Transporter;
+import org.eclipse.aether.transfer.NoTransporterException;
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.ops4j.pax.url.mvn.ServiceConstants;
+import org.ops4j.pax.url.mvn.internal.AetherBasedResolver;
+import org.ops4j.pax.url.mvn.internal.HttpClients;
+import org.ops4j.pax.url.mvn.internal.config.MavenConfigurationImpl;
+import org.ops4j.util.property.PropertiesPropertyResolver;
+
+public class HttpTransporterTest
+{
+
+    private Server server;
+    private int port;
+    private final Map<String, byte[]> content = new ConcurrentHashMap<String, byte[]>();
+    private final Map<String, String> userAgents = new ConcurrentHashMap<String, String>();
+    private final AtomicInteger pragmaRequests = new AtomicInteger();
+    private final List<String> ranges = new CopyOnWriteArrayList<String>();
+    private final AtomicInteger failures = new AtomicInteger();
+    private final AtomicInteger stalls = new AtomicInteger();
+    private final AtomicInteger notModified = new AtomicInteger();
+    private CloseableHttpClient client;
+
+    @Before
+    public void startHttp() throws Exception
+    {
+        server = new Server();
+        SelectChannelConnector connector = new SelectChannelConnector();
+        connector.setPort( 0 );
+        server.addConnector( connector );
+        server.setHandler( new AbstractHandler()
+        {
+            @Override
+            public void handle( String target, Request baseRequest, HttpServletRequest request,
+                                HttpServletResponse response ) throws IOException, ServletException
+            {
+                baseRequest.setHandled( true );
+                userAgents.put( target, String.valueOf( request.getHeader( "User-Agent" ) ) );
+                if( request.getHeader( "Pragma" ) != null )
+                {
+                    pragmaRequests.incrementAndGet();
+                }
+                if( "PUT".equals( request.getMethod() ) )
+                {
+                    content.put( target, read( request.getInputStream() ) );
+                    response.setStatus( HttpServletResponse.SC_CREATED );
+                    return;
+                }
+                byte[] data = content.get( target );
+                if( data == null )
+                {
+                    response.setStatus( HttpServletResponse.SC_NOT_FOUND );
+                    return;
+                }
+                String etag = "\"" + Arrays.hashCode( data ) + "\"";
+                if( etag.equals( request.getHeader( "If-None-Match" ) ) )
+                {
+                    notModified.incrementAndGet();
+                    response.setStatus( HttpServletResponse.SC_NOT_MODIFIED );
+                    return;
+                }
+                response.setHeader( "ETag", etag );
+                response.setHeader( "Accept-Ranges", "bytes" );
+                int start = 0;
+                int end = data.length - 1;
+                String range = request.getHeader( "Range" );
+                if( range != null )
+                {
+                    ranges.add( range );
+                    String[] bounds = range.substring( "bytes=".length() ).split( "-", -1 );
+                    start = Integer.parseInt( bounds[0] );
+                    if( bounds[1].length() > 0 )
+                    {
+                        end = Math.min( end, Integer.parseInt( bounds[1] ) );
+                    }
+                    response.setStatus( HttpServletResponse.SC_PARTIAL_CONTENT );
+                    response.setHeader( "Content-Range", "bytes " + start + "-" + end + "/" + data.length );
+                }
+                int length = end + 1 - start;
+                response.setContentLength( length );
+                if( "GET".equals( request.getMethod() ) )
+                {
+                    if( failures.getAndDecrement() > 0 )
+                    {
+                        // send half of the content, then drop the connection
+                        response.getOutputStream().write( data, start, length / 2 );
+                        response.flushBuffer();
+                        baseRequest.getConnection().getEndPoint().close();
+                        return;
+                    }
+                    if( start > 0 && stalls.getAndDecrement() > 0 )
+                    {
+                        // send half of the range, then stop sending until the client times out
+                        response.getOutputStream().write( data, start, length / 2 );
+                        response.flushBuffer();
+                        try
+                        {
+                            Thread.sleep( 2000 );
+                        }
+                        catch( InterruptedException e )
+                        {
+                            Thread.currentThread().interrupt();
+                        }
+                        baseRequest.getConnection().getEndPoint().close();
+                        return;
+                    }
+                    response.getOutputStream().write( data, start, length );
+                }
+            }
+        } );
+        server.start();
+        port = connector.getLocalPort();
+        client = HttpClients.createClient( new PropertiesPropertyResolver( new Properties() ) );
+    }
+
+    @After
+    public void stopHttp() throws Exception
+    {
+        client.close();
+        server.stop();
+    }
+
+    @Test
+    public void getPeekAndPut() throws Exception
+    {
+        content.put( "/repo/a/b/file.txt", "hello".getBytes( "UTF-8" ) );
+        Transporter transporter = newTransporter( "http://localhost:" + port + "/repo" );
+        try
+        {
+            transporter.peek( new PeekTask( URI.create( "a/b/file.txt" ) ) );
+
+            File file = new File( "target/http-transporter/file_" + System.nanoTime() + ".txt" );
+            file.getParentFile().mkdirs();
+            transporter.get( new GetTask( URI.create( "a/b/file.txt" ) ).setDataFile( file ) );
+            assertEquals( 5, file.length() );
+            assertEquals( "Aether", userAgents.get( "/repo/a/b/file.txt" ) );
+
+            transporter.put( new PutTask( URI.create( "c/uploaded.txt" ) ).setDataString( "uploaded" ) );
+            assertArrayEquals( "uploaded".getBytes( "UTF-8" ), content.get( "/repo/c/uploaded.txt" ) );
+
+            GetTask task = new GetTask( URI.create( "c/uploaded.txt" ) );
+            transporter.get( task );
+            assertEquals( "uploaded", task.getDataString() );
+        }
+        finally
+        {
+            transporter.close();
+        }
+    }
+
+    @Test
+    public void missingResourceIsClassifiedAsNotFound() throws Exception
+    {
+        Transporter transporter = newTransporter( "http://localhost:" + port + "/repo/" );
+        try
+        {
+            transporter.get( new GetTask( URI.create( "missing.txt" ) ) );
+            fail( "Expected an exception" );
+        }
+        catch( Exception e )
+        {
+            assertEquals( Transporter.ERROR_NOT_FOUND, transporter.classify( e ) );
+        }
+        finally
+        {
+            transporter.close();
+        }
+    }
+
+    @Test
+    public void downloadInConcurrentRanges() throws Exception
+    {
+        byte[] data = newContent( 1000000 );
+        content.put( "/repo/large.bin", data );
+        ExecutorService executor = Executors.newFixedThreadPool( 3 );
+        Transporter transporter = newTransporter( "http://localhost:" + port + "/repo", 100000, executor );
+        try
+        {
+            File file = newFile();
+            RecordingListener listener = new RecordingListener();
+            transporter.get( new GetTask( URI.create( "large.bin" ) ).setDataFile( file ).setListener( listener ) );
+            assertArrayEquals( data, readFile( file ) );
+            // the listener is given the content in order
+            assertArrayEquals( data, listener.data.toByteArray() );
+            assertEquals( 10, ranges.size() );
+            assertTrue( ranges.contains( "bytes=0-99999" ) );
+            assertTrue( ranges.contains( "bytes=900000-999999" ) );
+        }
+        finally
+        {
+            transporter.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void resumeTimedOutRange() throws Exception
+    {
+        byte[] data = newContent( 400000 );
+        content.put( "/repo/large.bin", data );
+        stalls.set( 1 );
+        ExecutorService executor = Executors.newFixedThreadPool( 3 );
+        Transporter transporter = newTransporter( "http://localhost:" + port + "/repo", 100000, executor, 500 );
+        try
+        {
+            File file = newFile();
+            RecordingListener listener = new RecordingListener();
+            transporter.get( new GetTask( URI.create( "large.bin" ) ).setDataFile( file ).setListener( listener ) );
+            assertArrayEquals( data, readFile( file ) );
+            assertArrayEquals( data, listener.data.toByteArray() );
+            assertEquals( 1, listener.started );
+            // the stalled range is requested again from the bytes already received
+            assertEquals( 5, ranges.size() );
+        }
+        finally
+        {
+            transporter.close();
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void resumeInterruptedDownload() throws Exception
+    {
+        byte[] data = newContent( 200000 );
+        content.put( "/repo/large.bin", data );
+        failures.set( 1 );
+        Transporter transporter = newTransporter( "http://localhost:" + port + "/repo/" );
+        try
+        {
+            File file = newFile();
+            RecordingListener listener = new RecordingListener();
+            transporter.get( new GetTask( URI.create( "large.bin" ) ).setDataFile( file ).setListener( listener ) );
+            assertArrayEquals( data, readFile( file ) );
+            assertEquals( 1, ranges.size() );
+            assertEquals( 1, listener.started );
+            assertEquals( 0, listener.offset );
+            assertTrue( Long.parseLong( ranges.get( 0 ).replaceAll( "\\D", "" ) ) > 0 );
+        }
+        finally
+        {
+            transporter.close();
+        }
+    }
+
+    @Test
+    public void resumeFromPartialFile() throws Exception
+    {
+        byte[] data = newContent( 1000 );
+        content.put( "/repo/file.bin", data );
+        File file = newFile();
+        FileOutputStream os = new FileOutputStream( file );
+        os.write( data, 0, 400 );
+        os.close();
+        Transporter transporter = newTransporter( "http://localhost:" + port + "/repo/" );
+        try
+        {
+            transporter.get( new GetTask( URI.create( "file.bin" ) ).setDataFile( file, true ) );
+            assertArrayEquals( data, readFile( file ) );
+            assertEquals( Arrays.asList( "bytes=400-" ), ranges );
+        }
+        finally
+        {
+            transporter.close();
+        }
+    }
+
+    @Test
+    public void refreshMetadataConditionally() throws Exception
+    {
+        content.put( "/repo/g/a/maven-metadata.xml", "<metadata/>".getBytes( "UTF-8" ) );
+        content.put( "/repo/g/a/1/a-1.jar", newContent( 1000 ) );
+        File localRepo = new File( "target/http-transporter/localrepo_" + System.nanoTime() );
+        File metadata = new File( localRepo, "g/a/maven-metadata-test.xml" );
+        Transporter transporter = newTransporter( "http://localhost:" + port + "/repo", localRepo );
+        try
+        {
+            download( transporter, "g/a/maven-metadata.xml", metadata, null );
+            assertEquals( "<metadata/>", new String( readFile( metadata ), "UTF-8" ) );
+            assertEquals( 0, notModified.get() );
+            assertTrue( new File( metadata.getPath() + ".validators" ).isFile() );
+
+            // unchanged, served from the local copy
+            RecordingListener listener = new RecordingListener();
+            download( transporter, "g/a/maven-metadata.xml", metadata, listener );
+            assertEquals( "<metadata/>", new String( readFile( metadata ), "UTF-8" ) );
+            assertEquals( "<metadata/>", new String( listener.data.toByteArray(), "UTF-8" ) );
+            assertEquals( 1, notModified.get() );
+
+            // whatever the name of the temporary file, the target file follows the local repository layout
+            File part = new File( metadata.getPath() + ".part" );
+            transporter.get( new GetTask( URI.create( "g/a/maven-metadata.xml" ) ).setDataFile( part ) );
+            assertEquals( "<metadata/>", new String( readFile( part ), "UTF-8" ) );
+            assertEquals( 2, notModified.get() );
+            assertTrue( part.delete() );
+
+            // without a target file in the local repository, requested unconditionally
+            GetTask task = new GetTask( URI.create( "g/a/maven-metadata.xml" ) );
+            transporter.get( task );
+            assertEquals( "<metadata/>", task.getDataString() );
+            assertEquals( 2, notModified.get() );
+
+            // the local copy changed, requested unconditionally
+            Files.write( metadata.toPath(), "<metadata><local/></metadata>".getBytes( "UTF-8" ) );
+            download( transporter, "g/a/maven-metadata.xml", metadata, null );
+            assertEquals( "<metadata/>", new String( readFile( metadata ), "UTF-8" ) );
+            assertEquals( 2, notModified.get() );
+
+            // changed, downloaded again
+            content.put( "/repo/g/a/maven-metadata.xml", "<metadata><version>1</version></metadata>".getBytes( "UTF-8" ) );
+            download( transporter, "g/a/maven-metadata.xml", metadata, null );
+            assertEquals( "<metadata><version>1</version></metadata>", new String( readFile( metadata ), "UTF-8" ) );
+            assertEquals( 2, notModified.get() );
+
+            // artifacts are not requested conditionally
+            File artifact = new File( localRepo, "g/a/1/a-1.jar" );
+            for( int i = 0; i < 2; i++ )
+            {
+                download( transporter, "g/a/1/a-1.jar", artifact, null );
+                assertEquals( 1000, artifact.length() );
+            }
+            assertEquals( 2, notModified.get() );
+        }
+        finally
+        {
+            transporter.close();
+        }
+    }
+
+    @Test( expected = NoTransporterException.class )
+    public void rejectsOtherProtocols() throws Exception
+    {
+        newTransporter( "file:///tmp/repo" );
+    }
+
+    @Test
+    public void resolveWithNativeTransport() throws Exception
+    {
+        content.put( "/ant/ant/1.5.1/ant-1.5.1.jar", "jar".getBytes( "UTF-8" ) );
+        Properties p = new Properties();
+        File localRepo = new File( "target/localrepo_" + System.nanoTime() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_LOCAL_REPOSITORY,
+            localRepo.toURI().toString() );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_REPOSITORIES,
+            "http://localhost:" + port + "/@id=native" );
+        p.setProperty( ServiceConstants.PID + "." + ServiceConstants.PROPERTY_HTTP_TRANSPORT,
+            ServiceConstants.HTTP_TRANSPORT_NATIVE );
+        MavenConfigurationImpl config = new MavenConfigurationImpl( new PropertiesPropertyResolver( p ),
+            ServiceConstants.PID );
+        Settings settings = new Settings();
+        settings.setLocalRepository( localRepo.getPath() );
+        config.setSettings( settings );
+        AetherBasedResolver resolver = new AetherBasedResolver( config );
+        try
+        {
+            File file = resolver.resolve( "mvn:ant/ant/1.5.1" );
+            assertTrue( file.isFile() );
+            assertEquals( 3, file.length() );
+            // the wagon transporter sends no-cache pragmas
+            assertEquals( 0, pragmaRequests.get() );
+            // the validators of the metadata are kept next to them
+            content.put( "/ant/ant/maven-metadata.xml", ( "<metadata><groupId>ant</groupId><artifactId>ant</artifactId>"
+                + "<versioning><latest>1.5.1</latest><release>1.5.1</release><versions><version>1.5.1</version>"
+                + "</versions></versioning></metadata>" ).getBytes( "UTF-8" ) );
+            assertEquals( file, resolver.resolve( "mvn:ant/ant/LATEST" ) );
+            assertTrue( new File( localRepo, "ant/ant/maven-metadata-native.xml.validators" ).isFile() );
+            try
+            {
+                resolver.resolve( "mvn:ant/missing/1.0" );
+                fail( "Expected an exception" );
+            }
+            catch( IOException e )
+            {
+                // expected
+            }
+        }
+        finally
+        {
+            resolver.close();
+        }
+    }
+
+    private Transporter newTransporter( String url ) throws NoTransporterException
+    {
+        return newTransporter( url, 0, null );
+    }
+
+    private Transporter newTransporter( String url, long chunkSize, Executor executor ) throws NoTransporterException
+    {
+        return newTransporter( url, chunkSize, executor, 5000 );
+    }
+
+    private Transporter newTransporter( String url, long chunkSize, Executor executor, int timeout )
+        throws NoTransporterException
+    {
+        DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+        RemoteRepository repository = new RemoteRepository.Builder( "test", "default", url ).build();
+        return new HttpTransporterFactory( client, timeout, chunkSize, 3, executor, false ).newInstance( session, repository );
+    }
+
+    private Transporter newTransporter( String url, File localRepo ) throws Exception
+    {
+        DefaultRepositorySystemSession session = MavenRepositorySystemUtils.newSession();
+        session.setLocalRepositoryManager( new SimpleLocalRepositoryManagerFactory().newInstance( session,
+            new LocalRepository( localRepo ) ) );
+        RemoteRepository repository = new RemoteRepository.Builder( "test", "default", url ).build();
+        return new HttpTransporterFactory( client, 5000, 0, 3, null, true ).newInstance( session, repository );
+    }
+
+    /**
+     * Download a resource as aether does, into a temporary file renamed to the target file.
+     */
+    private static void download( Transporter transporter, String path, File target, TransportListener listener )
+        throws Exception
+    {
+        target.getParentFile().mkdirs();
+        File tmp = File.createTempFile( target.getName() + "-" + UUID.randomUUID().toString().replace( "-", "" ),
+            ".tmp", target.getParentFile() );
+        GetTask task = new GetTask( URI.create( path ) ).setDataFile( tmp );
+        if( listener != null )
+        {
+            task.setListener( listener );
+        }
+        transporter.get( task );
+        Files.move( tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    private static File newFile()
+    {
+        File file = new File( "target/http-transporter/file_" + System.nanoTime() + ".bin" );
+        file.getParentFile().mkdirs();
+        return file;
+    }
+
+    private static byte[] newContent( int size )
+    {
+        byte[] data = new byte[size];
+        new Random( size ).nextBytes( data );
+        return data;
+    }
+
+    private static byte[] readFile( File file ) throws IOException
+    {
+        FileInputStream is = new FileInputStream( file );
+        try
+        {
+            return read( is );
+        }
+        finally
+        {
+            is.close();
+        }
+    }
+
+    private static class RecordingListener extends TransportListener
+    {
+        final ByteArrayOutputStream data = new ByteArrayOutputStream();
+        long offset;
+        int started;
+
+        @Override
+        public void transportStarted( long dataOffset, long dataLength )
+        {
+            started++;
+            offset = dataOffset;
+            data.reset();
+            data.write( new byte[(int) dataOffset], 0, (int) dataOffset );
+        }
+
+        @Override
+        public void transportProgressed( ByteBuffer buffer )
+        {
+            data.write( buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining() );
+        }
+    }
+
+    private static byte[] read( InputStream is ) throws IOException
+    {
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while( ( n = is.read( buffer ) ) > 0 )
+        {
+            os.write( buffer, 0, n );
+        }
+        return os.toByteArray();
+    }
+
+}